@@ -1,7 +1,16 @@
 package src.client;
 
 import src.common.Constants;
+import src.common.CopyRegion;
+import src.common.CursorShape;
+import src.common.Frame;
+import src.common.FrameReader;
+import src.common.FrameWriter;
 import src.common.Message;
+import src.common.Protocol;
+import src.common.ScreenTile;
+import src.common.ScreenUpdate;
+import src.common.ThreadMode;
 
 import java.io.*;
 import java.net.Socket;
@@ -21,8 +30,12 @@ public class Client {
     private int port;
     private String username;
     private String password;
-    private DataInputStream in;
     private DataOutputStream out;
+    private FrameReader reader;
+    private FrameWriter writer;
+    private InputBatcher inputBatcher;
+    // The message being handled
+    private DataInputStream in;
     private boolean isConnected;
     private List<ClientEventListener> listeners;
     private UserDAO userDAO;
@@ -48,38 +61,45 @@ public class Client {
         this.username = username;
         this.password = password;
         
-        new Thread(() -> {
+        ThreadMode.start("ClientConnect", () -> {
             try {
                 System.out.println("Connecting to server at " + serverIP + ":" + port);
                 socket = new Socket(serverIP, port);
                 System.out.println("Socket connected to server");
                 
-                in = new DataInputStream(socket.getInputStream());
+                DataInputStream socketIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
                 out = new DataOutputStream(socket.getOutputStream());
                 
-                System.out.println("Sending authentication message");
-                System.out.println("Authentication message type: " + Constants.MESSAGE_TYPE_AUTHENTICATION);
-                
-                // Send authentication
-                out.writeInt(Constants.MESSAGE_TYPE_AUTHENTICATION);
-                out.flush();
-                System.out.println("Authentication message type sent");
-                
-                out.writeUTF(password);
-                out.flush();
-                System.out.println("Password sent: " + password);
+                // Agree on the protocol version and features first
+                Protocol.writeHello(out, new Protocol.Hello(Protocol.VERSION, Protocol.CAPABILITIES));
+                Protocol.Hello agreed = Protocol.readHello(socketIn);
+                if (agreed.version < Protocol.MIN_VERSION) {
+                    throw new IOException("Server doesn't support protocol version " + Protocol.VERSION);
+                }
+                System.out.println("Protocol version " + agreed.version + ", capabilities " + agreed.capabilities);
+                reader = new FrameReader(socketIn, agreed.capabilities);
+                writer = new FrameWriter(out, agreed.capabilities);
                 
-                out.writeUTF(username);
-                out.flush();
+                System.out.println("Sending authentication message");
+                writer.send(Constants.MESSAGE_TYPE_AUTHENTICATION, out -> {
+                    out.writeUTF(password);
+                    out.writeUTF(username);
+                });
                 System.out.println("Username sent: " + username);
                 
                 // Wait for authentication result
+                Frame result = reader.read();
+                if (result.getType() != Constants.MESSAGE_TYPE_AUTHENTICATION) {
+                    throw new IOException("Unexpected message type before authentication: " + result.getType());
+                }
+                in = result.openPayload();
                 boolean success = in.readBoolean();
                 String message = in.readUTF();
                 
                 System.out.println("Authentication result: " + success + ", Message: " + message);
                 
                 if (success) {
+                    inputBatcher = new InputBatcher(writer);
                     isConnected = true;
                     
                     // Update or create user and session in MongoDB
@@ -145,7 +165,7 @@ public class Client {
                 // Close connection
                 disconnect();
             }
-        }).start();
+        });
     }
 
     //method to load user preferences
@@ -182,12 +202,16 @@ public class Client {
     }
     
     private void startMessageReceiver() {
-        new Thread(() -> {
+        ThreadMode.start("ClientMessageReceiver", () -> {
             try {
                 System.out.println("Starting message receiver");
                 while (isConnected) {
-                    int messageType = in.readInt();
-                    System.out.println("Received message type: " + messageType);
+                    Frame frame = reader.read();
+                    in = frame.openPayload();
+                    int messageType = frame.getType();
+                    if (messageType != Constants.MESSAGE_TYPE_CURSOR_POSITION) {
+                        System.out.println("Received message type: " + messageType);
+                    }
                     
                     switch (messageType) {
                         case Constants.MESSAGE_TYPE_CHAT:
@@ -205,6 +229,12 @@ public class Client {
                         case Constants.MESSAGE_TYPE_CONTROL_REVOKE:
                             handleControlRevoke();
                             break;
+                        case Constants.MESSAGE_TYPE_CURSOR_SHAPE:
+                            handleCursorShape();
+                            break;
+                        case Constants.MESSAGE_TYPE_CURSOR_POSITION:
+                            handleCursorPosition();
+                            break;
                         default:
                             System.out.println("Unknown message type: " + messageType);
                             break;
@@ -222,7 +252,7 @@ public class Client {
                 }
             }
             System.out.println("Message receiver stopped");
-        }).start();
+        });
     }
     
     private void handleChatMessage() throws IOException {
@@ -254,15 +284,82 @@ public class Client {
     }
     
     private void handleScreenUpdate() throws IOException {
-        int dataSize = in.readInt();
-        byte[] screenData = new byte[dataSize];
-        in.readFully(screenData);
+        int updateId = in.readInt();
+        ScreenUpdate update = new ScreenUpdate(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+        
+        int copyCount = in.readInt();
+        for (int i = 0; i < copyCount; i++) {
+            int sourceX = in.readInt();
+            int sourceY = in.readInt();
+            int width = in.readInt();
+            int height = in.readInt();
+            int destX = in.readInt();
+            int destY = in.readInt();
+            update.addCopy(new CopyRegion(sourceX, sourceY, width, height, destX, destY));
+        }
+        
+        int tileCount = in.readInt();
+        int dataSize = 0;
+        for (int i = 0; i < tileCount; i++) {
+            int x = in.readInt();
+            int y = in.readInt();
+            int width = in.readInt();
+            int height = in.readInt();
+            byte codec = in.readByte();
+            int length = in.readInt();
+            if (length < 0 || length > in.available()) {
+                throw new IOException("Invalid tile data length: " + length);
+            }
+            byte[] tileData = new byte[length];
+            in.readFully(tileData);
+            
+            update.addTile(new ScreenTile(x, y, width, height, codec, tileData));
+            dataSize += tileData.length;
+        }
         
-        System.out.println("Screen update received: " + dataSize + " bytes");
+        System.out.println("Screen update received: " + copyCount + " copies, " + tileCount + " tiles, " + dataSize + " bytes");
         
         // Notify listeners
         for (ClientEventListener listener : listeners) {
-            listener.onScreenUpdate(screenData);
+            listener.onScreenUpdate(update);
+        }
+        
+        // The update has been drawn; the server paces this connection by these acknowledgements
+        sendScreenAck(updateId);
+    }
+    
+    private void sendScreenAck(int updateId) throws IOException {
+        writer.send(Constants.MESSAGE_TYPE_SCREEN_ACK, out -> out.writeInt(updateId));
+    }
+    
+    private void handleCursorShape() throws IOException {
+        int id = in.readInt();
+        int hotspotX = in.readInt();
+        int hotspotY = in.readInt();
+        int width = in.readInt();
+        int height = in.readInt();
+        if (width <= 0 || width > CursorShape.MAX_SIZE || height <= 0 || height > CursorShape.MAX_SIZE) {
+            throw new IOException("Invalid cursor size: " + width + "x" + height);
+        }
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = in.readInt();
+        }
+        
+        CursorShape shape = new CursorShape(id, hotspotX, hotspotY, width, height, pixels);
+        for (ClientEventListener listener : listeners) {
+            listener.onCursorShape(shape);
+        }
+    }
+    
+    // Cursor moves are frequent, so unlike other messages they aren't logged
+    private void handleCursorPosition() throws IOException {
+        int x = in.readInt();
+        int y = in.readInt();
+        int shapeId = in.readInt();
+        
+        for (ClientEventListener listener : listeners) {
+            listener.onCursorMoved(x, y, shapeId);
         }
     }
     
@@ -292,9 +389,7 @@ public class Client {
         
         try {
             System.out.println("Sending chat message: " + message);
-            out.writeInt(Constants.MESSAGE_TYPE_CHAT);
-            out.writeUTF(message);
-            out.flush();
+            writer.send(Constants.MESSAGE_TYPE_CHAT, out -> out.writeUTF(message));
         } catch (IOException e) {
             System.err.println("Error sending chat message: " + e.getMessage());
             e.printStackTrace();
@@ -308,55 +403,90 @@ public class Client {
         
         try {
             System.out.println("Sending file: " + fileName + " (" + fileData.length + " bytes)");
-            out.writeInt(Constants.MESSAGE_TYPE_FILE);
-            out.writeUTF(fileName);
-            out.writeInt(fileData.length);
-            out.write(fileData);
-            out.flush();
+            writer.send(Constants.MESSAGE_TYPE_FILE, out -> {
+                out.writeUTF(fileName);
+                out.writeInt(fileData.length);
+                out.write(fileData);
+            });
         } catch (IOException e) {
             System.err.println("Error sending file: " + e.getMessage());
             e.printStackTrace();
         }
     }
     
-    public void sendMouseEvent(String eventType, byte[] data) {
+    // Tell the server how large the screen is displayed, so it can scale frames down to that size
+    public void sendViewport(int width, int height) {
         if (!isConnected) {
-            System.out.println("Cannot send mouse event - not connected");
             return;
         }
         
         try {
-            System.out.println("Sending mouse event: " + eventType);
-            out.writeInt(Constants.MESSAGE_TYPE_MOUSE);
-            out.writeUTF(eventType);
-            out.writeInt(data.length);
-            out.write(data);
-            out.flush();
+            System.out.println("Sending viewport: " + width + "x" + height);
+            writer.send(Constants.MESSAGE_TYPE_VIEWPORT, out -> {
+                out.writeInt(width);
+                out.writeInt(height);
+            });
         } catch (IOException e) {
-            System.err.println("Error sending mouse event: " + e.getMessage());
+            System.err.println("Error sending viewport: " + e.getMessage());
             e.printStackTrace();
         }
     }
     
-    public void sendKeyboardEvent(String eventType, byte[] data) {
+    // Ask for frames in one of the Constants.COLOR_DEPTH_* modes
+    public void sendColorDepth(byte colorDepth) {
         if (!isConnected) {
-            System.out.println("Cannot send keyboard event - not connected");
             return;
         }
         
         try {
-            System.out.println("Sending keyboard event: " + eventType);
-            out.writeInt(Constants.MESSAGE_TYPE_KEYBOARD);
-            out.writeUTF(eventType);
-            out.writeInt(data.length);
-            out.write(data);
-            out.flush();
+            System.out.println("Sending color depth: " + colorDepth);
+            writer.send(Constants.MESSAGE_TYPE_COLOR_DEPTH, out -> out.writeByte(colorDepth));
         } catch (IOException e) {
-            System.err.println("Error sending keyboard event: " + e.getMessage());
+            System.err.println("Error sending color depth: " + e.getMessage());
             e.printStackTrace();
         }
     }
     
+    // Ask for tiles in one of the encodings: TILE_CODEC_PALETTE (palette or JPEG per tile),
+    // TILE_CODEC_JPEG or TILE_CODEC_XOR_DELTA
+    public void sendTileCodec(byte codec) {
+        if (!isConnected) {
+            return;
+        }
+        
+        try {
+            System.out.println("Sending tile codec: " + codec);
+            writer.send(Constants.MESSAGE_TYPE_TILE_CODEC, out -> out.writeByte(codec));
+        } catch (IOException e) {
+            System.err.println("Error sending tile codec: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    // Stop or resume screen updates, e.g. while the viewer window is minimized
+    public void sendScreenPaused(boolean paused) {
+        if (!isConnected) {
+            return;
+        }
+        
+        try {
+            System.out.println("Sending screen " + (paused ? "pause" : "resume"));
+            writer.send(Constants.MESSAGE_TYPE_SCREEN_PAUSE, out -> out.writeBoolean(paused));
+        } catch (IOException e) {
+            System.err.println("Error sending screen pause: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+    
+    // Queue a mouse or keyboard event, one of the InputEvents.OP_* codes; it is sent with whatever
+    // other events are waiting. Called for every pointer move, so it doesn't log.
+    public void sendInputEvent(int opcode, int button, int x, int y, int value) {
+        if (!isConnected) {
+            return;
+        }
+        inputBatcher.add(opcode, button, x, y, value);
+    }
+    
     // Update disconnect method to end session
     public void disconnect() {
         if (!isConnected) {
@@ -378,11 +508,14 @@ public class Client {
                 }
             }
             
+            if (inputBatcher != null) {
+                inputBatcher.close();
+            }
+            
             // Let the server know we're disconnecting
-            if (socket != null && !socket.isClosed() && socket.isConnected()) {
+            if (writer != null && !socket.isClosed() && socket.isConnected()) {
                 try {
-                    out.writeInt(Constants.MESSAGE_TYPE_DISCONNECT);
-                    out.flush();
+                    writer.send(Constants.MESSAGE_TYPE_DISCONNECT);
                     System.out.println("Sent disconnect message to server");
                 } catch (IOException e) {
                     System.err.println("Error sending disconnect message: " + e.getMessage());
@@ -390,14 +523,6 @@ public class Client {
             }
             
             // Close resources
-            if (in != null) {
-                try {
-                    in.close();
-                } catch (IOException e) {
-                    System.err.println("Error closing input stream: " + e.getMessage());
-                }
-            }
-            
             if (out != null) {
                 try {
                     out.close();
@@ -450,8 +575,10 @@ public class Client {
         void onDisconnected(String reason);
         void onChatMessageReceived(String sender, String message);
         void onFileReceived(String sender, String fileName, byte[] fileData);
-        void onScreenUpdate(byte[] screenData);
+        void onScreenUpdate(ScreenUpdate update);
         void onControlGranted();
         void onControlRevoked();
+        void onCursorShape(CursorShape shape);
+        void onCursorMoved(int x, int y, int shapeId);
     }
 }
\ No newline at end of file
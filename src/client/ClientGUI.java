@@ -1,7 +1,9 @@
 package src.client;
 
 import src.common.Constants;
+import src.common.CursorShape;
 import src.common.FileTransfer;
+import src.common.ScreenUpdate;
 
 import javax.swing.*;
 import javax.swing.border.TitledBorder;
@@ -185,6 +187,7 @@ public class ClientGUI extends JPanel implements Client.ClientEventListener {
         
         // Create screen viewer
         screenViewer = new ScreenViewer();
+        screenViewer.setViewportListener(client::sendViewport);
         
         // Create display options panel
         JPanel optionsPanel = createDisplayOptionsPanel();
@@ -207,6 +210,17 @@ public class ClientGUI extends JPanel implements Client.ClientEventListener {
             public void windowClosing(WindowEvent e) {
                 client.disconnect();
             }
+            
+            // No point in receiving frames nobody can see
+            @Override
+            public void windowIconified(WindowEvent e) {
+                client.sendScreenPaused(true);
+            }
+            
+            @Override
+            public void windowDeiconified(WindowEvent e) {
+                client.sendScreenPaused(false);
+            }
         });
         
         screenViewerFrame.setVisible(true);
@@ -264,6 +278,21 @@ public class ClientGUI extends JPanel implements Client.ClientEventListener {
             screenViewer.setZoomFactor(1.0);
         });
         
+        // Color depth; fewer colors use less bandwidth on slow links
+        JComboBox<String> colorDepthBox = new JComboBox<>(new String[] {
+            "24-bit color", "16-bit color", "256 colors", "Grayscale"
+        });
+        colorDepthBox.setToolTipText("Colors sent by the server; lower settings need less bandwidth");
+        colorDepthBox.addActionListener(e -> client.sendColorDepth((byte) colorDepthBox.getSelectedIndex()));
+        
+        // Encoding; lossless delta suits fast-changing content that blurs under JPEG
+        byte[] tileCodecs = {Constants.TILE_CODEC_PALETTE, Constants.TILE_CODEC_JPEG, Constants.TILE_CODEC_XOR_DELTA};
+        JComboBox<String> tileCodecBox = new JComboBox<>(new String[] {
+            "Adaptive", "JPEG only", "Lossless delta"
+        });
+        tileCodecBox.setToolTipText("How the server encodes changed parts of the screen");
+        tileCodecBox.addActionListener(e -> client.sendTileCodec(tileCodecs[tileCodecBox.getSelectedIndex()]));
+        
         // Fullscreen button
         JToggleButton fullscreenToggle = new JToggleButton("Fullscreen");
         fullscreenToggle.addActionListener(e -> {
@@ -302,6 +331,8 @@ public class ClientGUI extends JPanel implements Client.ClientEventListener {
                 return new Dimension(1, 20);
             }
         });
+        panel.add(colorDepthBox);
+        panel.add(tileCodecBox);
         panel.add(fullscreenToggle);
         
         return panel;
@@ -411,9 +442,23 @@ public class ClientGUI extends JPanel implements Client.ClientEventListener {
     }
     
     @Override
-    public void onScreenUpdate(byte[] screenData) {
+    public void onScreenUpdate(ScreenUpdate update) {
+        if (screenViewer != null) {
+            screenViewer.updateScreen(update);
+        }
+    }
+    
+    @Override
+    public void onCursorShape(CursorShape shape) {
+        if (screenViewer != null) {
+            screenViewer.addCursorShape(shape);
+        }
+    }
+    
+    @Override
+    public void onCursorMoved(int x, int y, int shapeId) {
         if (screenViewer != null) {
-            screenViewer.updateScreen(screenData);
+            screenViewer.moveCursor(x, y, shapeId);
         }
     }
     
@@ -438,4 +483,4 @@ public class ClientGUI extends JPanel implements Client.ClientEventListener {
             }
         });
     }
-}
+}
\ No newline at end of file
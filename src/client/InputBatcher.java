@@ -0,0 +1,103 @@
+package src.client;
+
+import src.common.Constants;
+import src.common.FrameWriter;
+import src.common.InputEvents;
+import src.common.PayloadBuffer;
+import src.common.ThreadMode;
+
+import java.io.IOException;
+
+// Sends mouse and keyboard events to the server in batches of InputEvents records.
+// Events are appended to a pending batch, which a sender thread writes whenever the previous batch
+// is out, so events that arrive while the socket is busy share one message and the event thread never
+// waits on the network. A plain move directly following another in the pending batch replaces it,
+// since only where the pointer ends up matters. Both batches are reused; adding an event allocates nothing.
+public class InputBatcher {
+    private final FrameWriter writer;
+    private PayloadBuffer pending = new PayloadBuffer(64 * InputEvents.RECORD_SIZE);
+    private PayloadBuffer sending = new PayloadBuffer(64 * InputEvents.RECORD_SIZE);
+    private final byte[] record = new byte[InputEvents.RECORD_SIZE];
+
+    // Guarded by this: the last record of the pending batch and where it left the pointer
+    private int lastOpcode = -1;
+    private int lastX;
+    private int lastY;
+    private long lastEventTime;
+    private boolean running = true;
+
+    public InputBatcher(FrameWriter writer) {
+        this.writer = writer;
+        ThreadMode.start("ClientInputSender", this::run);
+    }
+
+    // One event; x and y are in server screen coordinates and ignored for keys and the wheel
+    public synchronized void add(int opcode, int button, int x, int y, int value) {
+        if (!running) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        int dt = lastEventTime == 0 ? 0 : (int) Math.min(0xFFFF, Math.max(0, now - lastEventTime));
+        lastEventTime = now;
+
+        // Keys and the wheel act wherever the pointer is
+        if (opcode == InputEvents.OP_WHEEL || opcode == InputEvents.OP_KEY_PRESS
+                || opcode == InputEvents.OP_KEY_RELEASE) {
+            x = lastX;
+            y = lastY;
+        } else {
+            x = Math.max(0, Math.min(InputEvents.MAX_COORDINATE, x));
+            y = Math.max(0, Math.min(InputEvents.MAX_COORDINATE, y));
+        }
+
+        if (opcode == InputEvents.OP_MOVE && lastOpcode == InputEvents.OP_MOVE) {
+            // Rewrite the last move in place, relative to the record before it
+            byte[] batch = pending.getBuffer();
+            int offset = pending.size() - InputEvents.RECORD_SIZE;
+            int previousX = lastX - InputEvents.getDx(batch, offset);
+            int previousY = lastY - InputEvents.getDy(batch, offset);
+            InputEvents.put(batch, offset, opcode, 0, x - previousX, y - previousY, 0,
+                InputEvents.getDt(batch, offset) + dt);
+        } else {
+            InputEvents.put(record, 0, opcode, button, x - lastX, y - lastY, value, dt);
+            pending.write(record, 0, record.length);
+        }
+        lastOpcode = opcode;
+        lastX = x;
+        lastY = y;
+        notifyAll();
+    }
+
+    public synchronized void close() {
+        running = false;
+        notifyAll();
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                synchronized (this) {
+                    while (running && pending.getPayloadLength() == 0) {
+                        wait();
+                    }
+                    if (!running) {
+                        return;
+                    }
+                    PayloadBuffer batch = pending;
+                    pending = sending;
+                    sending = batch;
+                    // The next batch starts over from (0, 0)
+                    lastOpcode = -1;
+                    lastX = 0;
+                    lastY = 0;
+                }
+                writer.send(Constants.MESSAGE_TYPE_INPUT, sending, false);
+                sending.reset();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Error sending input events: " + e.getMessage());
+        }
+    }
+}
\ No newline at end of file
@@ -1,12 +1,9 @@
 package src.client;
 
-import src.common.Constants;
+import src.common.InputEvents;
 
 import java.awt.*;
 import java.awt.event.*;
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
 
 public class InputHandler {
     private Client client;
@@ -38,47 +35,18 @@ public class InputHandler {
             public void mousePressed(MouseEvent e) {
                 if (!controlEnabled) return;
                 
-                try {
-                    // Scale coordinates to server's screen size
-                    Point scaledPoint = scalePoint(e.getPoint());
-                    
-                    // Create data with adjusted coordinates and button info
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    DataOutputStream dos = new DataOutputStream(baos);
-                    
-                    dos.writeInt(scaledPoint.x);
-                    dos.writeInt(scaledPoint.y);
-                    dos.writeInt(e.getButton());
-                    dos.writeBoolean(true); // Pressed
-                    
-                    // Send to server
-                    client.sendMouseEvent("PRESS", baos.toByteArray());
-                } catch (IOException ex) {
-                    ex.printStackTrace();
-                }
+                // Scale coordinates to server's screen size
+                Point scaledPoint = scalePoint(e.getPoint());
+                client.sendInputEvent(InputEvents.OP_PRESS, e.getButton(), scaledPoint.x, scaledPoint.y, 0);
             }
             
             @Override
             public void mouseReleased(MouseEvent e) {
                 if (!controlEnabled) return;
                 
-                try {
-                    // Scale coordinates to server's screen size
-                    Point scaledPoint = scalePoint(e.getPoint());
-                    
-                    // Create data with adjusted coordinates and button info
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    DataOutputStream dos = new DataOutputStream(baos);
-                    dos.writeInt(scaledPoint.x);
-                    dos.writeInt(scaledPoint.y);
-                    dos.writeInt(e.getButton());
-                    dos.writeBoolean(false); // Released
-                    
-                    // Send to server
-                    client.sendMouseEvent("RELEASE", baos.toByteArray());
-                } catch (IOException ex) {
-                    ex.printStackTrace();
-                }
+                // Scale coordinates to server's screen size
+                Point scaledPoint = scalePoint(e.getPoint());
+                client.sendInputEvent(InputEvents.OP_RELEASE, e.getButton(), scaledPoint.x, scaledPoint.y, 0);
             }
         };
         
@@ -88,45 +56,18 @@ public class InputHandler {
             public void mouseMoved(MouseEvent e) {
                 if (!controlEnabled) return;
                 
-                try {
-                    // Scale coordinates to server's screen size
-                    Point scaledPoint = scalePoint(e.getPoint());
-                    
-                    // Create data with adjusted coordinates
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    DataOutputStream dos = new DataOutputStream(baos);
-                    
-                    dos.writeInt(scaledPoint.x);
-                    dos.writeInt(scaledPoint.y);
-                    
-                    // Send to server
-                    client.sendMouseEvent("MOVE", baos.toByteArray());
-                } catch (IOException ex) {
-                    ex.printStackTrace();
-                }
+                // Scale coordinates to server's screen size
+                Point scaledPoint = scalePoint(e.getPoint());
+                client.sendInputEvent(InputEvents.OP_MOVE, 0, scaledPoint.x, scaledPoint.y, 0);
             }
             
             @Override
             public void mouseDragged(MouseEvent e) {
                 if (!controlEnabled) return;
                 
-                try {
-                    // Scale coordinates to server's screen size
-                    Point scaledPoint = scalePoint(e.getPoint());
-                    
-                    // Create data with adjusted coordinates
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    DataOutputStream dos = new DataOutputStream(baos);
-                    
-                    dos.writeInt(scaledPoint.x);
-                    dos.writeInt(scaledPoint.y);
-                    dos.writeInt(e.getButton());
-                    
-                    // Send to server
-                    client.sendMouseEvent("DRAG", baos.toByteArray());
-                } catch (IOException ex) {
-                    ex.printStackTrace();
-                }
+                // Scale coordinates to server's screen size
+                Point scaledPoint = scalePoint(e.getPoint());
+                client.sendInputEvent(InputEvents.OP_DRAG, e.getButton(), scaledPoint.x, scaledPoint.y, 0);
             }
         };
         
@@ -134,18 +75,7 @@ public class InputHandler {
         mouseWheelListener = e -> {
             if (!controlEnabled) return;
             
-            try {
-                // Create data with wheel rotation
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                DataOutputStream dos = new DataOutputStream(baos);
-                
-                dos.writeInt(e.getWheelRotation());
-                
-                // Send to server
-                client.sendMouseEvent("WHEEL", baos.toByteArray());
-            } catch (IOException ex) {
-                ex.printStackTrace();
-            }
+            client.sendInputEvent(InputEvents.OP_WHEEL, 0, 0, 0, e.getWheelRotation());
         };
         
         // Keyboard listener for key presses and releases
@@ -154,38 +84,14 @@ public class InputHandler {
             public void keyPressed(KeyEvent e) {
                 if (!controlEnabled) return;
                 
-                try {
-                    // Create data with key code
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    DataOutputStream dos = new DataOutputStream(baos);
-                    
-                    dos.writeInt(e.getKeyCode());
-                    dos.writeBoolean(true); // Pressed
-                    
-                    // Send to server
-                    client.sendKeyboardEvent("KEY", baos.toByteArray());
-                } catch (IOException ex) {
-                    ex.printStackTrace();
-                }
+                client.sendInputEvent(InputEvents.OP_KEY_PRESS, 0, 0, 0, e.getKeyCode());
             }
             
             @Override
             public void keyReleased(KeyEvent e) {
                 if (!controlEnabled) return;
                 
-                try {
-                    // Create data with key code
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    DataOutputStream dos = new DataOutputStream(baos);
-                    
-                    dos.writeInt(e.getKeyCode());
-                    dos.writeBoolean(false); // Released
-                    
-                    // Send to server
-                    client.sendKeyboardEvent("KEY", baos.toByteArray());
-                } catch (IOException ex) {
-                    ex.printStackTrace();
-                }
+                client.sendInputEvent(InputEvents.OP_KEY_RELEASE, 0, 0, 0, e.getKeyCode());
             }
         };
     }
@@ -1,16 +1,27 @@
 package src.client;
 
-import javax.imageio.ImageIO;
+import src.common.CopyRegion;
+import src.common.CursorShape;
+import src.common.ScreenTile;
+import src.common.ScreenUpdate;
+
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ScreenViewer extends JPanel {
+    // Largest screen side accepted from the server; beyond this the composite image could exhaust the heap
+    private static final int MAX_SCREEN_SIZE = 16384;
+    
     private BufferedImage screenImage;
+    private final Object imageLock = new Object();
+    private final TileDecoder tileDecoder = new TileDecoder();
     private double scaleX = 1.0;
     private double scaleY = 1.0;
     private Dimension originalSize;
@@ -22,6 +33,18 @@ public class ScreenViewer extends JPanel {
     // Zoom factor (100% = normal)
     private double zoomFactor = 1.0;
     
+    // Told about the display area size so the server can send frames at that resolution
+    private ViewportListener viewportListener;
+    private Dimension reportedViewport;
+    
+    // Server mouse pointer, streamed separately from the frames and drawn on top of them.
+    // Shapes arrive once and are cached by id; positions are in full screen coordinates.
+    private final Map<Integer, CursorShape> cursorShapes = new ConcurrentHashMap<>();
+    private final Map<Integer, BufferedImage> cursorImages = new ConcurrentHashMap<>();
+    private volatile int cursorX = -1;
+    private volatile int cursorY = -1;
+    private volatile int cursorShapeId;
+    
     public ScreenViewer() {
         setBackground(Color.BLACK);
         addComponentAdapter();
@@ -32,25 +55,142 @@ public class ScreenViewer extends JPanel {
             @Override
             public void componentResized(ComponentEvent e) {
                 updateScaling();
+                
+                // Before the first frame the whole panel is the best guess at the display area
+                if (originalSize == null) {
+                    reportViewport((int) (getWidth() * zoomFactor), (int) (getHeight() * zoomFactor));
+                }
             }
         });
     }
     
-    public void updateScreen(byte[] imageData) {
-        try {
-            BufferedImage newImage = ImageIO.read(new ByteArrayInputStream(imageData));
-            
-            // If this is the first image, set original size
-            if (screenImage == null && newImage != null) {
-                originalSize = new Dimension(newImage.getWidth(), newImage.getHeight());
+    public void updateScreen(ScreenUpdate update) {
+        List<ScreenTile> tiles = update.getTiles();
+        int frameWidth = update.getFrameWidth();
+        int frameHeight = update.getFrameHeight();
+        
+        // Sizes come straight from the wire; a frame is never larger than the screen it was scaled from
+        int screenWidth = update.getScreenWidth();
+        int screenHeight = update.getScreenHeight();
+        if (screenWidth <= 0 || screenWidth > MAX_SCREEN_SIZE || screenHeight <= 0 || screenHeight > MAX_SCREEN_SIZE
+                || frameWidth <= 0 || frameWidth > screenWidth || frameHeight <= 0 || frameHeight > screenHeight) {
+            System.err.println("Ignoring screen update with invalid size: frame " + frameWidth + "x" + frameHeight
+                + ", screen " + screenWidth + "x" + screenHeight);
+            return;
+        }
+        
+        // Decode outside the lock so painting isn't blocked by image decoding
+        BufferedImage[] decoded = new BufferedImage[tiles.size()];
+        for (int i = 0; i < tiles.size(); i++) {
+            if (TileDecoder.isDelta(tiles.get(i))) {
+                continue;
+            }
+            try {
+                decoded[i] = tileDecoder.decode(tiles.get(i));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        
+        synchronized (imageLock) {
+            // (Re)create the composite image on the first frame or when the frame changes size.
+            // The frame may be scaled down by the server; input is still mapped to the full screen.
+            if (screenImage == null || screenImage.getWidth() != frameWidth || screenImage.getHeight() != frameHeight) {
+                screenImage = new BufferedImage(frameWidth, frameHeight, BufferedImage.TYPE_INT_RGB);
+            }
+            Dimension screenSize = new Dimension(screenWidth, screenHeight);
+            if (!screenSize.equals(originalSize)) {
+                originalSize = screenSize;
                 updateScaling();
             }
             
-            screenImage = newImage;
-            repaint();
-        } catch (IOException e) {
-            e.printStackTrace();
+            // Move scrolled/dragged content locally before drawing the remaining tiles
+            applyCopies(update.getCopies());
+            
+            // Draw the changed tiles over the existing image, in order since delta tiles build on earlier ones
+            Graphics2D g = screenImage.createGraphics();
+            for (int i = 0; i < decoded.length; i++) {
+                ScreenTile tile = tiles.get(i);
+                if (decoded[i] != null) {
+                    g.drawImage(decoded[i], tile.getX(), tile.getY(), null);
+                } else if (TileDecoder.isDelta(tile)) {
+                    try {
+                        tileDecoder.applyDelta(tile, screenImage);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+            g.dispose();
         }
+        repaint();
+    }
+    
+    // All copies read from the image as it was before any of them were applied
+    private void applyCopies(List<CopyRegion> copies) {
+        if (copies.isEmpty()) {
+            return;
+        }
+        
+        // Snapshot just the area the copies read from
+        Rectangle source = null;
+        for (CopyRegion copy : copies) {
+            Rectangle r = new Rectangle(copy.getSourceX(), copy.getSourceY(), copy.getWidth(), copy.getHeight());
+            source = source == null ? r : source.union(r);
+        }
+        source = source.intersection(new Rectangle(0, 0, screenImage.getWidth(), screenImage.getHeight()));
+        if (source.isEmpty()) {
+            return;
+        }
+        
+        BufferedImage snapshot = new BufferedImage(source.width, source.height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D sg = snapshot.createGraphics();
+        sg.drawImage(screenImage, -source.x, -source.y, null);
+        sg.dispose();
+        
+        Graphics2D g = screenImage.createGraphics();
+        for (CopyRegion copy : copies) {
+            int sx = copy.getSourceX() - source.x;
+            int sy = copy.getSourceY() - source.y;
+            g.drawImage(snapshot,
+                copy.getDestX(), copy.getDestY(), copy.getDestX() + copy.getWidth(), copy.getDestY() + copy.getHeight(),
+                sx, sy, sx + copy.getWidth(), sy + copy.getHeight(),
+                null);
+        }
+        g.dispose();
+    }
+    
+    public void addCursorShape(CursorShape shape) {
+        cursorShapes.put(shape.getId(), shape);
+        cursorImages.put(shape.getId(), shape.toImage());
+    }
+    
+    public void moveCursor(int x, int y, int shapeId) {
+        Rectangle before = getCursorBounds();
+        cursorX = x;
+        cursorY = y;
+        cursorShapeId = shapeId;
+        Rectangle after = getCursorBounds();
+        
+        // Only the area under the old and new pointer needs repainting
+        if (before == null) {
+            before = after;
+        }
+        if (before != null) {
+            Rectangle dirty = after == null ? before : before.union(after);
+            repaint(dirty.x, dirty.y, dirty.width, dirty.height);
+        }
+    }
+    
+    // Where the pointer is drawn in panel coordinates, or null if there is none to draw
+    private Rectangle getCursorBounds() {
+        CursorShape shape = cursorShapes.get(cursorShapeId);
+        if (shape == null || cursorX < 0 || originalSize == null) {
+            return null;
+        }
+        int x = displayArea.x + (int) (cursorX * scaleX) - shape.getHotspotX();
+        int y = displayArea.y + (int) (cursorY * scaleY) - shape.getHotspotY();
+        return new Rectangle(x, y, shape.getWidth(), shape.getHeight());
     }
     
     public void updateScaling() {
@@ -86,9 +226,23 @@ public class ScreenViewer extends JPanel {
                 // Full panel area - no aspect ratio maintained
                 displayArea.setBounds(0, 0, currentSize.width, currentSize.height);
             }
+            
+            reportViewport(displayArea.width, displayArea.height);
+        }
+    }
+    
+    private void reportViewport(int width, int height) {
+        Dimension viewport = new Dimension(width, height);
+        if (viewportListener != null && width > 0 && height > 0 && !viewport.equals(reportedViewport)) {
+            reportedViewport = viewport;
+            viewportListener.onViewportChanged(width, height);
         }
     }
     
+    public void setViewportListener(ViewportListener viewportListener) {
+        this.viewportListener = viewportListener;
+    }
+    
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
@@ -103,10 +257,12 @@ public class ScreenViewer extends JPanel {
                               RenderingHints.VALUE_RENDER_QUALITY);
             
             // Draw image based on display area
-            g2d.drawImage(screenImage, 
-                        displayArea.x, displayArea.y, 
-                        displayArea.width, displayArea.height, 
-                        null);
+            synchronized (imageLock) {
+                g2d.drawImage(screenImage, 
+                            displayArea.x, displayArea.y, 
+                            displayArea.width, displayArea.height, 
+                            null);
+            }
             
             // Optionally, add a subtle border to indicate active area
             if (maintainAspectRatio) {
@@ -114,6 +270,13 @@ public class ScreenViewer extends JPanel {
                 g2d.drawRect(displayArea.x, displayArea.y, 
                           displayArea.width - 1, displayArea.height - 1);
             }
+            
+            // The pointer keeps its native size regardless of the zoom
+            Rectangle cursor = getCursorBounds();
+            BufferedImage cursorImage = cursorImages.get(cursorShapeId);
+            if (cursor != null && cursorImage != null && displayArea.contains(cursor.x + cursor.width / 2, cursor.y)) {
+                g2d.drawImage(cursorImage, cursor.x, cursor.y, null);
+            }
         }
     }
     
@@ -158,6 +321,10 @@ public class ScreenViewer extends JPanel {
         return displayArea.contains(p);
     }
     
+    public interface ViewportListener {
+        void onViewportChanged(int width, int height);
+    }
+    
     // Method to map panel coordinates to display area coordinates
     public Point mapToDisplayArea(Point p) {
         if (!isPointInDisplayArea(p)) {
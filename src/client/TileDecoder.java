@@ -0,0 +1,124 @@
+package src.client;
+
+import src.common.Constants;
+import src.common.PaletteCodec;
+import src.common.Rgb565Codec;
+import src.common.ScreenTile;
+import src.common.XorDeltaCodec;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.zip.DataFormatException;
+
+// Turns received tiles back into images, dispatching on each tile's codec tag.
+// Delta tiles depend on what is already on screen, so they are applied in place with applyDelta instead.
+// Tiles come off the network, so their size and data are checked and anything malformed is an IOException.
+public class TileDecoder {
+    private final PaletteCodec paletteCodec = new PaletteCodec();
+    private final Rgb565Codec rgb565Codec = new Rgb565Codec();
+    private final XorDeltaCodec deltaCodec = new XorDeltaCodec();
+    private int[] deltaPixels = new int[Constants.TILE_SIZE * Constants.TILE_SIZE];
+    
+    public BufferedImage decode(ScreenTile tile) throws IOException {
+        checkSize(tile);
+        switch (tile.getCodec()) {
+            case Constants.TILE_CODEC_JPEG:
+                return decodeJpeg(tile);
+            case Constants.TILE_CODEC_PALETTE:
+                return decodePalette(tile);
+            case Constants.TILE_CODEC_RGB565:
+                return decodeRgb565(tile);
+            case Constants.TILE_CODEC_XOR_DELTA:
+                throw new IOException("Delta tiles must be applied to the screen image");
+            default:
+                throw new IOException("Unknown tile codec: " + tile.getCodec());
+        }
+    }
+    
+    // The image's size is read from its header and checked before any pixels are decoded
+    private BufferedImage decodeJpeg(ScreenTile tile) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(tile.getData()))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("Unreadable JPEG tile");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                if (reader.getWidth(0) != tile.getWidth() || reader.getHeight(0) != tile.getHeight()) {
+                    throw new IOException("JPEG tile is " + reader.getWidth(0) + "x" + reader.getHeight(0)
+                        + ", not " + tile.getWidth() + "x" + tile.getHeight());
+                }
+                return reader.read(0);
+            } catch (RuntimeException e) {
+                throw new IOException("Corrupt JPEG tile", e);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private BufferedImage decodePalette(ScreenTile tile) throws IOException {
+        BufferedImage image = new BufferedImage(tile.getWidth(), tile.getHeight(), BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        
+        try {
+            paletteCodec.decode(tile.getData(), pixels, pixels.length);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt palette tile", e);
+        }
+        return image;
+    }
+    
+    // Tiles are at most TILE_SIZE square, which also bounds what decoding one allocates
+    private static void checkSize(ScreenTile tile) throws IOException {
+        if (tile.getWidth() < 1 || tile.getWidth() > Constants.TILE_SIZE
+                || tile.getHeight() < 1 || tile.getHeight() > Constants.TILE_SIZE) {
+            throw new IOException("Invalid tile size: " + tile.getWidth() + "x" + tile.getHeight());
+        }
+    }
+
+    public static boolean isDelta(ScreenTile tile) {
+        return tile.getCodec() == Constants.TILE_CODEC_XOR_DELTA;
+    }
+    
+    // Decode a TILE_CODEC_XOR_DELTA tile on top of the tile's current content in the image
+    public void applyDelta(ScreenTile tile, BufferedImage image) throws IOException {
+        checkSize(tile);
+        int w = tile.getWidth();
+        int h = tile.getHeight();
+        if (tile.getX() < 0 || tile.getY() < 0
+                || tile.getX() + w > image.getWidth() || tile.getY() + h > image.getHeight()) {
+            throw new IOException("Delta tile outside the screen image");
+        }
+        if (deltaPixels.length < w * h) {
+            deltaPixels = new int[w * h];
+        }
+        
+        image.getRGB(tile.getX(), tile.getY(), w, h, deltaPixels, 0, w);
+        try {
+            deltaCodec.decode(tile.getData(), deltaPixels, w * h);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt delta tile", e);
+        }
+        image.setRGB(tile.getX(), tile.getY(), w, h, deltaPixels, 0, w);
+    }
+    
+    private BufferedImage decodeRgb565(ScreenTile tile) throws IOException {
+        BufferedImage image = new BufferedImage(tile.getWidth(), tile.getHeight(), BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        
+        try {
+            rgb565Codec.decode(tile.getData(), pixels, pixels.length);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt RGB565 tile", e);
+        }
+        return image;
+    }
+}
\ No newline at end of file
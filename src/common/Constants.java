@@ -10,17 +10,37 @@ public class Constants {
     public static final int MESSAGE_TYPE_CHAT = 1;
     public static final int MESSAGE_TYPE_FILE = 2;
     public static final int MESSAGE_TYPE_SCREEN = 3;
-    public static final int MESSAGE_TYPE_MOUSE = 4;
-    public static final int MESSAGE_TYPE_KEYBOARD = 5;
     public static final int MESSAGE_TYPE_CONTROL_GRANT = 6;
     public static final int MESSAGE_TYPE_CONTROL_REVOKE = 7;
     public static final int MESSAGE_TYPE_DISCONNECT = 8;
+    public static final int MESSAGE_TYPE_VIEWPORT = 9;
+    public static final int MESSAGE_TYPE_SCREEN_ACK = 10;
+    public static final int MESSAGE_TYPE_CURSOR_SHAPE = 11;
+    public static final int MESSAGE_TYPE_CURSOR_POSITION = 12;
+    public static final int MESSAGE_TYPE_SCREEN_PAUSE = 13;
+    public static final int MESSAGE_TYPE_COLOR_DEPTH = 14;
+    public static final int MESSAGE_TYPE_TILE_CODEC = 15;
+    public static final int MESSAGE_TYPE_INPUT = 16; // A batch of mouse and keyboard events, see InputEvents
     
     // Screen capture settings
     public static final int MAX_FPS = 120; 
     public static final int MIN_FPS = 15;
     public static final int DEFAULT_FPS = 30;
     public static float JPEG_QUALITY = 0.7f; // Balance between quality and size
+    public static final int TILE_SIZE = 64; // Screen is diffed and sent in square tiles of this size
+    public static final float DRAFT_JPEG_QUALITY = 0.3f; // First pass for changed tiles, refined once they settle
+    
+    // Tile codecs
+    public static final byte TILE_CODEC_JPEG = 0;
+    public static final byte TILE_CODEC_PALETTE = 1; // Lossless palette + RLE + deflate
+    public static final byte TILE_CODEC_RGB565 = 2; // 16-bit pixels + deflate
+    public static final byte TILE_CODEC_XOR_DELTA = 3; // Lossless key or XOR against the previous tile + deflate
+    
+    // Color depths a client can ask for; tiles are reduced to it before encoding
+    public static final byte COLOR_DEPTH_FULL = 0;
+    public static final byte COLOR_DEPTH_RGB565 = 1;
+    public static final byte COLOR_DEPTH_PALETTE = 2; // Adaptive 256 colors per tile, no dithering
+    public static final byte COLOR_DEPTH_GRAYSCALE = 3;
     
     // Display settings
     public static final boolean DEFAULT_MAINTAIN_ASPECT_RATIO = true;
@@ -0,0 +1,46 @@
+package src.common;
+
+// Instruction to copy a rectangle of the previous screen image to a new position,
+// used for scrolled or moved content the client already has
+public class CopyRegion {
+    private int sourceX;
+    private int sourceY;
+    private int width;
+    private int height;
+    private int destX;
+    private int destY;
+    
+    public CopyRegion(int sourceX, int sourceY, int width, int height, int destX, int destY) {
+        this.sourceX = sourceX;
+        this.sourceY = sourceY;
+        this.width = width;
+        this.height = height;
+        this.destX = destX;
+        this.destY = destY;
+    }
+    
+    // Getters
+    public int getSourceX() {
+        return sourceX;
+    }
+    
+    public int getSourceY() {
+        return sourceY;
+    }
+    
+    public int getWidth() {
+        return width;
+    }
+    
+    public int getHeight() {
+        return height;
+    }
+    
+    public int getDestX() {
+        return destX;
+    }
+    
+    public int getDestY() {
+        return destY;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,83 @@
+package src.common;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Polygon;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+// A mouse cursor image, sent to each client once and then referred to by id in cursor positions
+public class CursorShape {
+    public static final int ARROW_ID = 1;
+    public static final int MAX_SIZE = 256; // Largest width or height a peer may send
+
+    private int id;
+    private int hotspotX;
+    private int hotspotY;
+    private int width;
+    private int height;
+    private int[] pixels; // ARGB, row by row
+
+    public CursorShape(int id, int hotspotX, int hotspotY, int width, int height, int[] pixels) {
+        this.id = id;
+        this.hotspotX = hotspotX;
+        this.hotspotY = hotspotY;
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    // The standard arrow pointer, drawn black with a white outline so it shows on any background
+    public static CursorShape createArrow() {
+        int size = 20;
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        Polygon arrow = new Polygon(
+            new int[] {1, 1, 5, 8, 10, 7, 12},
+            new int[] {1, 16, 12, 18, 17, 11, 11},
+            7);
+        g.setColor(Color.BLACK);
+        g.fillPolygon(arrow);
+        g.setColor(Color.WHITE);
+        g.setStroke(new BasicStroke(1.2f));
+        g.drawPolygon(arrow);
+        g.dispose();
+
+        int[] pixels = image.getRGB(0, 0, size, size, null, 0, size);
+        return new CursorShape(ARROW_ID, 1, 1, size, size, pixels);
+    }
+
+    public BufferedImage toImage() {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        return image;
+    }
+
+    // Getters
+    public int getId() {
+        return id;
+    }
+
+    public int getHotspotX() {
+        return hotspotX;
+    }
+
+    public int getHotspotY() {
+        return hotspotY;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int[] getPixels() {
+        return pixels;
+    }
+}
\ No newline at end of file
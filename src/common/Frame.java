@@ -0,0 +1,60 @@
+package src.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+// One received message: its header fields and payload, the chunks of a chunked message already joined.
+// A compressed payload is only inflated when it is opened, so the I/O thread that received it doesn't pay for that,
+// and only once. Read by one thread at a time, like the connection's messages are.
+public class Frame {
+    private final int type;
+    private final int flags;
+    private final int channel;
+    private final int sequence;
+    private final byte[] payload;
+    private byte[] inflated;
+
+    public Frame(int type, int flags, int channel, int sequence, byte[] payload) {
+        this.type = type;
+        this.flags = flags;
+        this.channel = channel;
+        this.sequence = sequence;
+        this.payload = payload;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public int getChannel() {
+        return channel;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    // Bytes as received, possibly compressed
+    public int getLength() {
+        return payload.length;
+    }
+
+    public byte[] getPayload() throws IOException {
+        if ((flags & Protocol.FLAG_COMPRESSED) == 0) {
+            return payload;
+        }
+        if (inflated == null) {
+            inflated = Protocol.inflate(payload, 0, payload.length, Protocol.maxMessageBytes(type));
+        }
+        return inflated;
+    }
+
+    public DataInputStream openPayload() throws IOException {
+        return new DataInputStream(new ByteArrayInputStream(getPayload()));
+    }
+}
\ No newline at end of file
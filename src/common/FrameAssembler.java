@@ -0,0 +1,86 @@
+package src.common;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Joins the chunks of chunked messages. Chunks of different messages may arrive interleaved, so the
+// partial messages are told apart by channel and sequence number.
+// What a peer can make it hold is bounded: a few partial messages at a time, each within its type's
+// limit and the reader's, and buffers that grow with the bytes actually received.
+// Not thread-safe; each connection's reader owns one.
+public class FrameAssembler {
+    // Partial messages held at once; senders interleave at most a few large messages
+    private static final int MAX_PARTIALS = 8;
+
+    private static class Partial {
+        final int type;
+        final int flags;
+        byte[] data;
+        int length;
+
+        Partial(int type, int flags, int capacity) {
+            this.type = type;
+            this.flags = flags;
+            this.data = new byte[capacity];
+        }
+    }
+
+    private final Map<Long, Partial> partials = new HashMap<>();
+    // Capacity of the partial messages' buffers
+    private long partialBytes;
+    private volatile int maxMessageBytes = Protocol.MAX_MESSAGE_BYTES;
+
+    // Refuse messages larger than this, whatever their type allows
+    public void setMaxMessageBytes(int maxMessageBytes) {
+        this.maxMessageBytes = maxMessageBytes;
+    }
+
+    // Add a received frame; returns the message if it is complete, otherwise null
+    public Frame add(int type, int flags, int channel, int sequence, byte[] payload) throws IOException {
+        int limit = Math.min(maxMessageBytes, Protocol.maxMessageBytes(type));
+        Long key = ((long) channel << 32) | (sequence & 0xFFFFFFFFL);
+        Partial partial = partials.get(key);
+        if (partial == null) {
+            if (payload.length > limit) {
+                throw new IOException("Type " + type + " message exceeds " + limit + " bytes");
+            }
+            if ((flags & Protocol.FLAG_MORE) == 0) {
+                return new Frame(type, flags, channel, sequence, payload);
+            }
+            if (partials.size() >= MAX_PARTIALS) {
+                throw new IOException("More than " + MAX_PARTIALS + " chunked messages at once");
+            }
+            partial = new Partial(type, flags & ~Protocol.FLAG_MORE, Math.max(payload.length, 1));
+            partials.put(key, partial);
+            partialBytes += partial.data.length;
+        } else if (partial.type != type) {
+            throw new IOException("Chunk of a type " + partial.type + " message has type " + type);
+        }
+
+        long length = (long) partial.length + payload.length;
+        if (length > limit) {
+            throw new IOException("Type " + type + " message exceeds " + limit + " bytes");
+        }
+        if (length > partial.data.length) {
+            int capacity = (int) Math.min(limit, Math.max(length, 2L * partial.data.length));
+            if (partialBytes + capacity - partial.data.length > Protocol.MAX_MESSAGE_BYTES) {
+                throw new IOException("Chunked messages exceed " + Protocol.MAX_MESSAGE_BYTES + " bytes");
+            }
+            partialBytes += capacity - partial.data.length;
+            partial.data = Arrays.copyOf(partial.data, capacity);
+        }
+        System.arraycopy(payload, 0, partial.data, partial.length, payload.length);
+        partial.length += payload.length;
+
+        if ((flags & Protocol.FLAG_MORE) != 0) {
+            return null;
+        }
+        partials.remove(key);
+        partialBytes -= partial.data.length;
+        byte[] message = partial.length == partial.data.length ? partial.data
+            : Arrays.copyOf(partial.data, partial.length);
+        return new Frame(type, partial.flags, channel, sequence, message);
+    }
+}
\ No newline at end of file
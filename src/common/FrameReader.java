@@ -0,0 +1,38 @@
+package src.common;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+// Reads messages from a blocking stream of frames, joining chunked ones
+public class FrameReader {
+    private final DataInputStream in;
+    private final FrameAssembler assembler = new FrameAssembler();
+    private final int maxFrame;
+
+    // The capabilities agreed with the peer; with CAP_CHUNKED no frame may exceed MAX_FRAME_PAYLOAD
+    public FrameReader(DataInputStream in, int capabilities) {
+        this.in = in;
+        this.maxFrame = (capabilities & Protocol.CAP_CHUNKED) != 0 ? Protocol.MAX_FRAME_PAYLOAD
+            : Protocol.MAX_MESSAGE_BYTES;
+    }
+
+    // Block until a whole message has arrived
+    public Frame read() throws IOException {
+        while (true) {
+            int length = in.readInt();
+            int type = in.readShort();
+            int flags = in.readUnsignedByte();
+            int channel = in.readUnsignedByte();
+            int sequence = in.readInt();
+            if (length < 0 || length > maxFrame) {
+                throw new IOException("Invalid frame length: " + length);
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            Frame frame = assembler.add(type, flags, channel, sequence, payload);
+            if (frame != null) {
+                return frame;
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,54 @@
+package src.common;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Writes messages as frames to a blocking stream, chunking and compressing them as the capabilities
+// agreed with the peer allow. Threads sending at once each write whole frames, so a small message
+// only waits for the chunk being written rather than for a whole file.
+public class FrameWriter {
+    // Writes one message's payload
+    public interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private final OutputStream out;
+    private final int capabilities;
+    private final AtomicInteger nextSequence = new AtomicInteger();
+
+    public FrameWriter(OutputStream out, int capabilities) {
+        this.out = out;
+        this.capabilities = capabilities;
+    }
+
+    public int getCapabilities() {
+        return capabilities;
+    }
+
+    public void send(int type) throws IOException {
+        send(type, out -> {});
+    }
+
+    public void send(int type, Body body) throws IOException {
+        PayloadBuffer payload = new PayloadBuffer();
+        body.write(new DataOutputStream(payload));
+        send(type, payload, type == Constants.MESSAGE_TYPE_FILE);
+    }
+
+    public void send(int type, PayloadBuffer payload, boolean compressible) throws IOException {
+        List<ByteBuffer> frames = new ArrayList<>(1);
+        Protocol.encode(type, nextSequence.getAndIncrement(), payload.getBuffer(), payload.getPayloadLength(),
+            compressible, capabilities, frames);
+        for (ByteBuffer frame : frames) {
+            synchronized (out) {
+                out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+                out.flush();
+            }
+        }
+    }
+}
\ No newline at end of file
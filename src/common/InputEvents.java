@@ -0,0 +1,67 @@
+package src.common;
+
+// Layout of the mouse and keyboard events in a MESSAGE_TYPE_INPUT message.
+// A message carries a batch of fixed 12-byte records, big-endian like the rest of the protocol:
+//   byte  opcode  OP_*
+//   byte  button  mouse button 1-3 for presses, releases and drags; 0 otherwise
+//   short dx, dy  pointer position as the change from the previous record of the batch; the first
+//                 record's is from (0, 0), so every batch decodes on its own
+//   int   value   key code for keys, wheel rotation for the wheel
+//   short dt      milliseconds since the previous event, at most 65535
+// Being fixed in size, records are read and written in place, and a reader skips opcodes it doesn't know.
+public class InputEvents {
+    public static final int RECORD_SIZE = 12;
+
+    public static final byte OP_MOVE = 0;
+    public static final byte OP_PRESS = 1;
+    public static final byte OP_RELEASE = 2;
+    public static final byte OP_DRAG = 3;
+    public static final byte OP_WHEEL = 4;
+    public static final byte OP_KEY_PRESS = 5;
+    public static final byte OP_KEY_RELEASE = 6;
+
+    // Positions are kept to what a short delta can carry
+    public static final int MAX_COORDINATE = Short.MAX_VALUE;
+
+    public static void put(byte[] buffer, int offset, int opcode, int button, int dx, int dy, int value, int dt) {
+        buffer[offset] = (byte) opcode;
+        buffer[offset + 1] = (byte) button;
+        putShort(buffer, offset + 2, dx);
+        putShort(buffer, offset + 4, dy);
+        buffer[offset + 6] = (byte) (value >> 24);
+        buffer[offset + 7] = (byte) (value >> 16);
+        buffer[offset + 8] = (byte) (value >> 8);
+        buffer[offset + 9] = (byte) value;
+        putShort(buffer, offset + 10, Math.min(dt, 0xFFFF));
+    }
+
+    private static void putShort(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >> 8);
+        buffer[offset + 1] = (byte) value;
+    }
+
+    public static int getOpcode(byte[] buffer, int offset) {
+        return buffer[offset];
+    }
+
+    public static int getButton(byte[] buffer, int offset) {
+        return buffer[offset + 1];
+    }
+
+    public static int getDx(byte[] buffer, int offset) {
+        return (short) ((buffer[offset + 2] << 8) | (buffer[offset + 3] & 0xFF));
+    }
+
+    public static int getDy(byte[] buffer, int offset) {
+        return (short) ((buffer[offset + 4] << 8) | (buffer[offset + 5] & 0xFF));
+    }
+
+    public static int getValue(byte[] buffer, int offset) {
+        return (buffer[offset + 6] << 24) | ((buffer[offset + 7] & 0xFF) << 16)
+            | ((buffer[offset + 8] & 0xFF) << 8) | (buffer[offset + 9] & 0xFF);
+    }
+
+    public static int getDt(byte[] buffer, int offset) {
+        return ((buffer[offset + 10] & 0xFF) << 8) | (buffer[offset + 11] & 0xFF);
+    }
+}
\ No newline at end of file
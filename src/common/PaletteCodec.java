@@ -0,0 +1,188 @@
+package src.common;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Lossless codec for tiles with few colors (text, UI chrome, flat backgrounds).
+// Pixels are mapped to a palette of at most 256 colors, run-length encoded and deflated.
+// Layout before deflating: palette size (2 bytes), palette as RGB triples, then runs of
+// (palette index, run length as a varint). Instances reuse their buffers and are not thread-safe.
+public class PaletteCodec {
+    public static final int MAX_COLORS = 256;
+    // Tiles with more colors than this are only accepted if they also compress into long runs
+    private static final int NOISY_COLORS = 64;
+
+    // Open-addressing color -> palette index table, twice the palette size to keep probes short
+    private static final int TABLE_SIZE = MAX_COLORS * 2;
+    private final int[] tableColors = new int[TABLE_SIZE];
+    private final int[] tableIndexes = new int[TABLE_SIZE];
+    private final boolean[] tableUsed = new boolean[TABLE_SIZE];
+    private final int[] palette = new int[MAX_COLORS];
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private final ByteArrayOutputStream raw = new ByteArrayOutputStream(Constants.TILE_SIZE * Constants.TILE_SIZE);
+    private final ByteArrayOutputStream compressed = new ByteArrayOutputStream(Constants.TILE_SIZE * Constants.TILE_SIZE);
+    private final byte[] chunk = new byte[4096];
+    private byte[] inflated = new byte[Constants.TILE_SIZE * Constants.TILE_SIZE * 2];
+
+    // Encode the pixels, or return null if they look photographic: more than MAX_COLORS colors,
+    // or many colors that barely repeat (gradients, anti-aliased images), which JPEG handles better
+    public byte[] encode(int[] pixels, int length) {
+        return encode(pixels, length, false);
+    }
+    
+    // As above, but keeps tiles with many short runs if asked to, e.g. when they were already quantized
+    // to a palette and JPEG isn't an option
+    public byte[] encode(int[] pixels, int length, boolean acceptNoisy) {
+        Arrays.fill(tableUsed, false);
+        int colors = 0;
+        for (int i = 0; i < length; i++) {
+            if (indexOf(pixels[i] & 0xffffff, colors) == colors) {
+                if (colors == MAX_COLORS) {
+                    return null;
+                }
+                palette[colors++] = pixels[i] & 0xffffff;
+            }
+        }
+
+        raw.reset();
+        raw.write(colors >>> 8);
+        raw.write(colors);
+        for (int i = 0; i < colors; i++) {
+            raw.write(palette[i] >>> 16);
+            raw.write(palette[i] >>> 8);
+            raw.write(palette[i]);
+        }
+
+        int maxRuns = colors > NOISY_COLORS && !acceptNoisy ? length / 4 : length;
+        int runs = 0;
+        int i = 0;
+        while (i < length) {
+            int color = pixels[i] & 0xffffff;
+            int run = 1;
+            while (i + run < length && (pixels[i + run] & 0xffffff) == color) {
+                run++;
+            }
+            if (++runs > maxRuns) {
+                return null;
+            }
+            raw.write(indexOf(color, colors));
+            writeVarint(run);
+            i += run;
+        }
+
+        return deflate();
+    }
+
+    // Decode into the given pixel array, which must hold at least length entries. Data that doesn't
+    // describe exactly that many pixels with its own palette is refused with a DataFormatException.
+    public void decode(byte[] data, int[] pixels, int length) throws DataFormatException {
+        // The palette, then at most a run per pixel of an index and a 5-byte varint
+        int size = inflate(data, 2 + MAX_COLORS * 3 + length * 6);
+        if (size < 2) {
+            throw new DataFormatException("Truncated palette tile");
+        }
+        int position = 0;
+
+        int colors = ((inflated[position++] & 0xff) << 8) | (inflated[position++] & 0xff);
+        if (colors > MAX_COLORS || position + colors * 3 > size) {
+            throw new DataFormatException("Invalid palette size: " + colors);
+        }
+        for (int i = 0; i < colors; i++) {
+            palette[i] = ((inflated[position++] & 0xff) << 16)
+                | ((inflated[position++] & 0xff) << 8)
+                | (inflated[position++] & 0xff);
+        }
+
+        int pixel = 0;
+        while (pixel < length) {
+            if (position >= size) {
+                throw new DataFormatException("Truncated palette tile");
+            }
+            int index = inflated[position++] & 0xff;
+            if (index >= colors) {
+                throw new DataFormatException("Palette index " + index + " out of " + colors + " colors");
+            }
+
+            int run = 0;
+            int shift = 0;
+            int b;
+            do {
+                if (position >= size || shift > 28) {
+                    throw new DataFormatException("Invalid run length");
+                }
+                b = inflated[position++] & 0xff;
+                run |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            if (run <= 0 || run > length - pixel) {
+                throw new DataFormatException("Run of " + run + " pixels at pixel " + pixel + " of " + length);
+            }
+
+            Arrays.fill(pixels, pixel, pixel + run, palette[index]);
+            pixel += run;
+        }
+    }
+
+    // Look up a color's palette index, inserting it with the given index if it is new
+    private int indexOf(int color, int nextIndex) {
+        int slot = (color * 0x9E3779B9) >>> 23 & (TABLE_SIZE - 1);
+        while (tableUsed[slot]) {
+            if (tableColors[slot] == color) {
+                return tableIndexes[slot];
+            }
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        tableUsed[slot] = true;
+        tableColors[slot] = color;
+        tableIndexes[slot] = nextIndex;
+        return nextIndex;
+    }
+
+    private void writeVarint(int value) {
+        while ((value & ~0x7f) != 0) {
+            raw.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        raw.write(value);
+    }
+
+    private byte[] deflate() {
+        deflater.reset();
+        deflater.setInput(raw.toByteArray());
+        deflater.finish();
+
+        compressed.reset();
+        while (!deflater.finished()) {
+            int count = deflater.deflate(chunk);
+            compressed.write(chunk, 0, count);
+        }
+        return compressed.toByteArray();
+    }
+
+    // Inflate into the reused buffer, refusing data that inflates to more than maxSize bytes
+    private int inflate(byte[] data, int maxSize) throws DataFormatException {
+        inflater.reset();
+        inflater.setInput(data);
+
+        int size = 0;
+        while (!inflater.finished()) {
+            if (size == inflated.length) {
+                if (size >= maxSize) {
+                    throw new DataFormatException("Palette tile inflates past " + maxSize + " bytes");
+                }
+                inflated = Arrays.copyOf(inflated, (int) Math.min(maxSize, inflated.length * 2L));
+            }
+            int count = inflater.inflate(inflated, size, inflated.length - size);
+            if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                throw new DataFormatException("Truncated palette tile");
+            }
+            size += count;
+        }
+        return size;
+    }
+}
\ No newline at end of file
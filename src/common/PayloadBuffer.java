@@ -0,0 +1,29 @@
+package src.common;
+
+import java.io.ByteArrayOutputStream;
+
+// Collects a message's payload behind HEADER_SIZE free bytes, so the frame header can be written in
+// front of it without copying the payload.
+public class PayloadBuffer extends ByteArrayOutputStream {
+    public PayloadBuffer() {
+        this(256);
+    }
+
+    public PayloadBuffer(int size) {
+        super(Protocol.HEADER_SIZE + size);
+        count = Protocol.HEADER_SIZE;
+    }
+
+    public byte[] getBuffer() {
+        return buf;
+    }
+
+    public int getPayloadLength() {
+        return count - Protocol.HEADER_SIZE;
+    }
+
+    @Override
+    public synchronized void reset() {
+        count = Protocol.HEADER_SIZE;
+    }
+}
\ No newline at end of file
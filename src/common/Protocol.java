@@ -0,0 +1,250 @@
+package src.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Wire format, version 2.
+// A connection opens with a hello from each side: magic, protocol version and capability bits. The
+// client speaks first, the server answers with the version both understand and the capabilities both
+// have, and everything after that uses only those.
+// Every message then travels in frames with a fixed 12-byte header:
+//   int   payload length
+//   short type      one of the Constants.MESSAGE_TYPE_* values
+//   byte  flags     FLAG_*
+//   byte  channel   CHANNEL_*, what kind of traffic the frame carries
+//   int   sequence  numbers the sender's messages; all chunks of one message share it
+// followed by the payload, laid out per type as before. The length lets a reader skip any frame it
+// doesn't know, so new types and channels never desynchronize older peers.
+// With CAP_CHUNKED, a large message is split into frames of at most MAX_FRAME_PAYLOAD bytes, all but
+// the last flagged FLAG_MORE, so smaller messages can be written between its chunks. With CAP_DEFLATE,
+// a payload worth compressing is deflated, prefixed with its original length, and flagged FLAG_COMPRESSED.
+public class Protocol {
+    public static final int MAGIC = 0x52445032; // "RDP2"
+    public static final short VERSION = 2;
+    // Oldest version this build still talks to
+    public static final short MIN_VERSION = 2;
+
+    public static final int HELLO_SIZE = 10;
+    public static final int HEADER_SIZE = 12;
+
+    // Capabilities
+    public static final int CAP_DEFLATE = 1;
+    public static final int CAP_CHUNKED = 1 << 1;
+    public static final int CAP_CURSOR = 1 << 2; // The client draws the server's pointer itself
+    public static final int CAPABILITIES = CAP_DEFLATE | CAP_CHUNKED | CAP_CURSOR;
+
+    // Flags
+    public static final int FLAG_COMPRESSED = 1;
+    public static final int FLAG_MORE = 1 << 1;
+
+    // Channels
+    public static final int CHANNEL_CONTROL = 0;
+    public static final int CHANNEL_INPUT = 1;
+    public static final int CHANNEL_CURSOR = 2;
+    public static final int CHANNEL_CHAT = 3;
+    public static final int CHANNEL_SCREEN = 4;
+    public static final int CHANNEL_FILE = 5;
+
+    public static final int MAX_FRAME_PAYLOAD = 64 << 10;
+    // Largest message accepted after reassembly, e.g. a file; anything larger closes the connection
+    public static final int MAX_MESSAGE_BYTES = 256 << 20;
+    // Largest message a server accepts before the login is handled
+    public static final int MAX_LOGIN_BYTES = 4 << 10;
+    // Deflate can't shrink anything by more than this factor, so a larger declared size is a lie
+    private static final int MAX_DEFLATE_RATIO = 1032;
+    // Smaller payloads aren't worth deflating
+    private static final int MIN_COMPRESS_BYTES = 1024;
+
+    // A side's hello, or the agreement in the server's answer
+    public static class Hello {
+        public final int version;
+        public final int capabilities;
+
+        public Hello(int version, int capabilities) {
+            this.version = version;
+            this.capabilities = capabilities;
+        }
+    }
+
+    public static int channelOf(int type) {
+        switch (type) {
+            case Constants.MESSAGE_TYPE_INPUT:
+                return CHANNEL_INPUT;
+            case Constants.MESSAGE_TYPE_CURSOR_SHAPE:
+            case Constants.MESSAGE_TYPE_CURSOR_POSITION:
+                return CHANNEL_CURSOR;
+            case Constants.MESSAGE_TYPE_CHAT:
+                return CHANNEL_CHAT;
+            case Constants.MESSAGE_TYPE_SCREEN:
+                return CHANNEL_SCREEN;
+            case Constants.MESSAGE_TYPE_FILE:
+                return CHANNEL_FILE;
+            default:
+                return CHANNEL_CONTROL;
+        }
+    }
+
+    // Largest payload a message of the type may have once joined and inflated. Only files and screen
+    // updates get the full MAX_MESSAGE_BYTES.
+    public static int maxMessageBytes(int type) {
+        switch (type) {
+            case Constants.MESSAGE_TYPE_FILE:
+            case Constants.MESSAGE_TYPE_SCREEN:
+                return MAX_MESSAGE_BYTES;
+            case Constants.MESSAGE_TYPE_CURSOR_SHAPE:
+                return 1 << 20;
+            case Constants.MESSAGE_TYPE_CHAT:
+                // Two UTF strings of up to 64 KB each
+                return 2 * MAX_FRAME_PAYLOAD + 64;
+            default:
+                return MAX_FRAME_PAYLOAD;
+        }
+    }
+
+    public static void writeHello(DataOutputStream out, Hello hello) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeShort(hello.version);
+        out.writeInt(hello.capabilities);
+        out.flush();
+    }
+
+    public static Hello readHello(DataInputStream in) throws IOException {
+        byte[] hello = new byte[HELLO_SIZE];
+        in.readFully(hello);
+        return parseHello(ByteBuffer.wrap(hello));
+    }
+
+    public static ByteBuffer encodeHello(Hello hello) {
+        ByteBuffer buffer = ByteBuffer.allocate(HELLO_SIZE);
+        buffer.putInt(MAGIC).putShort((short) hello.version).putInt(hello.capabilities);
+        buffer.flip();
+        return buffer;
+    }
+
+    // Read a hello at the buffer's position
+    public static Hello parseHello(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a protocol version " + VERSION + " peer");
+        }
+        int version = buffer.getShort();
+        return new Hello(version, buffer.getInt());
+    }
+
+    // The server's answer to a client's hello; a version below MIN_VERSION means the server has to hang up
+    public static Hello negotiate(Hello client) {
+        int version = Math.min(VERSION, client.version);
+        return new Hello(version, version < MIN_VERSION ? 0 : client.capabilities & CAPABILITIES);
+    }
+
+    // Turn a payload into frames, adding them to the list. The payload sits in buffer after HEADER_SIZE
+    // bytes left free, so a payload sent in one piece gets its header written in place and isn't copied.
+    public static void encode(int type, int sequence, byte[] buffer, int length, boolean compressible,
+                              int capabilities, List<ByteBuffer> frames) {
+        int flags = 0;
+        byte[] data = buffer;
+        int offset = HEADER_SIZE;
+        if (compressible && (capabilities & CAP_DEFLATE) != 0 && length >= MIN_COMPRESS_BYTES) {
+            byte[] packed = deflate(buffer, HEADER_SIZE, length);
+            if (packed != null) {
+                data = packed;
+                offset = 0;
+                length = packed.length;
+                flags |= FLAG_COMPRESSED;
+            }
+        }
+
+        int channel = channelOf(type);
+        if (length <= MAX_FRAME_PAYLOAD || (capabilities & CAP_CHUNKED) == 0) {
+            ByteBuffer frame;
+            if (data == buffer) {
+                frame = ByteBuffer.wrap(buffer, 0, HEADER_SIZE + length);
+            } else {
+                frame = ByteBuffer.allocate(HEADER_SIZE + length);
+                frame.position(HEADER_SIZE);
+                frame.put(data, offset, length);
+                frame.flip();
+            }
+            putHeader(frame, length, type, flags, channel, sequence);
+            frames.add(frame);
+            return;
+        }
+
+        for (int start = 0; start < length; start += MAX_FRAME_PAYLOAD) {
+            int chunk = Math.min(MAX_FRAME_PAYLOAD, length - start);
+            ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + chunk);
+            putHeader(frame, chunk, type, start + chunk < length ? flags | FLAG_MORE : flags, channel, sequence);
+            frame.position(HEADER_SIZE);
+            frame.put(data, offset + start, chunk);
+            frame.flip();
+            frames.add(frame);
+        }
+    }
+
+    private static void putHeader(ByteBuffer frame, int length, int type, int flags, int channel, int sequence) {
+        frame.putInt(0, length);
+        frame.putShort(4, (short) type);
+        frame.put(6, (byte) flags);
+        frame.put(7, (byte) channel);
+        frame.putInt(8, sequence);
+    }
+
+    // The original length, then the deflated bytes; null if that isn't smaller than the input
+    private static byte[] deflate(byte[] data, int offset, int length) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            ByteArrayOutputStream packed = new ByteArrayOutputStream(length / 2 + 16);
+            new DataOutputStream(packed).writeInt(length);
+            byte[] chunk = new byte[Math.min(length, 64 << 10)];
+            while (!deflater.finished()) {
+                packed.write(chunk, 0, deflater.deflate(chunk));
+                if (packed.size() >= length) {
+                    return null;
+                }
+            }
+            return packed.toByteArray();
+        } catch (IOException e) {
+            return null;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // Inflate a payload written by deflate, refusing one that claims to be larger than maxSize or than
+    // its compressed bytes could hold, before anything is allocated for it
+    public static byte[] inflate(byte[] data, int offset, int length, int maxSize) throws IOException {
+        if (length < 4) {
+            throw new IOException("Truncated compressed payload");
+        }
+        int size = ByteBuffer.wrap(data, offset, 4).getInt();
+        if (size < 0 || size > maxSize || size > (long) (length - 4) * MAX_DEFLATE_RATIO + 64) {
+            throw new IOException("Invalid uncompressed size: " + size);
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, offset + 4, length - 4);
+            byte[] out = new byte[size];
+            int filled = 0;
+            while (filled < size) {
+                int n = inflater.inflate(out, filled, size - filled);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Truncated compressed payload");
+                }
+                filled += n;
+            }
+            return out;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed payload: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,76 @@
+package src.common;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Lossless codec for tiles already reduced to 16-bit color: each pixel is packed into
+// 5-6-5 bits, stored as two bytes and deflated. Instances reuse their buffers and are not thread-safe.
+public class Rgb565Codec {
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private final ByteArrayOutputStream compressed = new ByteArrayOutputStream(Constants.TILE_SIZE * Constants.TILE_SIZE);
+    private final byte[] chunk = new byte[4096];
+    private byte[] raw = new byte[Constants.TILE_SIZE * Constants.TILE_SIZE * 2];
+
+    // Encode the pixels, or return null if they don't compress below maxBytes
+    public byte[] encode(int[] pixels, int length, int maxBytes) {
+        if (raw.length < length * 2) {
+            raw = new byte[length * 2];
+        }
+        for (int i = 0; i < length; i++) {
+            int pixel = pixels[i];
+            int packed = ((pixel >> 8) & 0xf800) | ((pixel >> 5) & 0x07e0) | ((pixel >> 3) & 0x001f);
+            raw[i * 2] = (byte) (packed >>> 8);
+            raw[i * 2 + 1] = (byte) packed;
+        }
+
+        deflater.reset();
+        deflater.setInput(raw, 0, length * 2);
+        deflater.finish();
+
+        compressed.reset();
+        while (!deflater.finished()) {
+            int count = deflater.deflate(chunk);
+            compressed.write(chunk, 0, count);
+            if (compressed.size() > maxBytes) {
+                return null;
+            }
+        }
+        return compressed.toByteArray();
+    }
+
+    // Decode into the given pixel array, which must hold at least length entries
+    public void decode(byte[] data, int[] pixels, int length) throws DataFormatException {
+        if (raw.length < length * 2) {
+            raw = new byte[length * 2];
+        }
+        inflater.reset();
+        inflater.setInput(data);
+
+        int size = 0;
+        while (size < length * 2 && !inflater.finished()) {
+            int count = inflater.inflate(raw, size, length * 2 - size);
+            if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                break;
+            }
+            size += count;
+        }
+        if (size < length * 2) {
+            throw new DataFormatException("Truncated RGB565 tile");
+        }
+
+        for (int i = 0; i < length; i++) {
+            pixels[i] = expand(((raw[i * 2] & 0xff) << 8) | (raw[i * 2 + 1] & 0xff));
+        }
+    }
+
+    // Widen a 5-6-5 pixel back to 8 bits per channel, replicating the high bits into the low ones
+    public static int expand(int packed) {
+        int r = (packed >>> 11) & 0x1f;
+        int g = (packed >>> 5) & 0x3f;
+        int b = packed & 0x1f;
+        return ((r << 3) | (r >> 2)) << 16 | ((g << 2) | (g >> 4)) << 8 | ((b << 3) | (b >> 2));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,46 @@
+package src.common;
+
+// A rectangular piece of the remote screen, encoded independently of the rest of the frame
+public class ScreenTile {
+    private int x;
+    private int y;
+    private int width;
+    private int height;
+    private byte codec;
+    private byte[] data;
+    
+    public ScreenTile(int x, int y, int width, int height, byte codec, byte[] data) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.codec = codec;
+        this.data = data;
+    }
+    
+    // Getters
+    public int getX() {
+        return x;
+    }
+    
+    public int getY() {
+        return y;
+    }
+    
+    public int getWidth() {
+        return width;
+    }
+    
+    public int getHeight() {
+        return height;
+    }
+    
+    // One of the Constants.TILE_CODEC_* values
+    public byte getCodec() {
+        return codec;
+    }
+    
+    public byte[] getData() {
+        return data;
+    }
+}
\ No newline at end of file
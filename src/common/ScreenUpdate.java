@@ -0,0 +1,78 @@
+package src.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// One screen update message: region copies to apply first, then the changed tiles to draw.
+// The frame may be a downscaled version of the screen; tiles and copies use frame coordinates,
+// while the screen size is what input events are mapped to.
+public class ScreenUpdate {
+    private int screenWidth;
+    private int screenHeight;
+    private int frameWidth;
+    private int frameHeight;
+    private List<CopyRegion> copies = new ArrayList<>();
+    private List<ScreenTile> tiles = new ArrayList<>();
+    
+    public ScreenUpdate() {
+    }
+    
+    public ScreenUpdate(int screenWidth, int screenHeight, int frameWidth, int frameHeight) {
+        this.screenWidth = screenWidth;
+        this.screenHeight = screenHeight;
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+    }
+    
+    public void setScreenSize(int screenWidth, int screenHeight) {
+        this.screenWidth = screenWidth;
+        this.screenHeight = screenHeight;
+    }
+    
+    public void setFrameSize(int frameWidth, int frameHeight) {
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+    }
+    
+    public void addCopy(CopyRegion copy) {
+        copies.add(copy);
+    }
+    
+    public void addTile(ScreenTile tile) {
+        tiles.add(tile);
+    }
+    
+    public void clear() {
+        copies.clear();
+        tiles.clear();
+    }
+    
+    public boolean isEmpty() {
+        return copies.isEmpty() && tiles.isEmpty();
+    }
+    
+    // Getters
+    public int getScreenWidth() {
+        return screenWidth;
+    }
+    
+    public int getScreenHeight() {
+        return screenHeight;
+    }
+    
+    public int getFrameWidth() {
+        return frameWidth;
+    }
+    
+    public int getFrameHeight() {
+        return frameHeight;
+    }
+    
+    public List<CopyRegion> getCopies() {
+        return copies;
+    }
+    
+    public List<ScreenTile> getTiles() {
+        return tiles;
+    }
+}
\ No newline at end of file
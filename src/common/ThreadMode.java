@@ -0,0 +1,89 @@
+package src.common;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Chooses between platform and virtual threads for work that spends its time blocked, like handling a
+// client's messages (which waits on the database) or reading from a socket.
+// Virtual threads need Java 21 while the project is built for 11, so they are reached through
+// reflection, and on older runtimes everything falls back to platform threads. The mode is taken from
+// the rds.threads system property ("virtual" or "platform"); without it virtual threads are used
+// wherever the runtime has them.
+public class ThreadMode {
+    public enum Mode {
+        PLATFORM,
+        VIRTUAL
+    }
+
+    // Thread.startVirtualThread(Runnable) and Executors.newVirtualThreadPerTaskExecutor(), or null before Java 21
+    private static final Method START_VIRTUAL_THREAD = findMethod(Thread.class, "startVirtualThread", Runnable.class);
+    private static final Method NEW_VIRTUAL_EXECUTOR = findMethod(Executors.class, "newVirtualThreadPerTaskExecutor");
+
+    private static volatile Mode mode = defaultMode();
+
+    private static Method findMethod(Class<?> type, String name, Class<?>... parameters) {
+        try {
+            return type.getMethod(name, parameters);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static Mode defaultMode() {
+        String property = System.getProperty("rds.threads", "");
+        if (property.equalsIgnoreCase("platform") || !isVirtualSupported()) {
+            return Mode.PLATFORM;
+        }
+        return Mode.VIRTUAL;
+    }
+
+    public static boolean isVirtualSupported() {
+        return START_VIRTUAL_THREAD != null && NEW_VIRTUAL_EXECUTOR != null;
+    }
+
+    // Applies to threads and executors created afterwards. Asking for virtual threads on a runtime
+    // without them keeps platform threads.
+    public static void setMode(Mode requested) {
+        mode = requested == Mode.VIRTUAL && !isVirtualSupported() ? Mode.PLATFORM : requested;
+    }
+
+    public static Mode getMode() {
+        return mode;
+    }
+
+    // Start a thread for one long-running, mostly blocked task
+    public static Thread start(String name, Runnable task) {
+        if (mode == Mode.VIRTUAL) {
+            try {
+                Thread thread = (Thread) START_VIRTUAL_THREAD.invoke(null, task);
+                thread.setName(name);
+                return thread;
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Virtual threads unavailable, using a platform thread: " + e);
+            }
+        }
+        Thread thread = new Thread(task, name);
+        thread.start();
+        return thread;
+    }
+
+    // An executor for short tasks that may block: a new virtual thread per task, or in platform mode a
+    // fixed pool of daemon threads
+    public static ExecutorService newTaskExecutor(String name, int platformThreads) {
+        if (mode == Mode.VIRTUAL) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_EXECUTOR.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Virtual threads unavailable, using platform threads: " + e);
+            }
+        }
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(platformThreads, runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
\ No newline at end of file
@@ -0,0 +1,90 @@
+package src.common;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Lossless inter-frame codec for content that changes a little at a time but isn't JPEG friendly.
+// A key tile stores the pixels themselves; a delta tile stores them XORed with the tile's previous
+// content, which is zero wherever nothing changed. Either way the three color channels are written
+// as separate planes, so the residual's long zero runs and the key's flat areas deflate well.
+// The first byte tells keys and deltas apart, the deflate stream follows.
+// Instances reuse their buffers and are not thread-safe.
+public class XorDeltaCodec {
+    public static final byte KEY = 0;
+    public static final byte DELTA = 1;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private final ByteArrayOutputStream compressed = new ByteArrayOutputStream(Constants.TILE_SIZE * Constants.TILE_SIZE);
+    private final byte[] chunk = new byte[4096];
+    private byte[] planes = new byte[Constants.TILE_SIZE * Constants.TILE_SIZE * 3];
+
+    public byte[] encodeKey(int[] pixels, int length) {
+        return encode(KEY, pixels, null, length);
+    }
+
+    // Encode the difference between the pixels and the content the client already has
+    public byte[] encodeDelta(int[] pixels, int[] reference, int length) {
+        return encode(DELTA, pixels, reference, length);
+    }
+
+    public static boolean isDelta(byte[] data) {
+        return data.length > 0 && data[0] == DELTA;
+    }
+
+    // Decode a key into pixels, or apply a delta to the previous content already in pixels
+    public void decode(byte[] data, int[] pixels, int length) throws DataFormatException {
+        if (data.length == 0 || (data[0] != KEY && data[0] != DELTA)) {
+            throw new DataFormatException("Not a key or delta tile");
+        }
+        if (planes.length < length * 3) {
+            planes = new byte[length * 3];
+        }
+        inflater.reset();
+        inflater.setInput(data, 1, data.length - 1);
+
+        int size = 0;
+        while (size < length * 3 && !inflater.finished()) {
+            int count = inflater.inflate(planes, size, length * 3 - size);
+            if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                break;
+            }
+            size += count;
+        }
+        if (size < length * 3) {
+            throw new DataFormatException("Truncated delta tile");
+        }
+
+        boolean delta = isDelta(data);
+        for (int i = 0; i < length; i++) {
+            int value = (planes[i] & 0xff) << 16 | (planes[length + i] & 0xff) << 8 | (planes[length * 2 + i] & 0xff);
+            pixels[i] = delta ? (pixels[i] ^ value) & 0xffffff : value;
+        }
+    }
+
+    private byte[] encode(byte type, int[] pixels, int[] reference, int length) {
+        if (planes.length < length * 3) {
+            planes = new byte[length * 3];
+        }
+        for (int i = 0; i < length; i++) {
+            int value = reference != null ? pixels[i] ^ reference[i] : pixels[i];
+            planes[i] = (byte) (value >>> 16);
+            planes[length + i] = (byte) (value >>> 8);
+            planes[length * 2 + i] = (byte) value;
+        }
+
+        deflater.reset();
+        deflater.setInput(planes, 0, length * 3);
+        deflater.finish();
+
+        compressed.reset();
+        compressed.write(type);
+        while (!deflater.finished()) {
+            int count = deflater.deflate(chunk);
+            compressed.write(chunk, 0, count);
+        }
+        return compressed.toByteArray();
+    }
+}
\ No newline at end of file
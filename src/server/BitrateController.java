@@ -0,0 +1,246 @@
+package src.server;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+// Closed-loop rate control for one client's screen updates.
+// Every update is acknowledged by the client once it has been drawn, which gives the real
+// round-trip time and delivery rate of the connection, including socket buffers and client decoding.
+// The sending rate follows AIMD: it grows steadily while round trips stay close to the best seen,
+// and is cut multiplicatively once updates start queueing. Updates are paced to that rate and held
+// back while too much is unacknowledged, so a slow link skips frames instead of building up lag.
+// When even skipping frames can't keep a reasonable frame rate, quality and then resolution are lowered.
+public class BitrateController {
+    private static final double INITIAL_RATE = 1_000_000;   // bytes per second
+    private static final double MIN_RATE = 32_000;
+    private static final double MAX_RATE = 200_000_000;
+    private static final double ADDITIVE_INCREASE = 250_000; // bytes per second, per second
+    private static final double DECREASE_FACTOR = 0.7;
+
+    // Queueing delay tolerated on top of the minimum round trip before the rate is cut
+    private static final long TARGET_DELAY_NANOS = 100_000_000L;
+    // The minimum round trip is forgotten periodically so route changes are picked up
+    private static final long MIN_RTT_WINDOW_NANOS = 10_000_000_000L;
+    // The additive increase counts at most this much of the gap between acks (or the round trip before
+    // it, if longer), so an ack after an idle spell doesn't credit the whole spell
+    private static final long MAX_INCREASE_GAP_NANOS = 100_000_000L;
+    // While acks are overdue the sender is woken by the next ack; it only polls as a fallback, backing
+    // off between these bounds
+    private static final long MIN_STALL_POLL_NANOS = 5_000_000L;
+    private static final long MAX_STALL_POLL_NANOS = 1_000_000_000L;
+
+    // Quality and scale are revisited at most this often, within these frame rate bounds
+    private static final long ADJUST_INTERVAL_NANOS = 1_000_000_000L;
+    // A change of quality or scale needs the frame rate out of bounds for this many intervals in a row,
+    // and at least the dwell time since the previous change, so one heavy update can't flip it back and forth
+    private static final int CONFIRM_INTERVALS = 2;
+    private static final long MIN_DWELL_NANOS = 5_000_000_000L;
+    private static final double LOW_FPS = 10;
+    private static final double HIGH_FPS = 30;
+    private static final float QUALITY_STEP = 0.1f;
+    private static final int MAX_QUALITY_STEPS = 4;
+    private static final float MIN_QUALITY = 0.3f;
+    private static final int MAX_EXTRA_SCALE = 4;
+
+    private static final double SMOOTHING = 0.2;
+
+    // An update that has been written but not yet acknowledged
+    private static class InFlight {
+        final int id;
+        final int bytes;
+        final long sentTime;
+
+        InFlight(int id, int bytes, long sentTime) {
+            this.id = id;
+            this.bytes = bytes;
+            this.sentTime = sentTime;
+        }
+    }
+
+    private final Deque<InFlight> inFlight = new ArrayDeque<>();
+    private long inFlightBytes;
+
+    private double rate = INITIAL_RATE;
+    private double smoothedRtt;
+    private long minRtt = Long.MAX_VALUE;
+    private long minRttTime;
+    private long lastAckTime;
+    private long lastDecreaseTime;
+
+    private double deliveryRate;
+    private double bytesPerUpdate;
+    private long nextSendTime;
+    private long stallPoll;
+
+    private int qualitySteps;
+    private int extraScale = 1;
+    private long lastAdjustTime;
+    private long lastChangeTime;
+    // -1 while the frame rate was below bounds, 1 above, and for how many intervals in a row
+    private int outOfBandDirection;
+    private int outOfBandIntervals;
+
+    // fullFrame marks an update that resends the whole screen, e.g. after a profile switch. It is paced
+    // like any other but left out of the average update size, which describes the steady state.
+    public synchronized void onSent(int id, int bytes, long now, boolean fullFrame) {
+        inFlight.addLast(new InFlight(id, bytes, now));
+        inFlightBytes += bytes;
+
+        // Pace the next update so the average stays at the target rate
+        nextSendTime = now + (long) (bytes / rate * 1_000_000_000L);
+        if (!fullFrame || bytesPerUpdate == 0) {
+            bytesPerUpdate = bytesPerUpdate == 0 ? bytes : bytesPerUpdate + SMOOTHING * (bytes - bytesPerUpdate);
+        }
+    }
+
+    // An update sent earlier was taken back before it went out, e.g. replaced by a newer one
+    public synchronized void onWithdrawn(int id) {
+        for (Iterator<InFlight> it = inFlight.iterator(); it.hasNext(); ) {
+            InFlight update = it.next();
+            if (update.id == id) {
+                it.remove();
+                inFlightBytes -= update.bytes;
+                return;
+            }
+        }
+    }
+
+    public synchronized void onAck(int id, long now) {
+        InFlight acked = null;
+        int ackedBytes = 0;
+        while (!inFlight.isEmpty() && idNotAfter(inFlight.peekFirst().id, id)) {
+            acked = inFlight.removeFirst();
+            inFlightBytes -= acked.bytes;
+            ackedBytes += acked.bytes;
+        }
+        if (acked == null) {
+            return;
+        }
+        stallPoll = 0;
+
+        long rtt = now - acked.sentTime;
+        long previousRtt = (long) smoothedRtt;
+        smoothedRtt = smoothedRtt == 0 ? rtt : smoothedRtt + SMOOTHING * (rtt - smoothedRtt);
+        if (rtt < minRtt || now - minRttTime > MIN_RTT_WINDOW_NANOS) {
+            minRtt = rtt;
+            minRttTime = now;
+        }
+
+        if (lastAckTime != 0) {
+            long elapsed = Math.max(1, now - lastAckTime);
+            // After an idle spell the gap between acks says nothing about the link; the round trip does
+            double sample = ackedBytes * 1_000_000_000.0 / Math.max(1, Math.min(elapsed, rtt));
+            deliveryRate = deliveryRate == 0 ? sample : deliveryRate + SMOOTHING * (sample - deliveryRate);
+
+            if (rtt > minRtt + TARGET_DELAY_NANOS) {
+                // Updates are queueing somewhere; back off at most once per round trip
+                if (now - lastDecreaseTime > smoothedRtt) {
+                    double base = deliveryRate > 0 ? Math.min(rate, deliveryRate) : rate;
+                    rate = Math.max(MIN_RATE, base * DECREASE_FACTOR);
+                    lastDecreaseTime = now;
+                }
+            } else {
+                long gap = Math.min(elapsed, Math.max(MAX_INCREASE_GAP_NANOS, previousRtt));
+                rate = Math.min(MAX_RATE, rate + ADDITIVE_INCREASE * gap / 1_000_000_000.0);
+            }
+        }
+        lastAckTime = now;
+
+        adjustQualityAndScale(now);
+    }
+
+    // Nanoseconds until the next update may be sent, 0 if it can go now. While the window is full the
+    // caller should also try again on the next ack, which may open it sooner.
+    public synchronized long getSendDelay(long now) {
+        long paced = Math.max(0, nextSendTime - now);
+
+        // Never keep more than the target delay's worth of data unacknowledged
+        long allowedDelay = (minRtt == Long.MAX_VALUE ? 0 : minRtt) + TARGET_DELAY_NANOS;
+        double window = rate * allowedDelay / 1_000_000_000.0;
+        if (!inFlight.isEmpty() && inFlightBytes > window) {
+            long oldestAge = now - inFlight.peekFirst().sentTime;
+            if (oldestAge < allowedDelay) {
+                return Math.max(paced, allowedDelay - oldestAge);
+            }
+            // Acks are overdue, e.g. a frozen client or a dead link: back off rather than spin
+            stallPoll = stallPoll == 0 ? MIN_STALL_POLL_NANOS : Math.min(MAX_STALL_POLL_NANOS, stallPoll * 2);
+            return Math.max(paced, stallPoll);
+        }
+        stallPoll = 0;
+        return paced;
+    }
+
+    // Lower quality first, then resolution, when the rate only allows a few frames per second
+    private void adjustQualityAndScale(long now) {
+        if (now - lastAdjustTime < ADJUST_INTERVAL_NANOS || bytesPerUpdate == 0) {
+            return;
+        }
+        lastAdjustTime = now;
+
+        double fps = getAchievableFps();
+        int direction = fps < LOW_FPS ? -1 : fps > HIGH_FPS ? 1 : 0;
+        outOfBandIntervals = direction == outOfBandDirection ? outOfBandIntervals + 1 : 1;
+        outOfBandDirection = direction;
+        if (direction == 0 || outOfBandIntervals < CONFIRM_INTERVALS || now - lastChangeTime < MIN_DWELL_NANOS) {
+            return;
+        }
+        int oldSteps = qualitySteps;
+        int oldScale = extraScale;
+        if (direction < 0) {
+            if (qualitySteps < MAX_QUALITY_STEPS) {
+                qualitySteps++;
+            } else if (extraScale < MAX_EXTRA_SCALE) {
+                extraScale *= 2;
+            }
+        } else {
+            if (extraScale > 1) {
+                extraScale /= 2;
+            } else if (qualitySteps > 0) {
+                qualitySteps--;
+            }
+        }
+        if (qualitySteps != oldSteps || extraScale != oldScale) {
+            lastChangeTime = now;
+            outOfBandIntervals = 0;
+        }
+    }
+
+    // JPEG quality for this client given the quality it would get on an unconstrained link
+    public synchronized float getQuality(float baseQuality) {
+        return Math.max(Math.min(baseQuality, MIN_QUALITY), baseQuality - qualitySteps * QUALITY_STEP);
+    }
+
+    // Extra downscale divisor on top of what the client's viewport needs
+    public synchronized int getExtraScale() {
+        return extraScale;
+    }
+
+    // Update rate the current sending rate supports at the recent average update size
+    public synchronized double getAchievableFps() {
+        return bytesPerUpdate == 0 ? 0 : rate / bytesPerUpdate;
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    public synchronized double getDeliveryRate() {
+        return deliveryRate;
+    }
+
+    public synchronized double getRttMillis() {
+        return smoothedRtt / 1_000_000.0;
+    }
+
+    // Update ids wrap around, so compare them by distance
+    private static boolean idNotAfter(int id, int ackedId) {
+        return ackedId - id >= 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("rate=%.0fKB/s delivered=%.0fKB/s rtt=%.1fms fps=%.1f quality-%d scale=x%d",
+            rate / 1000, deliveryRate / 1000, smoothedRtt / 1_000_000.0, getAchievableFps(), qualitySteps, extraScale);
+    }
+}
\ No newline at end of file
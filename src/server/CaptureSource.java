@@ -0,0 +1,52 @@
+package src.server;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+// Where the ScreenCapturer gets its frames from: the real screen, or a generator for headless runs
+public interface CaptureSource {
+    // Area covered by the source, in its own coordinates
+    Rectangle getBounds();
+
+    // Grab the given area. Every call must return a new image, since the pipeline diffs against the previous one.
+    BufferedImage capture(Rectangle area);
+
+    // Grab the given area, into an image from the pool where the source can. The caller holds one
+    // reference to the result and releases it when done. Sources that always allocate ignore the pool.
+    default BufferedImage capture(Rectangle area, ImagePool pool) {
+        return capture(area);
+    }
+
+    // Grab parts of the given area into the same places of an image covering all of it, leaving the
+    // rest of the image as it is. Regions are relative to the area and lie within it.
+    default void captureRegions(Rectangle area, List<Rectangle> regions, BufferedImage image) {
+        int[] data = Rasters.getData(image);
+        int stride = data != null ? Rasters.getStride(image) : 0;
+        for (Rectangle region : regions) {
+            BufferedImage part = capture(new Rectangle(area.x + region.x, area.y + region.y, region.width, region.height));
+            if (data != null) {
+                Rasters.read(part, 0, 0, region.width, region.height, data,
+                    Rasters.getIndex(image, region.x, region.y), stride);
+            } else {
+                image.setRGB(region.x, region.y, region.width, region.height,
+                    part.getRGB(0, 0, region.width, region.height, null, 0, region.width), 0, region.width);
+            }
+        }
+    }
+
+    // Most rows sampleRows is asked for at once. Sources where every row is a screen grab of its own
+    // keep this low, and the ChangeProbe spreads its rows over more ticks instead.
+    default int getMaxSampleRows() {
+        return Integer.MAX_VALUE;
+    }
+
+    // Read single rows of the given area (offsets from its top) into out, row after row, as a cheap
+    // check for changes between captures. Sources that can read rows more cheaply should override this.
+    default void sampleRows(Rectangle area, int[] rows, int[] out) {
+        for (int i = 0; i < rows.length; i++) {
+            BufferedImage row = capture(new Rectangle(area.x, area.y + rows[i], area.width, 1));
+            Rasters.read(row, 0, 0, area.width, 1, out, i * area.width, area.width);
+        }
+    }
+}
\ No newline at end of file
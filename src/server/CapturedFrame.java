@@ -0,0 +1,98 @@
+package src.server;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A raw screen capture waiting in the pipeline to be diffed and encoded.
+// It carries one EncodedFrame per profile that was active when it was captured.
+// The frame holds a pool reference to both of its images until everything reading them has released it.
+public class CapturedFrame {
+    private final long sequence;
+    private final BufferedImage image;
+    private final BufferedImage previousImage;
+    private final FrameBuffer frameBuffer;
+    private final long captureTime;
+    private final boolean[] changedTiles;
+    private final List<EncodedFrame> targets = new ArrayList<>();
+    private volatile long encodedTime;
+    private final ImagePool imagePool;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    public CapturedFrame(long sequence, BufferedImage image, BufferedImage previousImage,
+                         FrameBuffer frameBuffer, long captureTime, ImagePool imagePool) {
+        this.sequence = sequence;
+        this.image = image;
+        this.previousImage = previousImage;
+        this.frameBuffer = frameBuffer;
+        this.captureTime = captureTime;
+        this.changedTiles = new boolean[frameBuffer.getTileCount()];
+        this.imagePool = imagePool;
+        imagePool.retain(image);
+        if (previousImage != null) {
+            imagePool.retain(previousImage);
+        }
+    }
+
+    // Keep the images from going back to the pool, e.g. while a refinement reads them
+    public void retain() {
+        references.incrementAndGet();
+    }
+
+    // Give up a reference; the creator's reference is released once the frame is published or dropped
+    public void release() {
+        if (references.decrementAndGet() == 0) {
+            imagePool.release(image);
+            if (previousImage != null) {
+                imagePool.release(previousImage);
+            }
+        }
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    // The capture this frame is diffed against, or null if every tile must be encoded
+    public BufferedImage getPreviousImage() {
+        return previousImage;
+    }
+
+    // Full-resolution tile grid the capture is diffed on
+    public FrameBuffer getFrameBuffer() {
+        return frameBuffer;
+    }
+
+    // Tiles of the full-resolution grid that differ from the previous capture
+    public boolean[] getChangedTiles() {
+        return changedTiles;
+    }
+
+    // Per-profile outputs, filled in by the encoder
+    public List<EncodedFrame> getTargets() {
+        return targets;
+    }
+
+    public void addTarget(EncodedFrame target) {
+        targets.add(target);
+    }
+
+    // System.nanoTime() when the capture completed
+    public long getCaptureTime() {
+        return captureTime;
+    }
+
+    // System.nanoTime() when encoding finished
+    public long getEncodedTime() {
+        return encodedTime;
+    }
+
+    public void setEncodedTime(long encodedTime) {
+        this.encodedTime = encodedTime;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,268 @@
+package src.server;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Decides on each capture tick whether the screen has to be captured, and which parts of it.
+// A full capture of a large desktop is the most expensive step of an idle pipeline, so when nothing
+// forces one, only a sparse set of rows is read and compared with the same rows last time. The rows
+// are spread over phases that take turns, so each tick reads a fraction of them and every row is
+// checked again once all phases have had theirs. There are at least MIN_PHASES, and more when the
+// source limits how many rows it reads at once, since every row can cost the source a screen grab.
+// Changed stretches of probed rows, and the area around injected input, are handed on as hints of where
+// the screen changed, so the RegionCapturer can capture just those parts.
+// A capture is forced after injected input and until the screen has held still for a few captures
+// (so draft tiles get refined). The whole screen is captured while a client waits for a full frame and
+// at least every MAX_STALENESS, which catches changes that fell between the probed rows or outside
+// the captured regions. Whether the screen held still is told by a hash of each full capture, compared
+// straight off its int array, and for partial ones by comparing just the captured regions.
+public class ChangeProbe {
+    public enum Capture {
+        NONE,
+        REGIONS,
+        FULL
+    }
+
+    // Distance between probed rows, over all phases
+    private static final int ROW_PITCH = 8;
+    private static final int MIN_PHASES = 2;
+    // Captures after the last change, enough for the pipeline to refine the draft tiles it left
+    private static final int SETTLE_CAPTURES = TileRefinement.REFINE_AFTER_FRAMES + 1;
+    // Input usually takes an application a few frames to respond to
+    private static final long INPUT_WINDOW_NANOS = 250_000_000L;
+    // Area around the pointer where input is likely to change something, e.g. a button or menu
+    private static final int INPUT_HINT_SIZE = 256;
+    private static final long MAX_STALENESS_NANOS = 1_000_000_000L;
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private volatile boolean enabled = true;
+    private volatile boolean partialCaptures = true;
+    private volatile long lastInputTime;
+    private volatile int inputX;
+    private volatile int inputY;
+
+    // Capture thread state
+    private Rectangle area;
+    private int maxSampleRows = Integer.MAX_VALUE;
+    private int phases;
+    // Distance between the rows of one phase
+    private int rowSpacing;
+    private int[][] phaseRows;
+    private int[][] reference;
+    private int[] samples;
+    private int phase;
+    private int settleCaptures;
+    private long lastFullCaptureTime;
+    // Hash of the last capture's pixels; holding on to the image itself would keep it from the pool
+    private long lastHash;
+    private int[] rowBuffer;
+    private final List<Rectangle> hints = new ArrayList<>();
+
+    private volatile long probes;
+    private volatile long captures;
+
+    // Call for every input event injected into the local desktop, with the pointer's screen position
+    public void onInput(int x, int y) {
+        inputX = x;
+        inputY = y;
+        lastInputTime = System.nanoTime();
+    }
+
+    // With the probe disabled every tick is captured in full
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // With partial captures off, any change is captured in full as before
+    public void setPartialCaptures(boolean partialCaptures) {
+        this.partialCaptures = partialCaptures;
+    }
+
+    // Forget the probed rows, so the next tick captures, e.g. after the capturer was idle
+    public void reset() {
+        area = null;
+    }
+
+    // What this tick needs captured. Unless a full capture is due anyway, the source is probed and
+    // the places it changed in are left in getHints().
+    public Capture decide(CaptureSource source, Rectangle captureArea, EncodeProfile[] profiles, long now) {
+        hints.clear();
+        if (source.getMaxSampleRows() != maxSampleRows) {
+            // Lay the rows out again for the new source
+            maxSampleRows = source.getMaxSampleRows();
+            area = null;
+        }
+        if (!enabled || !captureArea.equals(area) || now - lastFullCaptureTime > MAX_STALENESS_NANOS) {
+            return Capture.FULL;
+        }
+        for (EncodeProfile profile : profiles) {
+            if (profile.isFullFrameRequested() || profile.isRefreshRequested()) {
+                return Capture.FULL;
+            }
+        }
+
+        int[] rows = phaseRows[phase];
+        source.sampleRows(area, rows, samples);
+        probes++;
+        int width = area.width;
+        int[] previous = reference[phase];
+        for (int i = 0; i < rows.length; i++) {
+            int offset = i * width;
+            int first = Arrays.mismatch(samples, offset, offset + width, previous, offset, offset + width);
+            if (first >= 0) {
+                int last = width - 1;
+                while (samples[offset + last] == previous[offset + last]) {
+                    last--;
+                }
+                // The change may reach up to the neighbouring probed rows
+                hints.add(new Rectangle(first, rows[i] - rowSpacing, last - first + 1, 2 * rowSpacing + 1));
+            }
+        }
+        phase = (phase + 1) % phases;
+
+        boolean recentInput = now - lastInputTime < INPUT_WINDOW_NANOS;
+        if (recentInput) {
+            hints.add(new Rectangle(inputX - area.x - INPUT_HINT_SIZE / 2, inputY - area.y - INPUT_HINT_SIZE / 2,
+                INPUT_HINT_SIZE, INPUT_HINT_SIZE));
+        }
+
+        if (hints.isEmpty() && settleCaptures == 0) {
+            return Capture.NONE;
+        }
+        return partialCaptures ? Capture.REGIONS : Capture.FULL;
+    }
+
+    // Where the last decide() saw changes, relative to the capture area and possibly reaching past it
+    public List<Rectangle> getHints() {
+        return hints;
+    }
+
+    // Note a full capture. Refreshes the probed rows from it and, by comparing its hash with the
+    // previous full capture's, tells whether the screen is still changing.
+    public void recordCapture(BufferedImage image, Rectangle captureArea, long now) {
+        captures++;
+        lastFullCaptureTime = now;
+        boolean newArea = !captureArea.equals(area) || image.getWidth() != captureArea.width
+            || image.getHeight() != captureArea.height;
+        if (newArea) {
+            setArea(captureArea);
+        }
+        long hash = hash(image);
+        settle(newArea || hash != lastHash);
+        lastHash = hash;
+        refreshRows(image, null);
+    }
+
+    // Note a frame composed from partial captures, which can only differ from the last one in the
+    // captured regions. The RegionCapturer knows whether it did, so nothing needs hashing.
+    public void recordPartialCapture(BufferedImage image, List<Rectangle> regions, boolean changed) {
+        captures++;
+        settle(changed);
+        refreshRows(image, regions);
+    }
+
+    private void settle(boolean changed) {
+        settleCaptures = changed ? SETTLE_CAPTURES : Math.max(0, settleCaptures - 1);
+    }
+
+    // Copy the probed rows of a capture, or only their parts within the given regions
+    private void refreshRows(BufferedImage image, List<Rectangle> regions) {
+        int width = area.width;
+        for (int p = 0; p < phases; p++) {
+            int[] rows = phaseRows[p];
+            for (int i = 0; i < rows.length; i++) {
+                if (regions == null) {
+                    Rasters.read(image, 0, rows[i], width, 1, reference[p], i * width, width);
+                    continue;
+                }
+                for (Rectangle region : regions) {
+                    if (rows[i] >= region.y && rows[i] < region.y + region.height) {
+                        Rasters.read(image, region.x, rows[i], region.width, 1, reference[p], i * width + region.x, width);
+                    }
+                }
+            }
+        }
+    }
+
+    private void setArea(Rectangle captureArea) {
+        area = new Rectangle(captureArea);
+        phase = 0;
+
+        // Enough phases that none reads more rows than the source takes at once. Phase p probes row
+        // p * ROW_PITCH, then every rowSpacing rows after that.
+        int totalRows = (area.height + ROW_PITCH - 1) / ROW_PITCH;
+        phases = Math.max(MIN_PHASES, (int) ((totalRows + (long) maxSampleRows - 1) / maxSampleRows));
+        rowSpacing = phases * ROW_PITCH;
+        phaseRows = new int[phases][];
+        reference = new int[phases][];
+        int maxRows = 0;
+        for (int p = 0; p < phases; p++) {
+            int first = p * ROW_PITCH;
+            int count = first < area.height ? (area.height - 1 - first) / rowSpacing + 1 : 0;
+            phaseRows[p] = new int[count];
+            for (int i = 0; i < count; i++) {
+                phaseRows[p][i] = first + i * rowSpacing;
+            }
+            reference[p] = new int[count * area.width];
+            maxRows = Math.max(maxRows, count);
+        }
+        samples = new int[maxRows * area.width];
+        rowBuffer = new int[area.width];
+    }
+
+    // Four independent lanes, so the multiplies of neighbouring pixels overlap
+    private long hash(BufferedImage image) {
+        long h0 = 0, h1 = 0, h2 = 0, h3 = 0;
+        int width = image.getWidth();
+        int[] data = Rasters.getData(image);
+        for (int y = 0; y < image.getHeight(); y++) {
+            int[] row = data;
+            int index;
+            if (data != null) {
+                index = Rasters.getIndex(image, 0, y);
+            } else {
+                Rasters.read(image, 0, y, width, 1, rowBuffer, 0, width);
+                row = rowBuffer;
+                index = 0;
+            }
+
+            int end = index + width;
+            int i = index;
+            for (; i + 3 < end; i += 4) {
+                h0 = (h0 + row[i]) * HASH_MULTIPLIER;
+                h1 = (h1 + row[i + 1]) * HASH_MULTIPLIER;
+                h2 = (h2 + row[i + 2]) * HASH_MULTIPLIER;
+                h3 = (h3 + row[i + 3]) * HASH_MULTIPLIER;
+            }
+            for (; i < end; i++) {
+                h0 = (h0 + row[i]) * HASH_MULTIPLIER;
+            }
+        }
+        return h0 ^ Long.rotateLeft(h1, 16) ^ Long.rotateLeft(h2, 32) ^ Long.rotateLeft(h3, 48);
+    }
+
+    public long getProbeCount() {
+        return probes;
+    }
+
+    public long getCaptureCount() {
+        return captures;
+    }
+
+    public void resetStats() {
+        probes = 0;
+        captures = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s, %d captures, %d probes", enabled ? "probing" : "disabled", captures, probes);
+    }
+}
\ No newline at end of file
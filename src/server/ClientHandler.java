@@ -1,7 +1,15 @@
 package src.server;
 
 import src.common.Constants;
+import src.common.CopyRegion;
+import src.common.CursorShape;
+import src.common.Frame;
+import src.common.InputEvents;
 import src.common.Message;
+import src.common.PayloadBuffer;
+import src.common.Protocol;
+import src.common.ScreenTile;
+import src.common.ScreenUpdate;
 import src.common.database.UserDAO;
 import src.common.database.SessionDAO;
 import src.common.database.ActivityLogDAO;
@@ -12,16 +20,24 @@ import src.common.model.ActivityLog;
 import src.common.model.ChatMessage;
 import org.bson.types.ObjectId;
 
+import java.awt.Rectangle;
 import java.io.*;
-import java.net.Socket;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class ClientHandler {
+// Server side of one client connection.
+// Runs no threads of its own: the ConnectionEngine hands it each complete message on a worker, one at a
+// time, and its screen sender runs on the workers whenever a frame is published or it is otherwise woken.
+public class ClientHandler implements Connection.Handler {
     private Server server;
-    private Socket socket;
+    private Connection connection;
     private String clientName;
+    // The message being handled
     private DataInputStream in;
-    private DataOutputStream out;
-    private boolean isRunning;
+    private volatile boolean isRunning;
+    private boolean authenticated;
     private boolean hasControl;
     private UserDAO userDAO;
     private SessionDAO sessionDAO;
@@ -29,10 +45,39 @@ public class ClientHandler {
     private ChatMessageDAO chatMessageDAO;
     private ObjectId sessionId;
     private ObjectId userId;
+    private ScreenSender screenSender;
     
-    public ClientHandler(Server server, Socket socket) {
+    // Size the client displays the screen at, reported in MESSAGE_TYPE_VIEWPORT; 0 until known
+    private volatile int viewportWidth;
+    private volatile int viewportHeight;
+    
+    // Color depth the client asked for, one of the Constants.COLOR_DEPTH_* values
+    private volatile byte colorDepth = Constants.COLOR_DEPTH_FULL;
+    // Tile encoding the client asked for, see ProfileKey
+    private volatile byte tileCodec = Constants.TILE_CODEC_PALETTE;
+    
+    // Set while the client's viewer is minimized; the sender then gives up its profile
+    private volatile boolean screenPaused;
+    
+    // JPEG quality for this client, or a negative value to follow the server setting
+    private volatile float jpegQuality = -1f;
+    
+    // Chooses the rate, quality and scale of this client's updates from its acknowledgements
+    private final BitrateController bitrateController = new BitrateController();
+    // Screen updates that were replaced by a newer one before they went out
+    private volatile long replacedUpdates;
+    
+    // Cursor shapes this client has been sent; guarded by itself
+    private final Set<Integer> sentCursorShapes = new HashSet<>();
+    
+    // Writes one message's fields
+    private interface MessageWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+    
+    public ClientHandler(Server server, Connection connection) {
         this.server = server;
-        this.socket = socket;
+        this.connection = connection;
         this.clientName = "Unknown";
         this.hasControl = false;
         
@@ -42,61 +87,72 @@ public class ClientHandler {
         this.activityLogDAO = new ActivityLogDAO();
         this.chatMessageDAO = new ChatMessageDAO();
         
-        try {
-            in = new DataInputStream(socket.getInputStream());
-            out = new DataOutputStream(socket.getOutputStream());
-            
-            isRunning = true;
-            
-            // Start client handler thread
-            new Thread(this::handleClient).start();
-        } catch (IOException e) {
-            System.err.println("Error setting up client handler: " + e.getMessage());
-        }
+        isRunning = true;
+        connection.setHandler(this);
     }
     
-    
-    private void handleClient() {
-        try {
-            // Wait for authentication
-            int messageType = in.readInt();
-            
+    // One complete message from the client; types this server doesn't know are skipped
+    @Override
+    public void onMessage(Frame message) throws IOException {
+        if (!isRunning) {
+            return;
+        }
+        in = message.openPayload();
+        int messageType = message.getType();
+        
+        // The first message has to authenticate
+        if (!authenticated) {
             if (messageType == Constants.MESSAGE_TYPE_AUTHENTICATION) {
+                authenticated = true;
                 handleAuthentication();
             } else {
                 close("Invalid initial message type");
-                return;
             }
-            
-            // Main communication loop
-            while (isRunning) {
-                messageType = in.readInt();
-                
-                switch (messageType) {
-                    case Constants.MESSAGE_TYPE_CHAT:
-                        handleChatMessage();
-                        break;
-                    case Constants.MESSAGE_TYPE_FILE:
-                        handleFileTransfer();
-                        break;
-                    case Constants.MESSAGE_TYPE_MOUSE:
-                        handleMouseEvent();
-                        break;
-                    case Constants.MESSAGE_TYPE_KEYBOARD:
-                        handleKeyboardEvent();
-                        break;
-                    case Constants.MESSAGE_TYPE_DISCONNECT:
-                        close("Client disconnected");
-                        break;
-                    default:
-                        break;
+            return;
+        }
+        
+        switch (messageType) {
+            case Constants.MESSAGE_TYPE_CHAT:
+                handleChatMessage();
+                break;
+            case Constants.MESSAGE_TYPE_FILE:
+                handleFileTransfer();
+                break;
+            case Constants.MESSAGE_TYPE_INPUT:
+                handleInput(message.getPayload());
+                break;
+            case Constants.MESSAGE_TYPE_VIEWPORT:
+                handleViewport();
+                break;
+            case Constants.MESSAGE_TYPE_SCREEN_ACK:
+                bitrateController.onAck(in.readInt(), System.nanoTime());
+                // The ack may open the window the sender is waiting on
+                if (screenSender != null) {
+                    screenSender.wake();
                 }
-            }
-        } catch (IOException e) {
-            close("Connection error: " + e.getMessage());
+                break;
+            case Constants.MESSAGE_TYPE_SCREEN_PAUSE:
+                handleScreenPause();
+                break;
+            case Constants.MESSAGE_TYPE_COLOR_DEPTH:
+                handleColorDepth();
+                break;
+            case Constants.MESSAGE_TYPE_TILE_CODEC:
+                handleTileCodec();
+                break;
+            case Constants.MESSAGE_TYPE_DISCONNECT:
+                close("Client disconnected");
+                break;
+            default:
+                break;
         }
     }
     
+    @Override
+    public void onClosed(String reason) {
+        close(reason);
+    }
+    
     private void handleAuthentication() throws IOException {
         String password = in.readUTF();
         String name = in.readUTF();
@@ -139,12 +195,15 @@ public class ClientHandler {
             Session session = new Session();
             session.setUserId(userId);
             session.setUsername(clientName);
-            session.setIpAddress(socket.getInetAddress().getHostAddress());
-            session.setClientInfo(socket.getInetAddress().getHostName());
+            session.setIpAddress(connection.getRemoteAddress().getHostAddress());
+            session.setClientInfo(connection.getRemoteAddress().getHostName());
             sessionId = sessionDAO.startSession(session);
             
             // Log connection activity
-            activityLogDAO.logActivity(sessionId, "connect", "Client connected from " + socket.getInetAddress().getHostAddress());
+            activityLogDAO.logActivity(sessionId, "connect", "Client connected from " + connection.getRemoteAddress().getHostAddress());
+            
+            // The client sends nothing else before it hears back, so this covers all its later messages
+            connection.setMaxMessageBytes(Protocol.MAX_MESSAGE_BYTES);
             
             // Send success authentication result
             sendAuthenticationResult(true, "");
@@ -164,9 +223,10 @@ public class ClientHandler {
     }
     
     private void sendAuthenticationResult(boolean success, String message) throws IOException {
-        out.writeBoolean(success);
-        out.writeUTF(message);
-        out.flush();
+        send(Connection.Priority.CONTROL, Constants.MESSAGE_TYPE_AUTHENTICATION, false, out -> {
+            out.writeBoolean(success);
+            out.writeUTF(message);
+        });
     }
     
     //handleChatMessage to store in database
@@ -201,74 +261,324 @@ public class ClientHandler {
         server.broadcastFile(clientName, fileName, fileData);
     }
     
-    //handleMouseEvent to log in database
-    private void handleMouseEvent() throws IOException {
+    // A batch of mouse and keyboard events, logged for roughly every hundredth batch
+    private void handleInput(byte[] batch) {
         if (!hasControl) {
             return;
         }
         
-        String eventType = in.readUTF();
-        byte[] data = new byte[in.readInt()];
-        in.readFully(data);
-        
-        // Log control activity periodically (not every event to avoid DB overload)
-        if (Math.random() < 0.01) { // Log approximately 1% of events
-            activityLogDAO.logActivity(sessionId, "mouse_control", eventType);
+        // Log control activity periodically (not every batch to avoid DB overload)
+        if (Math.random() < 0.01) {
+            activityLogDAO.logActivity(sessionId, "input_control",
+                batch.length / InputEvents.RECORD_SIZE + " events");
         }
         
-        server.handleMouseEvent(eventType, data);
+        server.handleInput(batch);
     }
     
-    // handleKeyboardEvent to log in database
-    private void handleKeyboardEvent() throws IOException {
-        if (!hasControl) {
+    // The client's display area changed size; the viewport already includes its zoom factor
+    private void handleViewport() throws IOException {
+        viewportWidth = in.readInt();
+        viewportHeight = in.readInt();
+        server.wakeScreenSenders();
+    }
+    
+    private void handleColorDepth() throws IOException {
+        byte depth = in.readByte();
+        if (depth < Constants.COLOR_DEPTH_FULL || depth > Constants.COLOR_DEPTH_GRAYSCALE) {
+            System.out.println("Unknown color depth from " + clientName + ": " + depth);
             return;
         }
-        
-        String eventType = in.readUTF();
-        byte[] data = new byte[in.readInt()];
-        in.readFully(data);
-        
-        // Log control activity periodically (not every event to avoid DB overload)
-        if (Math.random() < 0.05) { // Log approximately 5% of events
-            activityLogDAO.logActivity(sessionId, "keyboard_control", eventType);
+        colorDepth = depth;
+        server.wakeScreenSenders();
+    }
+    
+    private void handleTileCodec() throws IOException {
+        byte codec = in.readByte();
+        if (codec != Constants.TILE_CODEC_PALETTE && codec != Constants.TILE_CODEC_JPEG
+                && codec != Constants.TILE_CODEC_XOR_DELTA) {
+            System.out.println("Unsupported tile codec from " + clientName + ": " + codec);
+            return;
         }
-        
-        server.handleKeyboardEvent(eventType, data);
+        tileCodec = codec;
+        server.wakeScreenSenders();
+    }
+    
+    private void handleScreenPause() throws IOException {
+        screenPaused = in.readBoolean();
+        server.wakeScreenSenders();
     }
     
     private void startScreenUpdates() {
-        new Thread(() -> {
-            while (isRunning) {
+        screenSender = new ScreenSender();
+        connection.setDrainListener(Connection.Priority.SCREEN, screenSender.wakeup);
+        server.addScreenSenderListener(screenSender.wakeup);
+        screenSender.wake();
+    }
+    
+    // Sends this client the frames of its profile as they are published. Each run does what it can
+    // without waiting and returns; what it would wait for wakes it again: a publish or a wake-up of
+    // all senders, the last update leaving the outgoing queue, an ack, or the timer while updates are paced.
+    // At most one update waits in the queue. When a newer frame is ready before that one started
+    // going out, e.g. because a file is being written, it is taken back and replaced by one update
+    // covering both, so a stalled client gets the latest picture rather than a backlog.
+    private class ScreenSender implements Runnable {
+        private final ScreenUpdate update = new ScreenUpdate();
+        private final EncodeCache encodeCache = server.getEncodeCache();
+        // Never sends faster than frames are captured, so bunched publishes merge into one update
+        private final FrameScheduler scheduler = new FrameScheduler(server.getCurrentFps());
+        // Wake-ups not yet seen by a run; only whoever takes it from 0 starts one, so runs never overlap
+        private final AtomicInteger wakeups = new AtomicInteger();
+        // The same instance has to be passed to add and remove the listener
+        final Runnable wakeup = this::wake;
+        
+        private EncodeProfile profile;
+        // Sequence of the last frame this client received; 0 means it has nothing yet
+        private long lastSentSequence;
+        private int updateId;
+        // The update last queued and the sequence it was collected from; its id is 0 once it can't be replaced
+        private int queuedUpdateId;
+        private long queuedBaseSequence;
+        // Set by a profile switch until the next update; a new profile may resend much of the screen
+        private boolean switchedProfile;
+        private ScheduledFuture<?> timer;
+        private long timerDeadline;
+        
+        void wake() {
+            if (wakeups.getAndIncrement() == 0) {
+                server.getConnectionEngine().execute(this);
+            }
+        }
+        
+        @Override
+        public void run() {
+            int seen;
+            do {
+                seen = wakeups.get();
                 try {
-                    byte[] screenData = server.getScreenshot();
-                    
-                    // Send screen data to client
-                    out.writeInt(Constants.MESSAGE_TYPE_SCREEN);
-                    out.writeInt(screenData.length);
-                    out.write(screenData);
-                    out.flush();
-                    
-                    // Control update rate
-                    Thread.sleep(1000 / Constants.DEFAULT_FPS);
+                    send();
                 } catch (IOException e) {
                     if (isRunning) {
                         close("Error sending screen updates: " + e.getMessage());
                     }
-                    break;
-                } catch (InterruptedException e) {
-                    break;
+                    releaseProfile();
                 }
+            } while (wakeups.addAndGet(-seen) != 0);
+        }
+        
+        private void send() throws IOException {
+            // Unsubscribe while nobody looks, so the capturer can idle once every viewer has
+            if (!isRunning || screenPaused) {
+                releaseProfile();
+                return;
+            }
+            
+            // Follow the viewport and quality. A new scale, codec or color depth means starting over with a
+            // full frame; after a quality change the client keeps what it has and only changed tiles follow.
+            EncodeProfile next = encodeCache.switchTo(profile, getProfileKey());
+            if (next != profile) {
+                if (profile == null || !sameTiles(profile.getKey(), next.getKey())) {
+                    lastSentSequence = 0;
+                }
+                profile = next;
+                queuedUpdateId = 0;
+                switchedProfile = true;
+            }
+            
+            // Nothing this client hasn't seen: the next publish wakes the sender
+            FrameBuffer frameBuffer = server.pollFrame(profile, lastSentSequence);
+            if (frameBuffer == null) {
+                return;
+            }
+            // An update still on its way out is let finish; the drain listener wakes the sender after it
+            boolean replacing = connection.hasPending(Connection.Priority.SCREEN);
+            if (replacing && queuedUpdateId == 0) {
+                return;
             }
-        }).start();
+            
+            // Hold back while the connection is saturated; frames published meanwhile are merged
+            long now = System.nanoTime();
+            long delay = bitrateController.getSendDelay(now);
+            if (delay > 0) {
+                wakeAt(now + delay);
+                return;
+            }
+            
+            scheduler.setFps(server.getCurrentFps());
+            long wait = scheduler.tryNextFrame(now);
+            if (wait > 0) {
+                wakeAt(now + wait);
+                return;
+            }
+            
+            // Latest wins: the queued update is collected again along with the new frame
+            if (replacing) {
+                if (!connection.withdraw(Connection.Priority.SCREEN)) {
+                    // Its writing started meanwhile
+                    queuedUpdateId = 0;
+                    return;
+                }
+                bitrateController.onWithdrawn(queuedUpdateId);
+                lastSentSequence = queuedBaseSequence;
+                replacedUpdates++;
+            }
+            
+            update.clear();
+            boolean fullFrame = lastSentSequence == 0 || switchedProfile;
+            long sequence = frameBuffer.collectUpdateSince(lastSentSequence, update);
+            
+            // Send only what changed since the last update
+            queuedUpdateId = 0;
+            if (!update.isEmpty()) {
+                int bytes = sendScreenUpdate(++updateId, update);
+                bitrateController.onSent(updateId, bytes, System.nanoTime(), fullFrame);
+                queuedUpdateId = updateId;
+                queuedBaseSequence = lastSentSequence;
+                switchedProfile = false;
+            }
+            lastSentSequence = sequence;
+        }
+        
+        private void wakeAt(long deadline) {
+            if (timer != null && !timer.isDone() && timerDeadline - deadline <= 0) {
+                return;
+            }
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            timerDeadline = deadline;
+            timer = server.getConnectionEngine().schedule(this::wake, deadline - System.nanoTime());
+        }
+        
+        // Profiles differing only in quality encode the same tile grid and pixels
+        private boolean sameTiles(ProfileKey a, ProfileKey b) {
+            return a.getScale() == b.getScale() && a.getCodec() == b.getCodec()
+                && a.getColorDepth() == b.getColorDepth();
+        }
+        
+        private void releaseProfile() {
+            if (profile != null) {
+                encodeCache.release(profile);
+                profile = null;
+            }
+        }
+    }
+    
+    // The encoding this client currently needs; clients with equal keys share the encoded frames
+    private ProfileKey getProfileKey() {
+        Rectangle screen = server.getScreenRect();
+        int scale = EncodeProfile.scaleFor(screen.width, screen.height, viewportWidth, viewportHeight);
+        scale = Math.min(EncodeProfile.MAX_SCALE, scale * bitrateController.getExtraScale());
+        float quality = bitrateController.getQuality(jpegQuality >= 0 ? jpegQuality : Constants.JPEG_QUALITY);
+        return new ProfileKey(scale, quality, tileCodec, colorDepth);
+    }
+    
+    // Override the server's JPEG quality for this client only; a negative value clears the override
+    public void setJpegQuality(float quality) {
+        this.jpegQuality = quality;
+        server.wakeScreenSenders();
+    }
+    
+    public float getJpegQuality() {
+        return jpegQuality;
+    }
+    
+    public BitrateController getBitrateController() {
+        return bitrateController;
+    }
+    
+    public long getReplacedUpdates() {
+        return replacedUpdates;
+    }
+    
+    // Build one message and queue it at its priority; returns its size in bytes
+    private int send(Connection.Priority priority, int type, boolean replaceable, MessageWriter writer)
+            throws IOException {
+        PayloadBuffer payload = new PayloadBuffer();
+        writer.write(new DataOutputStream(payload));
+        connection.send(priority, type, payload, replaceable);
+        return payload.size();
+    }
+    
+    // Queue one update and return its size in bytes; the client acknowledges it by id once drawn
+    private int sendScreenUpdate(int updateId, ScreenUpdate update) throws IOException {
+        return send(Connection.Priority.SCREEN, Constants.MESSAGE_TYPE_SCREEN, false,
+            out -> writeScreenUpdate(out, updateId, update));
+    }
+    
+    private static void writeScreenUpdate(DataOutputStream out, int updateId, ScreenUpdate update) throws IOException {
+        out.writeInt(updateId);
+        out.writeInt(update.getScreenWidth());
+        out.writeInt(update.getScreenHeight());
+        out.writeInt(update.getFrameWidth());
+        out.writeInt(update.getFrameHeight());
+        
+        // Copies are applied before the tiles are drawn
+        out.writeInt(update.getCopies().size());
+        for (CopyRegion copy : update.getCopies()) {
+            out.writeInt(copy.getSourceX());
+            out.writeInt(copy.getSourceY());
+            out.writeInt(copy.getWidth());
+            out.writeInt(copy.getHeight());
+            out.writeInt(copy.getDestX());
+            out.writeInt(copy.getDestY());
+        }
+        
+        out.writeInt(update.getTiles().size());
+        for (ScreenTile tile : update.getTiles()) {
+            out.writeInt(tile.getX());
+            out.writeInt(tile.getY());
+            out.writeInt(tile.getWidth());
+            out.writeInt(tile.getHeight());
+            out.writeByte(tile.getCodec());
+            out.writeInt(tile.getData().length);
+            out.write(tile.getData());
+        }
+    }
+    
+    public boolean wantsCursor() {
+        return connection.hasCapability(Protocol.CAP_CURSOR);
+    }
+    
+    // Show the server's mouse pointer at the given position of the captured screen.
+    // A position still queued when the next one is sent is dropped in its favour. Clients that don't
+    // draw the pointer themselves see it in the captured screen instead.
+    public void sendCursor(int x, int y, CursorShape shape) {
+        if (!isRunning || !wantsCursor()) {
+            return;
+        }
+        try {
+            // Shapes are sent once per connection; after that positions refer to them by id
+            synchronized (sentCursorShapes) {
+                if (sentCursorShapes.add(shape.getId())) {
+                    send(Connection.Priority.CURSOR, Constants.MESSAGE_TYPE_CURSOR_SHAPE, false, out -> {
+                        out.writeInt(shape.getId());
+                        out.writeInt(shape.getHotspotX());
+                        out.writeInt(shape.getHotspotY());
+                        out.writeInt(shape.getWidth());
+                        out.writeInt(shape.getHeight());
+                        for (int pixel : shape.getPixels()) {
+                            out.writeInt(pixel);
+                        }
+                    });
+                }
+                send(Connection.Priority.CURSOR, Constants.MESSAGE_TYPE_CURSOR_POSITION, true, out -> {
+                    out.writeInt(x);
+                    out.writeInt(y);
+                    out.writeInt(shape.getId());
+                });
+            }
+        } catch (IOException e) {
+            close("Error sending cursor: " + e.getMessage());
+        }
     }
     
     public void sendChatMessage(String sender, String message) {
         try {
-            out.writeInt(Constants.MESSAGE_TYPE_CHAT);
-            out.writeUTF(sender);
-            out.writeUTF(message);
-            out.flush();
+            send(Connection.Priority.CHAT, Constants.MESSAGE_TYPE_CHAT, false, out -> {
+                out.writeUTF(sender);
+                out.writeUTF(message);
+            });
         } catch (IOException e) {
             close("Error sending chat message: " + e.getMessage());
         }
@@ -276,12 +586,12 @@ public class ClientHandler {
     
     public void sendFile(String sender, String fileName, byte[] fileData) {
         try {
-            out.writeInt(Constants.MESSAGE_TYPE_FILE);
-            out.writeUTF(sender);
-            out.writeUTF(fileName);
-            out.writeInt(fileData.length);
-            out.write(fileData);
-            out.flush();
+            send(Connection.Priority.FILE, Constants.MESSAGE_TYPE_FILE, false, out -> {
+                out.writeUTF(sender);
+                out.writeUTF(fileName);
+                out.writeInt(fileData.length);
+                out.write(fileData);
+            });
         } catch (IOException e) {
             close("Error sending file: " + e.getMessage());
         }
@@ -291,8 +601,7 @@ public class ClientHandler {
     public void grantControl() {
         try {
             hasControl = true;
-            out.writeInt(Constants.MESSAGE_TYPE_CONTROL_GRANT);
-            out.flush();
+            send(Connection.Priority.CONTROL, Constants.MESSAGE_TYPE_CONTROL_GRANT, false, out -> {});
             
             // Log control grant in database
             activityLogDAO.logActivity(sessionId, "control_grant", "Control granted to client");
@@ -305,8 +614,7 @@ public class ClientHandler {
     public void revokeControl() {
         try {
             hasControl = false;
-            out.writeInt(Constants.MESSAGE_TYPE_CONTROL_REVOKE);
-            out.flush();
+            send(Connection.Priority.CONTROL, Constants.MESSAGE_TYPE_CONTROL_REVOKE, false, out -> {});
             
             // Log control revocation in database
             activityLogDAO.logActivity(sessionId, "control_revoke", "Control revoked from client");
@@ -344,9 +652,16 @@ public class ClientHandler {
     
     //close method to end session in database
     public void close(String reason) {
-        if (!isRunning) return;
+        synchronized (this) {
+            if (!isRunning) return;
+            isRunning = false;
+        }
         
-        isRunning = false;
+        // The sender's next run gives up its profile
+        if (screenSender != null) {
+            server.removeScreenSenderListener(screenSender.wakeup);
+            screenSender.wake();
+        }
         
         // End session in database
         if (sessionId != null) {
@@ -358,13 +673,7 @@ public class ClientHandler {
             }
         }
         
-        try {
-            if (socket != null && !socket.isClosed()) {
-                socket.close();
-            }
-        } catch (IOException e) {
-            // Silent close
-        }
+        connection.close(reason);
         
         server.clientDisconnected(this);
     }
@@ -0,0 +1,145 @@
+package src.server;
+
+import src.common.Constants;
+import src.common.Rgb565Codec;
+
+import java.util.Arrays;
+
+// Reduces a tile's pixels to a client's color depth before they are encoded.
+// Fewer distinct colors let more tiles go through the lossless codecs, and grayscale tiles
+// are sent as single-channel JPEGs. Instances reuse their buffers and are not thread-safe.
+public class ColorReducer {
+    // Palette mode histograms colors at 5 bits per channel
+    private static final int BUCKETS = 1 << 15;
+    // Tiles with more colors than this are photographic; they end up as JPEG anyway, so aren't quantized
+    private static final int MAX_QUANTIZED_COLORS = 1024;
+
+    private final int[] counts = new int[BUCKETS];
+    private final int[] sumR = new int[BUCKETS];
+    private final int[] sumG = new int[BUCKETS];
+    private final int[] sumB = new int[BUCKETS];
+    private final int[] bucketColors = new int[BUCKETS];
+    private final int[] usedBuckets = new int[Constants.TILE_SIZE * Constants.TILE_SIZE];
+    private final long[] ranking = new long[Constants.TILE_SIZE * Constants.TILE_SIZE];
+    private final int[] palette = new int[256];
+    private final int[] sorted = new int[Constants.TILE_SIZE * Constants.TILE_SIZE];
+
+    // Reduce the first length pixels in place
+    public void reduce(int[] pixels, int length, byte colorDepth) {
+        switch (colorDepth) {
+            case Constants.COLOR_DEPTH_RGB565:
+                for (int i = 0; i < length; i++) {
+                    int pixel = pixels[i];
+                    pixels[i] = Rgb565Codec.expand(((pixel >> 8) & 0xf800) | ((pixel >> 5) & 0x07e0) | ((pixel >> 3) & 0x001f));
+                }
+                break;
+            case Constants.COLOR_DEPTH_GRAYSCALE:
+                for (int i = 0; i < length; i++) {
+                    int luma = luma(pixels[i]);
+                    pixels[i] = luma << 16 | luma << 8 | luma;
+                }
+                break;
+            case Constants.COLOR_DEPTH_PALETTE:
+                quantize(pixels, length);
+                break;
+            default:
+                break;
+        }
+    }
+
+    public static int luma(int pixel) {
+        return (77 * ((pixel >> 16) & 0xff) + 150 * ((pixel >> 8) & 0xff) + 29 * (pixel & 0xff)) >> 8;
+    }
+
+    // Map the tile onto its 256 most common colors, without dithering. Photographic tiles are left alone.
+    // Colors are bucketed at 15 bits, the most populated buckets become the palette (each the
+    // average of its pixels), and pixels in the remaining buckets take the nearest palette entry.
+    private void quantize(int[] pixels, int length) {
+        int colors = countColors(pixels, length);
+        if (colors <= palette.length || colors > MAX_QUANTIZED_COLORS) {
+            return;
+        }
+
+        int used = 0;
+        for (int i = 0; i < length; i++) {
+            int pixel = pixels[i];
+            int bucket = bucketOf(pixel);
+            if (counts[bucket]++ == 0) {
+                usedBuckets[used++] = bucket;
+            }
+            sumR[bucket] += (pixel >> 16) & 0xff;
+            sumG[bucket] += (pixel >> 8) & 0xff;
+            sumB[bucket] += pixel & 0xff;
+        }
+
+        // Most populated buckets first
+        for (int i = 0; i < used; i++) {
+            int bucket = usedBuckets[i];
+            ranking[i] = (long) counts[bucket] << 32 | bucket;
+        }
+        Arrays.sort(ranking, 0, used);
+
+        colors = Math.min(palette.length, used);
+        for (int i = 0; i < colors; i++) {
+            int bucket = (int) ranking[used - 1 - i];
+            int count = counts[bucket];
+            palette[i] = (sumR[bucket] / count) << 16 | (sumG[bucket] / count) << 8 | (sumB[bucket] / count);
+            bucketColors[bucket] = palette[i];
+        }
+        for (int i = colors; i < used; i++) {
+            int bucket = (int) ranking[used - 1 - i];
+            int count = counts[bucket];
+            bucketColors[bucket] = nearest((sumR[bucket] / count) << 16 | (sumG[bucket] / count) << 8 | (sumB[bucket] / count), colors);
+        }
+
+        for (int i = 0; i < length; i++) {
+            pixels[i] = bucketColors[bucketOf(pixels[i])];
+        }
+
+        // Only the touched buckets need clearing for the next tile
+        for (int i = 0; i < used; i++) {
+            int bucket = usedBuckets[i];
+            counts[bucket] = 0;
+            sumR[bucket] = 0;
+            sumG[bucket] = 0;
+            sumB[bucket] = 0;
+        }
+    }
+
+    private int countColors(int[] pixels, int length) {
+        for (int i = 0; i < length; i++) {
+            sorted[i] = pixels[i] & 0xffffff;
+        }
+        Arrays.sort(sorted, 0, length);
+        int colors = length > 0 ? 1 : 0;
+        for (int i = 1; i < length; i++) {
+            if (sorted[i] != sorted[i - 1]) {
+                colors++;
+            }
+        }
+        return colors;
+    }
+
+    private int nearest(int color, int colors) {
+        int r = (color >> 16) & 0xff;
+        int g = (color >> 8) & 0xff;
+        int b = color & 0xff;
+        int best = 0;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < colors; i++) {
+            int dr = r - ((palette[i] >> 16) & 0xff);
+            int dg = g - ((palette[i] >> 8) & 0xff);
+            int db = b - (palette[i] & 0xff);
+            int distance = dr * dr * 2 + dg * dg * 4 + db * db;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = palette[i];
+            }
+        }
+        return best;
+    }
+
+    private static int bucketOf(int pixel) {
+        return ((pixel >> 9) & 0x7c00) | ((pixel >> 6) & 0x03e0) | ((pixel >> 3) & 0x001f);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,400 @@
+package src.server;
+
+import src.common.Constants;
+import src.common.Frame;
+import src.common.FrameAssembler;
+import src.common.PayloadBuffer;
+import src.common.Protocol;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// One client connection of the ConnectionEngine, speaking the Protocol.
+// Bytes are read by the engine's I/O thread into a per-connection buffer. The client's hello is answered
+// right there; after it, every complete frame is copied out, chunks are joined, and each message is queued.
+// One worker at a time drains the queue, so a connection's messages are handled in order without holding
+// up the I/O thread or any other connection. Reading pauses while too much is queued, so a client can't
+// outrun its handler.
+// Everything sent goes through one OutboundQueue, written by the I/O thread alone as the socket takes
+// it, highest priority first. A message is written straight away only when nothing is queued or
+// being written ahead of it. Large messages go out in chunks, so a file doesn't hold up a cursor move.
+public class Connection {
+    // What a message is, in the order messages are written when several wait
+    public enum Priority {
+        CONTROL,
+        CURSOR,
+        CHAT,
+        SCREEN,
+        FILE
+    }
+
+    // Stop reading while this much is waiting to be handled
+    private static final int MAX_PENDING_INBOUND = 1 << 20;
+    // A client this far behind on reading is dropped rather than buffered for without end
+    private static final long MAX_QUEUED_OUTBOUND = 64L << 20;
+    // A read buffer grown past this for one large message is dropped after it
+    private static final int KEEP_BUFFER_SIZE = 64 << 10;
+
+    public interface Handler {
+        // One complete message. Called by one worker at a time, in order.
+        void onMessage(Frame message) throws IOException;
+        // The connection ended; called once, after every message read before it
+        void onClosed(String reason);
+    }
+
+    private final SocketChannel channel;
+    private final ConnectionEngine.IoLoop loop;
+    private final Executor workers;
+    private final InetAddress remoteAddress;
+    private volatile SelectionKey key;
+    private volatile Handler handler;
+
+    // Agreed in the handshake; the I/O thread sets them before the first message is handled
+    private volatile boolean handshakeDone;
+    private volatile int capabilities;
+    private final AtomicInteger nextSequence = new AtomicInteger();
+    // Largest message accepted; small until the handler has let the client in
+    private volatile int maxMessageBytes = Protocol.MAX_LOGIN_BYTES;
+
+    // I/O thread only
+    private ByteBuffer readBuffer;
+    private final FrameAssembler assembler = new FrameAssembler();
+
+    // Guarded by inbound
+    private final Deque<Frame> inbound = new ArrayDeque<>();
+    private int pendingInbound;
+    private boolean dispatching;
+    private boolean readPaused;
+    private String closeReason;
+    private boolean closeDelivered;
+
+    // Guarded by outbound
+    private final OutboundQueue outbound = new OutboundQueue();
+    // The message being written, taken off the queue; null between messages
+    private ByteBuffer writing;
+    private Priority writingPriority;
+    private final Runnable[] drainListeners = new Runnable[Priority.values().length];
+    private volatile boolean closed;
+
+    Connection(SocketChannel channel, ConnectionEngine.IoLoop loop, Executor workers) {
+        this.channel = channel;
+        this.loop = loop;
+        this.workers = workers;
+        this.remoteAddress = channel.socket().getInetAddress();
+        this.readBuffer = ByteBuffer.allocate(Constants.BUFFER_SIZE);
+        assembler.setMaxMessageBytes(maxMessageBytes);
+    }
+
+    // Set before the connection is registered with its I/O loop, so no message arrives without a handler
+    public void setHandler(Handler handler) {
+        this.handler = handler;
+    }
+
+    // Called by the I/O thread once nothing of the priority is queued or being written any more,
+    // e.g. to send the next screen update. Must return quickly.
+    public void setDrainListener(Priority priority, Runnable listener) {
+        synchronized (outbound) {
+            drainListeners[priority.ordinal()] = listener;
+        }
+    }
+
+    public InetAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    // Accept messages of up to this many bytes from now on, e.g. Protocol.MAX_MESSAGE_BYTES once the
+    // client has logged in. Until then messages are limited to Protocol.MAX_LOGIN_BYTES.
+    public void setMaxMessageBytes(int maxMessageBytes) {
+        this.maxMessageBytes = maxMessageBytes;
+        assembler.setMaxMessageBytes(maxMessageBytes);
+    }
+
+    // Whether the client announced a Protocol.CAP_* capability this server also has
+    public boolean hasCapability(int capability) {
+        return (capabilities & capability) != 0;
+    }
+
+    // True while a message of the priority is queued or being written
+    public boolean hasPending(Priority priority) {
+        synchronized (outbound) {
+            return !outbound.isEmpty(priority) || (writing != null && writingPriority == priority);
+        }
+    }
+
+    // Bytes queued for the socket that it hasn't taken yet
+    public long getQueuedBytes() {
+        synchronized (outbound) {
+            return outbound.getBytes() + (writing != null ? writing.remaining() : 0);
+        }
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    // Queue a message for the client, with its payload in the buffer. Never blocks on the network.
+    public void send(Priority priority, int type, PayloadBuffer payload) throws IOException {
+        send(priority, type, payload, false);
+    }
+
+    // A replaceable message is dropped if another replaceable one of its priority is sent before it
+    // started going out, e.g. a cursor position overtaken by a newer one. Replaceable messages have to
+    // fit in one frame.
+    public void send(Priority priority, int type, PayloadBuffer payload, boolean replaceable) throws IOException {
+        // Screen updates are compressed tiles already
+        List<ByteBuffer> frames = new ArrayList<>(1);
+        Protocol.encode(type, nextSequence.getAndIncrement(), payload.getBuffer(), payload.getPayloadLength(),
+            priority != Priority.SCREEN, capabilities, frames);
+        synchronized (outbound) {
+            for (int i = 0; i < frames.size(); i++) {
+                queue(priority, frames.get(i), replaceable && frames.size() == 1, i == 0);
+            }
+        }
+    }
+
+    // Guarded by outbound
+    private void queue(Priority priority, ByteBuffer frame, boolean replaceable, boolean first) throws IOException {
+        if (closed) {
+            throw new IOException("Connection closed");
+        }
+        if (writing == null && outbound.isEmpty()) {
+            channel.write(frame);
+            if (!frame.hasRemaining()) {
+                return;
+            }
+            writing = frame;
+            writingPriority = priority;
+            loop.setInterest(key, SelectionKey.OP_WRITE, true);
+        } else {
+            outbound.add(priority, frame, replaceable, first);
+        }
+        if (outbound.getBytes() > MAX_QUEUED_OUTBOUND) {
+            throw new IOException("Client is not reading");
+        }
+    }
+
+    // Take back the newest message of the priority if none of it has been written yet, so a newer one
+    // can replace it. Returns false if there is none or its writing has started.
+    public boolean withdraw(Priority priority) {
+        synchronized (outbound) {
+            return outbound.withdraw(priority);
+        }
+    }
+
+    // I/O thread: read what the socket has, queue the complete messages and hand them to a worker
+    void onReadable() throws IOException {
+        int read = channel.read(readBuffer);
+        if (read < 0) {
+            close("Connection closed by client");
+            return;
+        }
+
+        readBuffer.flip();
+        if (!handshakeDone && !readHello()) {
+            readBuffer.compact();
+            return;
+        }
+
+        // A chunking peer never sends a frame larger than MAX_FRAME_PAYLOAD, whatever the message
+        int maxFrame = maxMessageBytes;
+        if (hasCapability(Protocol.CAP_CHUNKED)) {
+            maxFrame = Math.min(maxFrame, Protocol.MAX_FRAME_PAYLOAD);
+        }
+        int queued = 0;
+        int needed = 0;
+        while (readBuffer.remaining() >= Protocol.HEADER_SIZE) {
+            int start = readBuffer.position();
+            int length = readBuffer.getInt(start);
+            if (length < 0 || length > maxFrame) {
+                throw new IOException("Invalid frame length: " + length);
+            }
+            // Incomplete; the buffer has to hold the whole frame
+            if (readBuffer.remaining() < Protocol.HEADER_SIZE + length) {
+                needed = Protocol.HEADER_SIZE + length;
+                break;
+            }
+            int type = readBuffer.getShort(start + 4);
+            int flags = readBuffer.get(start + 6) & 0xFF;
+            int channelId = readBuffer.get(start + 7) & 0xFF;
+            int sequence = readBuffer.getInt(start + 8);
+            byte[] payload = new byte[length];
+            readBuffer.position(start + Protocol.HEADER_SIZE);
+            readBuffer.get(payload);
+            Frame message = assembler.add(type, flags, channelId, sequence, payload);
+            if (message != null) {
+                queued += enqueue(message);
+            }
+        }
+
+        if (needed > readBuffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(needed);
+            larger.put(readBuffer);
+            readBuffer = larger;
+        } else if (!readBuffer.hasRemaining() && readBuffer.capacity() > KEEP_BUFFER_SIZE) {
+            readBuffer = ByteBuffer.allocate(Constants.BUFFER_SIZE);
+        } else {
+            readBuffer.compact();
+        }
+        if (queued > 0) {
+            dispatch();
+        }
+    }
+
+    // I/O thread: answer the client's hello once it is all here. Returns false while it isn't.
+    private boolean readHello() throws IOException {
+        if (readBuffer.remaining() < Protocol.HELLO_SIZE) {
+            return false;
+        }
+        Protocol.Hello agreed = Protocol.negotiate(Protocol.parseHello(readBuffer));
+        capabilities = agreed.capabilities;
+        handshakeDone = true;
+        synchronized (outbound) {
+            queue(Priority.CONTROL, Protocol.encodeHello(agreed), false, true);
+        }
+        if (agreed.version < Protocol.MIN_VERSION) {
+            throw new IOException("Unsupported protocol version");
+        }
+        return true;
+    }
+
+    // Returns 1 if the message was queued
+    private int enqueue(Frame message) {
+        synchronized (inbound) {
+            if (closeReason != null) {
+                return 0;
+            }
+            inbound.addLast(message);
+            pendingInbound += message.getLength();
+            if (pendingInbound > MAX_PENDING_INBOUND && !readPaused) {
+                readPaused = true;
+                loop.setInterest(key, SelectionKey.OP_READ, false);
+            }
+            return 1;
+        }
+    }
+
+    private void dispatch() {
+        synchronized (inbound) {
+            if (dispatching) {
+                return;
+            }
+            dispatching = true;
+        }
+        workers.execute(this::drainInbound);
+    }
+
+    // Worker: handle the queued messages in order, then the close if one is due
+    private void drainInbound() {
+        while (true) {
+            Frame message;
+            String reason = null;
+            synchronized (inbound) {
+                message = inbound.pollFirst();
+                if (message != null) {
+                    pendingInbound -= message.getLength();
+                    if (readPaused && pendingInbound <= MAX_PENDING_INBOUND / 2 && closeReason == null) {
+                        readPaused = false;
+                        loop.setInterest(key, SelectionKey.OP_READ, true);
+                    }
+                } else if (closeReason != null && !closeDelivered) {
+                    closeDelivered = true;
+                    reason = closeReason;
+                } else {
+                    dispatching = false;
+                    return;
+                }
+            }
+
+            if (message != null) {
+                try {
+                    handler.onMessage(message);
+                } catch (IOException e) {
+                    close("Connection error: " + e.getMessage());
+                } catch (RuntimeException e) {
+                    System.err.println("Error handling message from " + remoteAddress + ": " + e);
+                    e.printStackTrace();
+                }
+            } else {
+                handler.onClosed(reason);
+            }
+        }
+    }
+
+    // I/O thread: write queued frames, highest priority first, until none is left or the socket is full
+    void onWritable() throws IOException {
+        Runnable[] drained = null;
+        synchronized (outbound) {
+            while (true) {
+                if (writing == null) {
+                    OutboundQueue.Entry next = outbound.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    writing = next.data;
+                    writingPriority = next.priority;
+                }
+                channel.write(writing);
+                if (writing.hasRemaining()) {
+                    break;
+                }
+                Runnable listener = drainListeners[writingPriority.ordinal()];
+                if (listener != null && outbound.isEmpty(writingPriority)) {
+                    if (drained == null) {
+                        drained = new Runnable[drainListeners.length];
+                    }
+                    drained[writingPriority.ordinal()] = listener;
+                }
+                writing = null;
+            }
+            if (writing == null) {
+                loop.setInterest(key, SelectionKey.OP_WRITE, false);
+            }
+        }
+        if (drained != null) {
+            for (Runnable listener : drained) {
+                if (listener != null) {
+                    listener.run();
+                }
+            }
+        }
+    }
+
+    // Close the socket. The handler's onClosed follows once the messages read before are handled.
+    public void close(String reason) {
+        synchronized (outbound) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // Last chance for what is queued, e.g. the reason a login was refused
+            try {
+                while (writing != null && channel.write(writing) > 0 && !writing.hasRemaining()) {
+                    OutboundQueue.Entry next = outbound.poll();
+                    writing = next != null ? next.data : null;
+                }
+            } catch (IOException e) {
+                // Closing anyway
+            }
+            writing = null;
+            outbound.clear();
+        }
+        loop.cancel(key, channel);
+        synchronized (inbound) {
+            closeReason = reason;
+        }
+        dispatch();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,286 @@
+package src.server;
+
+import src.common.ThreadMode;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Event-driven network core: a few I/O threads serve every client connection.
+// Each I/O thread runs a Selector over its share of the connections and only moves bytes: it reads
+// whatever arrived into the connection's buffer and writes whatever the connection has queued once the
+// socket takes it again. The first one also accepts new connections and deals them out in turn.
+// Anything that may block, from handling a message (which talks to the database) to encoding and
+// sending screen updates, runs on the worker pool instead; senders that wait for a deadline use the
+// timer. Thread count therefore stays fixed however many clients connect.
+// The workers follow ThreadMode: a fixed pool of platform threads, or a virtual thread per task, so a
+// handler stuck on the database holds up nobody else.
+public class ConnectionEngine {
+    private static final int ACCEPT_BACKLOG = 1024;
+
+    private final Consumer<Connection> onAccept;
+    private final IoLoop[] loops;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService timer;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running;
+
+    // onAccept runs on a worker for every new connection and must set its handler.
+    // workerThreads only sizes the platform pool; virtual workers are not limited.
+    public ConnectionEngine(Consumer<Connection> onAccept) {
+        this(onAccept, defaultIoThreads(), defaultWorkers());
+    }
+
+    public ConnectionEngine(Consumer<Connection> onAccept, int ioThreads, int workerThreads) {
+        this.onAccept = onAccept;
+        this.loops = new IoLoop[ioThreads];
+        this.workers = ThreadMode.newTaskExecutor("connection-worker", workerThreads);
+        this.timer = Executors.newSingleThreadScheduledExecutor(daemonThreads("connection-timer"));
+    }
+
+    private static int defaultIoThreads() {
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    private static int defaultWorkers() {
+        return Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public void start(String address, int port) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(address, port), ACCEPT_BACKLOG);
+        serverChannel.configureBlocking(false);
+        running = true;
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new IoLoop(i);
+        }
+        loops[0].register(serverChannel, SelectionKey.OP_ACCEPT, null);
+        for (IoLoop loop : loops) {
+            loop.thread.start();
+        }
+    }
+
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            // Silent close
+        }
+        for (IoLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+        workers.shutdown();
+        timer.shutdownNow();
+    }
+
+    // Run a task on the worker pool; dropped once the engine has stopped
+    public void execute(Runnable task) {
+        try {
+            workers.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Stopping
+        }
+    }
+
+    // Run a task on the timer thread after a delay, so it must be quick, e.g. hand work to execute().
+    // Returns null once the engine has stopped.
+    public ScheduledFuture<?> schedule(Runnable task, long delayNanos) {
+        try {
+            return timer.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
+    public int getIoThreads() {
+        return loops.length;
+    }
+
+    // Connections currently registered, over all I/O threads
+    public int getConnectionCount() {
+        int count = 0;
+        for (IoLoop loop : loops) {
+            if (loop != null) {
+                count += loop.connections.get();
+            }
+        }
+        return count;
+    }
+
+    private void accept() {
+        try {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                SocketChannel accepted = channel;
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                IoLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+                Connection connection = new Connection(channel, loop, this::execute);
+                // Creating the handler may take a while (it opens the database collections)
+                execute(() -> {
+                    onAccept.accept(connection);
+                    loop.register(accepted, SelectionKey.OP_READ, connection);
+                });
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("Error accepting connection: " + e.getMessage());
+            }
+        }
+    }
+
+    // One I/O thread and the selector over its connections
+    class IoLoop {
+        private final Selector selector;
+        private final Thread thread;
+        // Registrations and interest changes from other threads, applied by the loop itself
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger connections = new AtomicInteger();
+
+        IoLoop(int index) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this::run, "connection-io-" + index);
+            thread.setDaemon(true);
+        }
+
+        void register(SelectableChannel channel, int ops, Connection connection) {
+            runInLoop(() -> {
+                try {
+                    SelectionKey key = channel.register(selector, ops, connection);
+                    if (connection != null) {
+                        connection.setKey(key);
+                        connections.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    if (connection != null) {
+                        connection.close("Error registering connection: " + e.getMessage());
+                    }
+                }
+            });
+        }
+
+        // Add or remove an interest. Safe from any thread; the selector picks it up right away.
+        void setInterest(SelectionKey key, int op, boolean enabled) {
+            if (Thread.currentThread() == thread) {
+                applyInterest(key, op, enabled);
+            } else {
+                runInLoop(() -> applyInterest(key, op, enabled));
+            }
+        }
+
+        private void applyInterest(SelectionKey key, int op, boolean enabled) {
+            if (key == null || !key.isValid()) {
+                return;
+            }
+            try {
+                key.interestOps(enabled ? key.interestOps() | op : key.interestOps() & ~op);
+            } catch (CancelledKeyException e) {
+                // Closed meanwhile
+            }
+        }
+
+        void cancel(SelectionKey key, SocketChannel channel) {
+            runInLoop(() -> {
+                if (key != null && key.isValid()) {
+                    key.cancel();
+                    connections.decrementAndGet();
+                }
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // Silent close
+                }
+            });
+        }
+
+        private void runInLoop(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        private void run() {
+            while (running) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    System.err.println("Selector error: " + e.getMessage());
+                    break;
+                }
+
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    } catch (IOException | CancelledKeyException e) {
+                        connection.close("Connection error: " + e.getMessage());
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+
+            // Stopped: drop every connection still registered here
+            for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close("Server stopped");
+                }
+            }
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Silent close
+            }
+        }
+    }
+}
\ No newline at end of file
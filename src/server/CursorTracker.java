@@ -0,0 +1,115 @@
+package src.server;
+
+import src.common.CursorShape;
+
+import java.awt.MouseInfo;
+import java.awt.Point;
+import java.awt.PointerInfo;
+import java.awt.Rectangle;
+import java.util.function.Supplier;
+
+// Polls the local mouse pointer at a high rate and reports every move, independently of the
+// frame pipeline. Screen captures don't include the cursor on most platforms, and even where
+// they do it would only move at the capture frame rate.
+// Java doesn't expose the system cursor image, so positions refer to shapes from a fixed set.
+// Polling pauses while no connected client draws the pointer itself, see setWanted.
+public class CursorTracker {
+    private static final long POLL_INTERVAL_MS = 8;
+
+    public interface CursorListener {
+        void onCursorMoved(int x, int y, CursorShape shape);
+    }
+
+    private final Supplier<Rectangle> captureArea;
+    private final CursorListener listener;
+    private final CursorShape shape = CursorShape.createArrow();
+    private volatile boolean running;
+    private boolean wanted; // Guarded by this
+    private Thread thread;
+
+    // Last reported position relative to the capture area
+    private volatile int x = -1;
+    private volatile int y = -1;
+
+    public CursorTracker(Supplier<Rectangle> captureArea, CursorListener listener) {
+        this.captureArea = captureArea;
+        this.listener = listener;
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+
+        thread = new Thread(this::run, "CursorTracker");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        notifyAll();
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    // Whether any client wants pointer updates; the tracker waits without polling while none does
+    public synchronized void setWanted(boolean wanted) {
+        this.wanted = wanted;
+        notifyAll();
+    }
+
+    private synchronized void awaitWanted() throws InterruptedException {
+        if (wanted) return;
+        // Forget the last position, so the first poll after waking reports it to the new viewers
+        x = -1;
+        y = -1;
+        while (running && !wanted) {
+            wait();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                awaitWanted();
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (!running) break;
+
+            PointerInfo pointer = MouseInfo.getPointerInfo();
+            if (pointer != null) {
+                Point location = pointer.getLocation();
+                Rectangle area = captureArea.get();
+                int newX = location.x - area.x;
+                int newY = location.y - area.y;
+
+                if (newX != x || newY != y) {
+                    x = newX;
+                    y = newY;
+                    listener.onCursorMoved(newX, newY, shape);
+                }
+            }
+
+            try {
+                Thread.sleep(POLL_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public CursorShape getShape() {
+        return shape;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,90 @@
+package src.server;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Reference-counted set of the encode profiles screen senders are subscribed to.
+// Every captured frame is encoded once per profile in here, so encoding cost grows with the
+// number of distinct profiles rather than the number of clients. A profile is evicted as soon
+// as its last subscriber releases it or moves to another key.
+// The capturer idles while nothing is subscribed. The last few evicted profiles are kept with their
+// frames, so a viewer coming back gets the last picture immediately while capture starts up again.
+public class EncodeCache {
+    private static final int RETIRED_PROFILES = 2;
+
+    private final Map<ProfileKey, EncodeProfile> profiles = new HashMap<>();
+    private final Map<ProfileKey, EncodeProfile> retired = new LinkedHashMap<>();
+
+    // Snapshot read by the capture thread on every frame without locking
+    private volatile EncodeProfile[] activeProfiles = new EncodeProfile[0];
+
+    // Get the profile for a key, creating it if nobody else uses it yet
+    public synchronized EncodeProfile acquire(ProfileKey key) {
+        EncodeProfile profile = profiles.get(key);
+        if (profile == null) {
+            profile = retired.remove(key);
+            if (profile != null) {
+                // Its frames stopped being encoded at eviction, so the next one has to repaint everything
+                profile.getRefinement().reset();
+                profile.requestFullFrame();
+            } else {
+                profile = new EncodeProfile(key);
+            }
+            profiles.put(key, profile);
+            activeProfiles = profiles.values().toArray(new EncodeProfile[0]);
+            notifyAll();
+        }
+        profile.addSubscriber();
+        return profile;
+    }
+
+    public synchronized void release(EncodeProfile profile) {
+        if (profile.removeSubscriber() == 0 && profiles.get(profile.getKey()) == profile) {
+            profiles.remove(profile.getKey());
+            activeProfiles = profiles.values().toArray(new EncodeProfile[0]);
+
+            retired.put(profile.getKey(), profile);
+            if (retired.size() > RETIRED_PROFILES) {
+                retired.remove(retired.keySet().iterator().next());
+            }
+        }
+    }
+
+    // Release the current profile and acquire the one for a new key, unless it is already the right one
+    public synchronized EncodeProfile switchTo(EncodeProfile current, ProfileKey key) {
+        if (current != null && current.getKey().equals(key)) {
+            return current;
+        }
+        EncodeProfile next = acquire(key);
+        if (current != null) {
+            release(current);
+        }
+        return next;
+    }
+
+    public EncodeProfile[] getActiveProfiles() {
+        return activeProfiles;
+    }
+
+    // Wait until at least one profile has a subscriber. Returns false if the timeout expires first.
+    public synchronized boolean awaitSubscribers(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (profiles.isEmpty()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    public synchronized int getSubscriberCount() {
+        int count = 0;
+        for (EncodeProfile profile : profiles.values()) {
+            count += profile.getSubscriberCount();
+        }
+        return count;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,172 @@
+package src.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// One encoding of the shared screen: an output resolution, JPEG quality and codec choice.
+// Clients asking for the same ProfileKey share a profile, so every frame is encoded once per
+// profile no matter how many clients watch it. Profiles are handed out and reference-counted
+// by the EncodeCache.
+public class EncodeProfile {
+    public static final int MAX_SCALE = 4;
+    // Divisors a profile can scale the captured screen down by, largest first
+    private static final int[] SCALES = {MAX_SCALE, 2, 1};
+
+    private final ProfileKey key;
+    private final TileRefinement refinement = new TileRefinement();
+    private final AtomicLong encodedFrames = new AtomicLong();
+    private final AtomicLong encodeNanos = new AtomicLong();
+    private final AtomicLong encodedBytes = new AtomicLong();
+
+    // Guarded by the EncodeCache
+    private int subscribers;
+
+    // Capture-side grid in scaled coordinates, recreated when the screen changes size
+    private FrameBuffer captureGrid;
+    private volatile boolean fullFrameRequested = true;
+
+    // Newest commit to this profile; guarded by the pipeline's publish lock
+    private FrameBuffer publishedFrameBuffer;
+    private long publishedSequence;
+
+    public EncodeProfile(ProfileKey key) {
+        this.key = key;
+    }
+
+    // Largest divisor that still gives the viewer at least as many pixels as it displays.
+    // An unknown viewport (zero size) gets the full resolution.
+    public static int scaleFor(int screenWidth, int screenHeight, int viewWidth, int viewHeight) {
+        if (viewWidth <= 0 || viewHeight <= 0) {
+            return 1;
+        }
+        for (int scale : SCALES) {
+            if (screenWidth / scale >= viewWidth && screenHeight / scale >= viewHeight) {
+                return scale;
+            }
+        }
+        return 1;
+    }
+
+    public ProfileKey getKey() {
+        return key;
+    }
+
+    public int getScale() {
+        return key.getScale();
+    }
+
+    public float getQuality() {
+        return key.getQuality();
+    }
+
+    public boolean allowsPalette() {
+        return key.allowsPalette();
+    }
+
+    public boolean isDeltaCoded() {
+        return key.isDeltaCoded();
+    }
+
+    public byte getColorDepth() {
+        return key.getColorDepth();
+    }
+
+    // Grid for a capture of the given size, replacing the current one if the size changed
+    public FrameBuffer gridFor(int screenWidth, int screenHeight) {
+        int scale = key.getScale();
+        int width = (screenWidth + scale - 1) / scale;
+        int height = (screenHeight + scale - 1) / scale;
+        if (captureGrid == null || captureGrid.getScreenWidth() != screenWidth
+                || captureGrid.getScreenHeight() != screenHeight) {
+            captureGrid = new FrameBuffer(width, height, screenWidth, screenHeight);
+            fullFrameRequested = true;
+        }
+        return captureGrid;
+    }
+
+    // Ask for the next capture to be encoded in full, e.g. after frames were dropped
+    public void requestFullFrame() {
+        fullFrameRequested = true;
+    }
+
+    // True while the next capture has to be encoded in full, without consuming the request
+    public boolean isFullFrameRequested() {
+        return fullFrameRequested;
+    }
+
+    // True while some tile of the capture grid has to be encoded again, see FrameBuffer.takeRefreshRequests
+    public boolean isRefreshRequested() {
+        return captureGrid != null && captureGrid.hasRefreshRequests();
+    }
+
+    public boolean takeFullFrameRequest() {
+        boolean requested = fullFrameRequested;
+        fullFrameRequested = false;
+        return requested;
+    }
+
+    public TileRefinement getRefinement() {
+        return refinement;
+    }
+
+    // Time spent encoding one frame for this profile, and the size of its tiles
+    public void recordEncode(long nanos, long bytes) {
+        encodedFrames.incrementAndGet();
+        encodeNanos.addAndGet(nanos);
+        encodedBytes.addAndGet(bytes);
+    }
+
+    // Refined tiles are sent on top of the frames, so they count towards the output too
+    public void recordRefinement(long bytes) {
+        encodedBytes.addAndGet(bytes);
+    }
+
+    public long getEncodedBytes() {
+        return encodedBytes.get();
+    }
+
+    // Output per captured frame, refinements included; compare profiles to see what a color depth saves
+    public double getAverageFrameBytes() {
+        long frames = encodedFrames.get();
+        return frames == 0 ? 0 : encodedBytes.get() / (double) frames;
+    }
+
+    public long getEncodedFrames() {
+        return encodedFrames.get();
+    }
+
+    public double getAverageEncodeMillis() {
+        long frames = encodedFrames.get();
+        return frames == 0 ? 0 : encodeNanos.get() / 1_000_000.0 / frames;
+    }
+
+    int addSubscriber() {
+        return ++subscribers;
+    }
+
+    int removeSubscriber() {
+        return --subscribers;
+    }
+
+    int getSubscriberCount() {
+        return subscribers;
+    }
+
+    void setPublished(FrameBuffer frameBuffer, long sequence) {
+        this.publishedFrameBuffer = frameBuffer;
+        this.publishedSequence = sequence;
+    }
+
+    FrameBuffer getPublishedFrameBuffer() {
+        return publishedFrameBuffer;
+    }
+
+    long getPublishedSequence() {
+        return publishedSequence;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: subscribers=%d frames=%d avg=%.2fms %.1fKB/frame",
+            key, subscribers, getEncodedFrames(), getAverageEncodeMillis(), getAverageFrameBytes() / 1024);
+    }
+}
\ No newline at end of file
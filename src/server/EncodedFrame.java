@@ -0,0 +1,128 @@
+package src.server;
+
+import src.common.CopyRegion;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// The encoded tiles of one captured frame for one profile, waiting to be published in sequence order.
+// Refinements re-encode tiles of an already published frame at full quality and are committed
+// as soon as they arrive instead of taking a place in the sequence.
+public class EncodedFrame {
+    private final CapturedFrame source;
+    private final EncodeProfile profile;
+    private final FrameBuffer frameBuffer;
+    private final boolean fullFrame;
+    private final boolean refinement;
+    private final byte[][] tileUpdates;
+    private final byte[] tileCodecs;
+    private final boolean[] changedTiles;
+    private final boolean[] coveredTiles;
+    private final List<CopyRegion> copies = new ArrayList<>();
+    private boolean draft;
+    private int dirtyCount;
+    private long allocatedBytes;
+
+    public EncodedFrame(CapturedFrame source, EncodeProfile profile, FrameBuffer frameBuffer, boolean fullFrame) {
+        this(source, profile, frameBuffer, fullFrame, false);
+    }
+
+    public EncodedFrame(CapturedFrame source, EncodeProfile profile, FrameBuffer frameBuffer,
+                        boolean fullFrame, boolean refinement) {
+        this.source = source;
+        this.profile = profile;
+        this.frameBuffer = frameBuffer;
+        this.fullFrame = fullFrame;
+        this.refinement = refinement;
+        int tileCount = frameBuffer.getTileCount();
+        this.tileUpdates = new byte[tileCount][];
+        this.tileCodecs = new byte[tileCount];
+        this.changedTiles = new boolean[tileCount];
+        this.coveredTiles = new boolean[tileCount];
+    }
+
+    public long getSequence() {
+        return source.getSequence();
+    }
+
+    public boolean isRefinement() {
+        return refinement;
+    }
+
+    // True if every tile has to be encoded, not just the ones that changed
+    public boolean isFullFrame() {
+        return fullFrame;
+    }
+
+    // True if the JPEG tiles of this frame were encoded at draft quality and should be refined later
+    public boolean isDraft() {
+        return draft;
+    }
+
+    public void setDraft(boolean draft) {
+        this.draft = draft;
+    }
+
+    public CapturedFrame getSource() {
+        return source;
+    }
+
+    public EncodeProfile getProfile() {
+        return profile;
+    }
+
+    // The profile's grid these tiles belong to
+    public FrameBuffer getFrameBuffer() {
+        return frameBuffer;
+    }
+
+    // Encoded bytes of each changed tile, or null for unchanged tiles
+    public byte[][] getTileUpdates() {
+        return tileUpdates;
+    }
+
+    // Codec each updated tile was encoded with
+    public byte[] getTileCodecs() {
+        return tileCodecs;
+    }
+
+    // Tiles whose pixels differ from the previous capture, or the tiles to refine
+    public boolean[] getChangedTiles() {
+        return changedTiles;
+    }
+
+    // Changed tiles that are reproduced exactly by one of the copies
+    public boolean[] getCoveredTiles() {
+        return coveredTiles;
+    }
+
+    // Copies of previous content clients apply before drawing this frame's tiles
+    public List<CopyRegion> getCopies() {
+        return copies;
+    }
+
+    public synchronized void addDirtyTiles(int count, long bytes) {
+        dirtyCount += count;
+        allocatedBytes += bytes;
+    }
+
+    public synchronized int getDirtyCount() {
+        return dirtyCount;
+    }
+
+    // Size of the encoded tiles
+    public long getEncodedBytes() {
+        long bytes = 0;
+        for (byte[] data : tileUpdates) {
+            if (data != null) {
+                bytes += data.length;
+            }
+        }
+        return bytes;
+    }
+
+    // Bytes allocated by the tile encoders while encoding this frame
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,243 @@
+package src.server;
+
+import src.common.Constants;
+import src.common.CopyRegion;
+import src.common.ScreenTile;
+import src.common.ScreenUpdate;
+import src.common.XorDeltaCodec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Server-side copy of the shared screen at one profile's resolution, split into fixed-size tiles.
+// Each tile keeps its latest encoded bytes and the sequence of the commit that last replaced it,
+// so every client can be sent only the tiles that changed since the last frame it received.
+// The copies of the newest frame are kept too; clients that received the frame right before it
+// get the copies and skip the tiles they cover, everyone else gets the full tiles.
+// Delta-coded tiles keep their last key and every delta since, so a client that missed some of
+// them gets the rest of the chain instead of a delta it can't apply.
+public class FrameBuffer {
+    // A new key is requested once a tile's chain is this long or its deltas outweigh the key
+    private static final int MAX_DELTA_CHAIN = 16;
+
+    private final int width;
+    private final int height;
+    // Size of the captured screen this grid was scaled from
+    private final int screenWidth;
+    private final int screenHeight;
+    private final int columns;
+    private final int rows;
+    private final long[] tileVersions;
+    private final byte[][] tileData;
+    private final byte[] tileCodecs;
+    private long sequence;
+
+    private final DeltaChain[] deltaChains;
+    private final boolean[] keyRequests;
+    // Tiles to encode again on the next capture even if they didn't change
+    private final boolean[] refreshRequests;
+    private volatile boolean refreshPending;
+
+    // Copies of the newest frame and the frame a client must have to apply them
+    private List<CopyRegion> copies = new ArrayList<>();
+    private boolean[] copiedTiles;
+    private long copySequence;
+    private long copyBaseSequence;
+
+    public FrameBuffer(int width, int height) {
+        this(width, height, width, height);
+    }
+
+    public FrameBuffer(int width, int height, int screenWidth, int screenHeight) {
+        this.width = width;
+        this.height = height;
+        this.screenWidth = screenWidth;
+        this.screenHeight = screenHeight;
+        this.columns = (width + Constants.TILE_SIZE - 1) / Constants.TILE_SIZE;
+        this.rows = (height + Constants.TILE_SIZE - 1) / Constants.TILE_SIZE;
+        this.tileVersions = new long[columns * rows];
+        this.tileData = new byte[columns * rows][];
+        this.tileCodecs = new byte[columns * rows];
+        this.deltaChains = new DeltaChain[columns * rows];
+        this.keyRequests = new boolean[columns * rows];
+        this.refreshRequests = new boolean[columns * rows];
+    }
+
+    // A key tile and the deltas committed on top of it, oldest first
+    private static class DeltaChain {
+        final List<byte[]> data = new ArrayList<>();
+        final List<Long> versions = new ArrayList<>();
+        final int keyBytes;
+        long deltaBytes;
+
+        DeltaChain(byte[] key, long version) {
+            keyBytes = key.length;
+            data.add(key);
+            versions.add(version);
+        }
+
+        void addDelta(byte[] delta, long version) {
+            data.add(delta);
+            versions.add(version);
+            deltaBytes += delta.length;
+        }
+    }
+
+    // Store the newly encoded tiles of a frame and stamp them with the given commit sequence.
+    // Sequences are assigned by the publisher and must increase with every commit.
+    public synchronized void commit(EncodedFrame frame, long frameSequence) {
+        byte[][] tileUpdates = frame.getTileUpdates();
+        for (int tile = 0; tile < tileUpdates.length; tile++) {
+            if (tileUpdates[tile] != null) {
+                tileData[tile] = tileUpdates[tile];
+                tileCodecs[tile] = frame.getTileCodecs()[tile];
+                tileVersions[tile] = frameSequence;
+                if (tileCodecs[tile] == Constants.TILE_CODEC_XOR_DELTA) {
+                    chainTile(tile, tileUpdates[tile], frameSequence);
+                } else {
+                    deltaChains[tile] = null;
+                }
+            }
+        }
+
+        if (!frame.getCopies().isEmpty()) {
+            copies = new ArrayList<>(frame.getCopies());
+            copiedTiles = frame.getCoveredTiles();
+            copySequence = frameSequence;
+            copyBaseSequence = sequence;
+        }
+        sequence = frameSequence;
+    }
+
+    // Collect everything that changed after the given sequence and return the current sequence
+    public synchronized long collectUpdateSince(long lastSequence, ScreenUpdate update) {
+        update.setScreenSize(screenWidth, screenHeight);
+        update.setFrameSize(width, height);
+
+        // Copies only reproduce the right content on top of exactly the previous frame
+        boolean useCopies = copySequence == sequence && copySequence != 0 && lastSequence == copyBaseSequence;
+        if (useCopies) {
+            for (CopyRegion copy : copies) {
+                update.addCopy(copy);
+            }
+        }
+
+        for (int tile = 0; tile < tileVersions.length; tile++) {
+            if (tileVersions[tile] > lastSequence && tileData[tile] != null) {
+                if (useCopies && copiedTiles[tile]) {
+                    continue;
+                }
+                int x = getTileX(tile);
+                int y = getTileY(tile);
+                if (tileCodecs[tile] == Constants.TILE_CODEC_XOR_DELTA) {
+                    // Everything the client hasn't applied yet, in order; starts at the key if it has none of them
+                    DeltaChain chain = deltaChains[tile];
+                    for (int i = 0; chain != null && i < chain.data.size(); i++) {
+                        if (chain.versions.get(i) > lastSequence) {
+                            update.addTile(new ScreenTile(x, y, getTileWidth(tile), getTileHeight(tile),
+                                Constants.TILE_CODEC_XOR_DELTA, chain.data.get(i)));
+                        }
+                    }
+                    continue;
+                }
+                update.addTile(new ScreenTile(x, y, getTileWidth(tile), getTileHeight(tile),
+                    tileCodecs[tile], tileData[tile]));
+            }
+        }
+        return sequence;
+    }
+
+    private void chainTile(int tile, byte[] data, long version) {
+        DeltaChain chain = deltaChains[tile];
+        if (!XorDeltaCodec.isDelta(data)) {
+            deltaChains[tile] = new DeltaChain(data, version);
+            return;
+        }
+        if (chain == null) {
+            // A delta without a key to apply it to is useless; hold the tile back and have it encoded
+            // again as a key, since on a static screen it wouldn't change by itself
+            keyRequests[tile] = true;
+            refreshRequests[tile] = true;
+            refreshPending = true;
+            return;
+        }
+        chain.addDelta(data, version);
+        if (chain.data.size() > MAX_DELTA_CHAIN || chain.deltaBytes > chain.keyBytes) {
+            keyRequests[tile] = true;
+        }
+    }
+
+    // True once if the tile's delta chain should be restarted with a key
+    public synchronized boolean takeKeyRequest(int tile) {
+        boolean requested = keyRequests[tile];
+        keyRequests[tile] = false;
+        return requested;
+    }
+
+    // Whether some tile must be encoded again regardless of the screen changing
+    public boolean hasRefreshRequests() {
+        return refreshPending;
+    }
+
+    // Mark the tiles waiting for a refresh in the given array and clear their requests
+    public synchronized void takeRefreshRequests(boolean[] tiles) {
+        if (!refreshPending) {
+            return;
+        }
+        for (int tile = 0; tile < refreshRequests.length; tile++) {
+            if (refreshRequests[tile]) {
+                tiles[tile] = true;
+                refreshRequests[tile] = false;
+            }
+        }
+        refreshPending = false;
+    }
+
+    public int getTileX(int tile) {
+        return (tile % columns) * Constants.TILE_SIZE;
+    }
+
+    public int getTileY(int tile) {
+        return (tile / columns) * Constants.TILE_SIZE;
+    }
+
+    public int getTileWidth(int tile) {
+        return Math.min(Constants.TILE_SIZE, width - getTileX(tile));
+    }
+
+    public int getTileHeight(int tile) {
+        return Math.min(Constants.TILE_SIZE, height - getTileY(tile));
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getTileCount() {
+        return tileVersions.length;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getScreenWidth() {
+        return screenWidth;
+    }
+
+    public int getScreenHeight() {
+        return screenHeight;
+    }
+
+    public synchronized long getSequence() {
+        return sequence;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,389 @@
+package src.server;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Staged capture -> encode -> publish pipeline.
+// The capture thread hands raw frames to a bounded ring, a pool of encoder workers diff and
+// encode them concurrently, and a publisher thread commits the results to the FrameBuffers in
+// sequence order. Each stage only waits on its own queue, so throughput is limited by the
+// slowest stage instead of the sum of all of them. An idle stage blocks until the one before it hands
+// it something, rather than polling its queue.
+// Every frame is encoded once per active EncodeProfile (output resolution), and the publisher
+// also drives progressive refinement of each profile's draft JPEG tiles.
+public class FramePipeline {
+    private static final int CAPTURE_RING_CAPACITY = 4;
+    // Idle workers look at whether the pipeline is still running at least this often
+    private static final long STOP_CHECK_MILLIS = 100;
+
+    private final TileEncoder tileEncoder;
+    private final int encoderCount;
+    private final FrameRing<CapturedFrame> captureRing;
+    private final FrameRing<CapturedFrame> publishRing;
+    private final FrameRing<EncodedFrame> refineRing;
+
+    private final StageMetrics captureMetrics;
+    private final StageMetrics encodeMetrics;
+    private final StageMetrics publishMetrics;
+
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running;
+    // Unparked whenever the publish or refine ring gets a frame
+    private volatile Thread publisher;
+
+    // Profiles the screen senders are subscribed to; every frame is encoded once for each
+    private final EncodeCache encodeCache = new EncodeCache();
+
+    // Senders wait on publishLock for their profile's published sequence to move.
+    // Commits are numbered by the publisher because refinements are committed between frames.
+    private final Object publishLock = new Object();
+    private long publishedSequence;
+    private long wakeCount;
+    // Senders that don't wait on publishLock are called instead
+    private final List<Runnable> senderListeners = new CopyOnWriteArrayList<>();
+
+    // Captures are taken into recycled images, released once no frame refers to them
+    private final ImagePool imagePool = new ImagePool();
+
+    // Capture-side state, only touched by the thread calling submit()
+    private long nextSequence = 1;
+    private BufferedImage lastImage;
+    private FrameBuffer captureGrid;
+    private volatile boolean resyncRequested;
+    // Newest frame the encoders have diffed; its changed tiles show where the screen is changing
+    private volatile CapturedFrame lastDiffedFrame;
+
+    // Publisher state; frames can finish encoding out of order
+    private final Map<Long, CapturedFrame> pendingFrames = new HashMap<>();
+    private volatile int pendingCount;
+    private long nextToPublish = 1;
+    private long commitSequence;
+
+    public FramePipeline(TileEncoder tileEncoder) {
+        this(tileEncoder, Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)));
+    }
+
+    public FramePipeline(TileEncoder tileEncoder, int encoderCount) {
+        this.tileEncoder = tileEncoder;
+        this.encoderCount = encoderCount;
+        this.captureRing = new FrameRing<>(CAPTURE_RING_CAPACITY);
+        this.publishRing = new FrameRing<>(CAPTURE_RING_CAPACITY + encoderCount);
+        this.refineRing = new FrameRing<>(CAPTURE_RING_CAPACITY);
+
+        this.captureMetrics = new StageMetrics("capture", () -> 0);
+        this.encodeMetrics = new StageMetrics("encode", captureRing::size);
+        this.publishMetrics = new StageMetrics("publish", () -> publishRing.size() + pendingCount);
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+
+        for (int i = 0; i < encoderCount; i++) {
+            Thread encoder = new Thread(this::runEncoder, "FrameEncoder-" + i);
+            encoder.setDaemon(true);
+            workers.add(encoder);
+        }
+        publisher = new Thread(this::runPublisher, "FramePublisher");
+        publisher.setDaemon(true);
+        workers.add(publisher);
+
+        for (Thread worker : workers) {
+            worker.start();
+        }
+    }
+
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        captureRing.wakeAll();
+        publishRing.wakeAll();
+        refineRing.wakeAll();
+        LockSupport.unpark(publisher);
+
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        workers.clear();
+
+        // Frames still in flight are dropped, so the next capture has to be encoded in full
+        CapturedFrame dropped;
+        while ((dropped = captureRing.poll()) != null) {
+            dropped.release();
+        }
+        while ((dropped = publishRing.poll()) != null) {
+            dropped.release();
+        }
+        while (refineRing.poll() != null) { }
+        for (CapturedFrame pending : pendingFrames.values()) {
+            pending.release();
+        }
+        pendingFrames.clear();
+        pendingCount = 0;
+        nextToPublish = nextSequence;
+        resyncRequested = true;
+        lastDiffedFrame = null;
+        for (EncodeProfile profile : encodeCache.getActiveProfiles()) {
+            profile.getRefinement().reset();
+        }
+    }
+
+    public EncodeCache getEncodeCache() {
+        return encodeCache;
+    }
+
+    // Only the frame's changed tiles may be read; its images may already be back in the pool
+    public CapturedFrame getLastDiffedFrame() {
+        return lastDiffedFrame;
+    }
+
+    // Where captures for submit() should be taken into
+    public ImagePool getImagePool() {
+        return imagePool;
+    }
+
+    // True if the encoders can accept another frame right now
+    public boolean hasCapacity() {
+        return !captureRing.isFull();
+    }
+
+    // Queue a captured frame for encoding. Must be called from a single capture thread.
+    // The pipeline takes its own references to the image, so the caller still releases its one.
+    public boolean submit(BufferedImage image, long captureStartTime) {
+        long now = System.nanoTime();
+
+        // A new grid (first frame or resolution change) and a failed encode both force a full frame
+        BufferedImage previous = lastImage;
+        if (captureGrid == null || captureGrid.getWidth() != image.getWidth()
+                || captureGrid.getHeight() != image.getHeight()) {
+            captureGrid = new FrameBuffer(image.getWidth(), image.getHeight());
+            previous = null;
+        }
+        if (resyncRequested) {
+            resyncRequested = false;
+            previous = null;
+        }
+
+        CapturedFrame frame = new CapturedFrame(nextSequence, image, previous, captureGrid, now, imagePool);
+        EncodeProfile[] targets = encodeCache.getActiveProfiles();
+        for (EncodeProfile profile : targets) {
+            FrameBuffer grid = profile.gridFor(image.getWidth(), image.getHeight());
+            boolean fullFrame = profile.takeFullFrameRequest() || previous == null;
+            frame.addTarget(new EncodedFrame(frame, profile, grid, fullFrame));
+        }
+
+        if (!captureRing.offer(frame)) {
+            // The profiles' full frames were consumed above, so ask for them again
+            for (EncodedFrame target : frame.getTargets()) {
+                if (target.isFullFrame()) {
+                    target.getProfile().requestFullFrame();
+                }
+            }
+            frame.release();
+            captureMetrics.recordDropped();
+            return false;
+        }
+
+        captureMetrics.record(now - captureStartTime);
+        imagePool.retain(image);
+        if (lastImage != null) {
+            imagePool.release(lastImage);
+        }
+        lastImage = image;
+        nextSequence++;
+        return true;
+    }
+
+    // Record a capture tick that was skipped because the encoders were still busy
+    public void recordSkippedCapture() {
+        captureMetrics.recordDropped();
+    }
+
+    private void runEncoder() {
+        while (running) {
+            CapturedFrame frame;
+            try {
+                frame = captureRing.poll(STOP_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (frame == null) {
+                continue;
+            }
+
+            long start = System.nanoTime();
+            try {
+                tileEncoder.encodeFrame(frame);
+                lastDiffedFrame = frame;
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+
+                // Keep the sequence intact and let the next capture repaint everything
+                frame.getTargets().clear();
+                resyncRequested = true;
+            }
+            encodeMetrics.record(System.nanoTime() - start);
+            frame.setEncodedTime(System.nanoTime());
+
+            if (!handOff(publishRing, frame)) {
+                return;
+            }
+        }
+    }
+
+    // Queue a frame for the publisher, waiting for room if need be. False if the pipeline stopped first.
+    private <T> boolean handOff(FrameRing<T> ring, T frame) {
+        try {
+            while (!ring.offer(frame, STOP_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (!running) {
+                    return false;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        LockSupport.unpark(publisher);
+        return true;
+    }
+
+    private void runPublisher() {
+        while (running) {
+            EncodedFrame refined = refineRing.poll();
+            if (refined != null && refined.getProfile().getRefinement().accept(refined)) {
+                commit(refined);
+            }
+
+            CapturedFrame frame = publishRing.poll();
+            if (frame == null) {
+                if (refined == null) {
+                    // Both rings were empty; their producers unpark this thread after adding to them
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(STOP_CHECK_MILLIS));
+                }
+                continue;
+            }
+
+            pendingFrames.put(frame.getSequence(), frame);
+            while ((frame = pendingFrames.remove(nextToPublish)) != null) {
+                publish(frame);
+                nextToPublish++;
+            }
+            pendingCount = pendingFrames.size();
+        }
+    }
+
+    private void publish(CapturedFrame frame) {
+        for (EncodedFrame encoded : frame.getTargets()) {
+            TileRefinement refinement = encoded.getProfile().getRefinement();
+            refinement.track(encoded);
+            if (encoded.getDirtyCount() > 0) {
+                commit(encoded);
+            }
+
+            boolean[] settled = refinement.takeSettledTiles(frame.getSequence());
+            if (settled != null) {
+                tileEncoder.refineAsync(frame, encoded.getProfile(), encoded.getFrameBuffer(), settled,
+                    refined -> handOff(refineRing, refined));
+            }
+        }
+        publishMetrics.record(System.nanoTime() - frame.getEncodedTime());
+        frame.release();
+    }
+
+    private void commit(EncodedFrame encoded) {
+        FrameBuffer buffer = encoded.getFrameBuffer();
+        buffer.commit(encoded, ++commitSequence);
+
+        // Wake every sender waiting for a newer frame
+        synchronized (publishLock) {
+            encoded.getProfile().setPublished(buffer, commitSequence);
+            publishedSequence = commitSequence;
+            publishLock.notifyAll();
+        }
+        notifySenderListeners();
+    }
+
+    // Block until a frame newer than the given sequence is published for the profile.
+    // Returns the frame buffer holding it, or null if the timeout expires or the senders are woken first.
+    public FrameBuffer awaitFrame(EncodeProfile profile, long afterSequence, long timeoutMillis)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (publishLock) {
+            long wakeAtStart = wakeCount;
+            while (profile.getPublishedSequence() <= afterSequence) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || wakeCount != wakeAtStart) {
+                    return null;
+                }
+                TimeUnit.NANOSECONDS.timedWait(publishLock, remaining);
+            }
+            return profile.getPublishedFrameBuffer();
+        }
+    }
+
+    // The frame buffer holding a frame newer than the given sequence for the profile, or null if none is
+    // published yet. For senders that are called back on publish instead of waiting.
+    public FrameBuffer pollFrame(EncodeProfile profile, long afterSequence) {
+        synchronized (publishLock) {
+            return profile.getPublishedSequence() > afterSequence ? profile.getPublishedFrameBuffer() : null;
+        }
+    }
+
+    // Make every waiting sender return early, e.g. so it can switch profiles
+    public void wakeSenders() {
+        synchronized (publishLock) {
+            wakeCount++;
+            publishLock.notifyAll();
+        }
+        notifySenderListeners();
+    }
+
+    // Call the listener on every publish and wake-up; it must return quickly
+    public void addSenderListener(Runnable listener) {
+        senderListeners.add(listener);
+    }
+
+    public void removeSenderListener(Runnable listener) {
+        senderListeners.remove(listener);
+    }
+
+    private void notifySenderListeners() {
+        for (Runnable listener : senderListeners) {
+            listener.run();
+        }
+    }
+
+    public long getPublishedSequence() {
+        synchronized (publishLock) {
+            return publishedSequence;
+        }
+    }
+
+    // Average time per frame of the slowest stage, accounting for parallel encoders
+    public double getBottleneckMillis() {
+        double capture = captureMetrics.getAverageLatencyMillis();
+        double encode = encodeMetrics.getAverageLatencyMillis() / encoderCount;
+        double publish = publishMetrics.getAverageLatencyMillis();
+        return Math.max(capture, Math.max(encode, publish));
+    }
+
+    public List<StageMetrics> getStageMetrics() {
+        return Arrays.asList(captureMetrics, encodeMetrics, publishMetrics);
+    }
+
+    public int getEncoderCount() {
+        return encoderCount;
+    }
+}
\ No newline at end of file
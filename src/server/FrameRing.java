@@ -0,0 +1,181 @@
+package src.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Bounded lock-free multi-producer/multi-consumer ring buffer.
+// Every slot carries a sequence number telling producers and consumers whose turn it is,
+// so offer and poll only ever contend on a single compare-and-set.
+// Callers that would rather wait than find the ring empty or full block on a lock, which offer and
+// poll only take while someone is waiting. A waiter counts itself before looking at the ring once
+// more, and the other side changes the ring before looking at the count, so one of them sees the other.
+public class FrameRing<T> {
+    private final int mask;
+    private final AtomicReferenceArray<T> items;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    // Callers waiting on each condition; only changed while holding the lock
+    private volatile int emptyWaiters;
+    private volatile int fullWaiters;
+
+    public FrameRing(int capacity) {
+        // Round up to a power of two so positions can be masked instead of divided
+        int size = 2;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.items = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    // Add an item, or return false if the ring is full
+    public boolean offer(T item) {
+        if (!tryOffer(item)) {
+            return false;
+        }
+        if (emptyWaiters > 0) {
+            signal(notEmpty);
+        }
+        return true;
+    }
+
+    // Remove the oldest item, or return null if the ring is empty
+    public T poll() {
+        T item = tryPoll();
+        if (item != null && fullWaiters > 0) {
+            signal(notFull);
+        }
+        return item;
+    }
+
+    // Add an item, waiting up to the timeout for room if the ring is full. Returns false if there is
+    // still none, which can also happen sooner after wakeAll().
+    public boolean offer(T item, long timeout, TimeUnit unit) throws InterruptedException {
+        if (offer(item)) {
+            return true;
+        }
+        lock.lock();
+        try {
+            fullWaiters++;
+            try {
+                if (offer(item)) {
+                    return true;
+                }
+                notFull.awaitNanos(unit.toNanos(timeout));
+                return offer(item);
+            } finally {
+                fullWaiters--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Remove the oldest item, waiting up to the timeout for one if the ring is empty. Returns null if
+    // there is still none, which can also happen sooner after wakeAll().
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        T item = poll();
+        if (item != null) {
+            return item;
+        }
+        lock.lock();
+        try {
+            emptyWaiters++;
+            try {
+                item = poll();
+                if (item == null) {
+                    notEmpty.awaitNanos(unit.toNanos(timeout));
+                    item = poll();
+                }
+                return item;
+            } finally {
+                emptyWaiters--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Cut every waiting offer and poll short, e.g. so their threads can see that they should stop
+    public void wakeAll() {
+        lock.lock();
+        try {
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signal(Condition condition) {
+        lock.lock();
+        try {
+            condition.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean tryOffer(T item) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    items.set(index, item);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                return false;
+            }
+        }
+    }
+
+    private T tryPoll() {
+        while (true) {
+            long position = head.get();
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - (position + 1);
+
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    T item = items.get(index);
+                    items.set(index, null);
+                    sequences.set(index, position + mask + 1);
+                    return item;
+                }
+            } else if (difference < 0) {
+                return null;
+            }
+        }
+    }
+
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    public boolean isFull() {
+        return size() >= capacity();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,136 @@
+package src.server;
+
+import java.util.concurrent.locks.LockSupport;
+
+// Paces a loop to a fixed frame rate using absolute nanoTime deadlines.
+// Each deadline is the previous one plus the frame interval, so time spent in the loop body or
+// oversleeping never accumulates into drift. When the loop falls more than a whole frame behind,
+// the missed deadlines are skipped rather than run back to back.
+// Tracks how late each wake-up was so the achieved cadence can be checked against the target.
+public class FrameScheduler {
+    private long intervalNanos;
+    private long nextDeadline;
+
+    private long frames;
+    private long skippedFrames;
+    private long totalJitterNanos;
+    private long maxJitterNanos;
+
+    public FrameScheduler(int fps) {
+        setFps(fps);
+    }
+
+    // Takes effect from the next deadline onwards
+    public synchronized void setFps(int fps) {
+        long interval = 1_000_000_000L / Math.max(1, fps);
+        if (interval != intervalNanos) {
+            if (nextDeadline != 0) {
+                nextDeadline += interval - intervalNanos;
+            }
+            intervalNanos = interval;
+        }
+    }
+
+    // Start a fresh cadence at the next call, e.g. after the loop was paused on purpose
+    public synchronized void restart() {
+        nextDeadline = 0;
+    }
+
+    public synchronized int getFps() {
+        return (int) Math.round(1_000_000_000.0 / intervalNanos);
+    }
+
+    // Wait for the next frame deadline and return it. The first call returns immediately.
+    public long awaitNextFrame() throws InterruptedException {
+        long deadline;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (nextDeadline == 0) {
+                nextDeadline = now;
+            } else if (now - nextDeadline > intervalNanos) {
+                // Too late to catch up: drop the frames that were missed and realign on the current one
+                long missed = (now - nextDeadline) / intervalNanos;
+                skippedFrames += missed;
+                nextDeadline += missed * intervalNanos;
+            }
+            deadline = nextDeadline;
+            nextDeadline += intervalNanos;
+        }
+
+        sleepUntil(deadline);
+
+        long lateness = Math.max(0, System.nanoTime() - deadline);
+        synchronized (this) {
+            frames++;
+            totalJitterNanos += lateness;
+            maxJitterNanos = Math.max(maxJitterNanos, lateness);
+        }
+        return deadline;
+    }
+
+    // Non-blocking form of awaitNextFrame, for callers that are scheduled rather than sleep.
+    // Claims the next frame and returns 0 if its deadline has passed, otherwise returns the nanoseconds
+    // left until it, to call again then.
+    public synchronized long tryNextFrame(long now) {
+        if (nextDeadline == 0) {
+            nextDeadline = now;
+        } else if (now - nextDeadline > intervalNanos) {
+            long missed = (now - nextDeadline) / intervalNanos;
+            skippedFrames += missed;
+            nextDeadline += missed * intervalNanos;
+        }
+        if (nextDeadline - now > 0) {
+            return nextDeadline - now;
+        }
+
+        long lateness = now - nextDeadline;
+        nextDeadline += intervalNanos;
+        frames++;
+        totalJitterNanos += lateness;
+        maxJitterNanos = Math.max(maxJitterNanos, lateness);
+        return 0;
+    }
+
+    // Sleep until an absolute System.nanoTime() value. Parks all the way rather than spinning the last
+    // stretch: waking up to a timer slack late costs less than a core burning through every frame, and
+    // the lateness shows up in the jitter stats.
+    public static void sleepUntil(long deadline) throws InterruptedException {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    public synchronized long getFrameCount() {
+        return frames;
+    }
+
+    public synchronized long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    // How late wake-ups were relative to their deadlines
+    public synchronized double getAverageJitterMillis() {
+        return frames == 0 ? 0 : totalJitterNanos / (double) frames / 1_000_000.0;
+    }
+
+    public synchronized double getMaxJitterMillis() {
+        return maxJitterNanos / 1_000_000.0;
+    }
+
+    public synchronized void resetStats() {
+        frames = 0;
+        skippedFrames = 0;
+        totalJitterNanos = 0;
+        maxJitterNanos = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d fps, %d frames, %d skipped, jitter avg %.3fms max %.3fms",
+            getFps(), frames, skippedFrames, getAverageJitterMillis(), getMaxJitterMillis());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,68 @@
+package src.server;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// Recycles the full-screen images captures are taken into.
+// A capture stays in use after the next one arrives: it is the next frame's diff reference, and
+// refinements and delta tiles read it later still. Images from the pool are reference counted and go
+// back to the free list once the last user releases them, so a steady pipeline reuses a handful of
+// images instead of allocating a new one per frame.
+// Images the pool didn't hand out (e.g. from Robot, which always allocates) are ignored by retain and
+// release and left to the garbage collector.
+public class ImagePool {
+    private static final int MAX_FREE_IMAGES = 4;
+
+    private final Map<BufferedImage, Integer> references = new IdentityHashMap<>();
+    private final Deque<BufferedImage> free = new ArrayDeque<>();
+    private long allocatedImages;
+
+    // Get an image of the given size, holding one reference to it
+    public synchronized BufferedImage acquire(int width, int height) {
+        BufferedImage image = free.pollFirst();
+        while (image != null && (image.getWidth() != width || image.getHeight() != height)) {
+            // Left over from before a resolution change
+            image = free.pollFirst();
+        }
+        if (image == null) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            allocatedImages++;
+        }
+        references.put(image, 1);
+        return image;
+    }
+
+    public synchronized void retain(BufferedImage image) {
+        Integer count = references.get(image);
+        if (count != null) {
+            references.put(image, count + 1);
+        }
+    }
+
+    public synchronized void release(BufferedImage image) {
+        Integer count = references.get(image);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            references.put(image, count - 1);
+            return;
+        }
+        references.remove(image);
+        if (free.size() < MAX_FREE_IMAGES) {
+            free.addFirst(image);
+        }
+    }
+
+    // Images created so far; stays flat once the pipeline reaches a steady state
+    public synchronized long getAllocatedImages() {
+        return allocatedImages;
+    }
+
+    public synchronized int getImagesInUse() {
+        return references.size();
+    }
+}
\ No newline at end of file
@@ -1,16 +1,26 @@
 package src.server;
 
+import src.common.InputEvents;
+
 import java.awt.*;
 import java.awt.event.InputEvent;
 import java.awt.event.KeyEvent;
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
-import java.io.IOException;
 
 public class InputHandler {
+    // Told about every injected event, so screen capture can react to it straight away
+    public interface InjectionListener {
+        // (x, y) is where the pointer is after the event, in screen coordinates
+        void onInputInjected(int x, int y);
+    }
+
     private Robot robot;
+    private final InjectionListener listener;
+    // Last pointer position we moved to; keys and the wheel act wherever it is
+    private int pointerX;
+    private int pointerY;
     
-    public InputHandler() {
+    public InputHandler(InjectionListener listener) {
+        this.listener = listener;
         try {
             robot = new Robot();
         } catch (AWTException e) {
@@ -18,86 +28,67 @@ public class InputHandler {
         }
     }
     
-    public void handleMouseEvent(String eventType, byte[] data) {
-        try {
-            ByteArrayInputStream bais = new ByteArrayInputStream(data);
-            DataInputStream dis = new DataInputStream(bais);
+    // Inject a batch of InputEvents records in order. Read in place, so nothing is allocated per event.
+    // The records' timing isn't replayed; events are injected as soon as they arrive.
+    public void handleInput(byte[] batch) {
+        // Positions are deltas from the previous record, starting from (0, 0)
+        int x = 0;
+        int y = 0;
+        for (int offset = 0; offset + InputEvents.RECORD_SIZE <= batch.length; offset += InputEvents.RECORD_SIZE) {
+            x += InputEvents.getDx(batch, offset);
+            y += InputEvents.getDy(batch, offset);
             
-            switch (eventType) {
-                case "MOVE":
-                    int x = dis.readInt();
-                    int y = dis.readInt();
-                    robot.mouseMove(x, y);
-                    break;
-                    
-                case "PRESS":
-                    x = dis.readInt();
-                    y = dis.readInt();
-                    int button = dis.readInt();
-                    boolean pressed = dis.readBoolean();
-                    
-                    // Move to position first
-                    robot.mouseMove(x, y);
-                    
-                    // Convert button to mask
-                    int buttonMask = getButtonMask(button);
-                    
-                    if (pressed) {
-                        robot.mousePress(buttonMask);
-                    }
-                    break;
-                    
-                case "RELEASE":
-                    x = dis.readInt();
-                    y = dis.readInt();
-                    button = dis.readInt();
-                    pressed = dis.readBoolean();
-                    
-                    // Move to position first
-                    robot.mouseMove(x, y);
-                    
-                    // Convert button to mask
-                    buttonMask = getButtonMask(button);
-                    
-                    if (!pressed) {
-                        robot.mouseRelease(buttonMask);
-                    }
-                    break;
-                    
-                case "DRAG":
-                    x = dis.readInt();
-                    y = dis.readInt();
-                    robot.mouseMove(x, y);
-                    break;
-                    
-                case "WHEEL":
-                    int rotation = dis.readInt();
-                    robot.mouseWheel(rotation);
-                    break;
+            try {
+                switch (InputEvents.getOpcode(batch, offset)) {
+                    case InputEvents.OP_MOVE:
+                    case InputEvents.OP_DRAG:
+                        robot.mouseMove(x, y);
+                        movePointer(x, y);
+                        break;
+                        
+                    case InputEvents.OP_PRESS:
+                        // Move to position first
+                        robot.mouseMove(x, y);
+                        movePointer(x, y);
+                        robot.mousePress(getButtonMask(InputEvents.getButton(batch, offset)));
+                        break;
+                        
+                    case InputEvents.OP_RELEASE:
+                        robot.mouseMove(x, y);
+                        movePointer(x, y);
+                        robot.mouseRelease(getButtonMask(InputEvents.getButton(batch, offset)));
+                        break;
+                        
+                    case InputEvents.OP_WHEEL:
+                        robot.mouseWheel(InputEvents.getValue(batch, offset));
+                        listener.onInputInjected(pointerX, pointerY);
+                        break;
+                        
+                    case InputEvents.OP_KEY_PRESS:
+                        robot.keyPress(InputEvents.getValue(batch, offset));
+                        listener.onInputInjected(pointerX, pointerY);
+                        break;
+                        
+                    case InputEvents.OP_KEY_RELEASE:
+                        robot.keyRelease(InputEvents.getValue(batch, offset));
+                        listener.onInputInjected(pointerX, pointerY);
+                        break;
+                        
+                    default:
+                        // From a newer client; records are fixed in size, so it is just skipped
+                        break;
+                }
+            } catch (IllegalArgumentException e) {
+                // A key code this platform doesn't have; the rest of the batch still goes through
+                System.err.println("Skipped input event: " + e.getMessage());
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
     }
     
-    public void handleKeyboardEvent(String eventType, byte[] data) {
-        try {
-            ByteArrayInputStream bais = new ByteArrayInputStream(data);
-            DataInputStream dis = new DataInputStream(bais);
-            
-            if (eventType.equals("KEY")) {
-                int keyCode = dis.readInt();
-                boolean pressed = dis.readBoolean();
-                
-                if (pressed) {
-                    robot.keyPress(keyCode);
-                } else {
-                    robot.keyRelease(keyCode);
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    private void movePointer(int x, int y) {
+        pointerX = x;
+        pointerY = y;
+        listener.onInputInjected(x, y);
     }
     
     private int getButtonMask(int button) {
@@ -0,0 +1,140 @@
+package src.server;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStreamImpl;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+// A JPEG writer that is looked up once and then reused for every image it encodes.
+// Output goes into a growable buffer owned by the encoder, so encoding a tile only allocates
+// the final byte[] copy. Instances are not thread-safe; keep one per encoding thread.
+public class JpegEncoder {
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    private final ImageWriter writer;
+    private final ImageWriteParam param;
+    private final BufferOutputStream output = new BufferOutputStream();
+    private float quality = -1f;
+
+    // Bytes allocated by this encoder (output copies and buffer growth) since the last reset
+    private long allocatedBytes;
+
+    public JpegEncoder() throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+        if (!writers.hasNext()) {
+            throw new IOException("No JPEG writer found");
+        }
+
+        writer = writers.next();
+        param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+
+        // Warm up the codec so the first real frame doesn't pay for class loading and table setup
+        encode(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), 0.5f);
+        allocatedBytes = 0;
+    }
+
+    public byte[] encode(BufferedImage image, float compressionQuality) throws IOException {
+        if (compressionQuality != quality) {
+            param.setCompressionQuality(compressionQuality);
+            quality = compressionQuality;
+        }
+
+        output.rewind();
+        writer.setOutput(output);
+        writer.write(null, new IIOImage(image, null, null), param);
+
+        byte[] result = output.toByteArray();
+        allocatedBytes += result.length;
+        return result;
+    }
+
+    // Return and clear the number of bytes allocated since the previous call
+    public long takeAllocatedBytes() {
+        long bytes = allocatedBytes;
+        allocatedBytes = 0;
+        return bytes;
+    }
+
+    public void dispose() {
+        writer.dispose();
+    }
+
+    // In-memory ImageOutputStream over a reusable, growable byte array
+    private class BufferOutputStream extends ImageOutputStreamImpl {
+        private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+        private int length;
+
+        void rewind() {
+            length = 0;
+            streamPos = 0;
+            flushedPos = 0;
+            bitOffset = 0;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, length);
+        }
+
+        private void ensureCapacity(long required) throws IOException {
+            if (required > Integer.MAX_VALUE) {
+                throw new IOException("Encoded image too large");
+            }
+            if (required > buffer.length) {
+                int newSize = (int) Math.min(Integer.MAX_VALUE, Math.max(required, (long) buffer.length * 2));
+                allocatedBytes += newSize;
+                buffer = Arrays.copyOf(buffer, newSize);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            flushBits();
+            ensureCapacity(streamPos + 1);
+            buffer[(int) streamPos++] = (byte) b;
+            length = (int) Math.max(length, streamPos);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            flushBits();
+            ensureCapacity(streamPos + len);
+            System.arraycopy(b, off, buffer, (int) streamPos, len);
+            streamPos += len;
+            length = (int) Math.max(length, streamPos);
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            if (streamPos >= length) {
+                return -1;
+            }
+            return buffer[(int) streamPos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            if (streamPos >= length) {
+                return -1;
+            }
+            int count = (int) Math.min(len, length - streamPos);
+            System.arraycopy(buffer, (int) streamPos, b, off, count);
+            streamPos += count;
+            return count;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,203 @@
+package src.server;
+
+import src.common.Constants;
+import src.common.CopyRegion;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Detects scrolled or moved content between two consecutive captures.
+// Short pixel segments from changed tiles are searched for in the previous capture; the
+// displacement most of them agree on is then verified tile by tile, and every changed tile
+// that is an exact copy of previous content is covered by a copy instruction instead of being sent.
+public class MotionDetector {
+    // Largest displacement searched for, in pixels
+    private static final int SEARCH_RANGE = 256;
+    // Length of the pixel segments used as probes
+    private static final int PROBE_LENGTH = 32;
+    private static final int MAX_PROBES = 16;
+    // Minimum number of probes that must agree before a displacement is trusted
+    private static final int MIN_VOTES = 3;
+    // Don't bother looking for motion when only a few tiles changed
+    private static final int MIN_CHANGED_TILES = 4;
+
+    private static final long HASH_MULTIPLIER = 0x100000001b3L;
+
+    private final int[] probe = new int[PROBE_LENGTH];
+    private final int[] searchRow = new int[2 * SEARCH_RANGE + PROBE_LENGTH];
+    private final int[] tilePixels = new int[Constants.TILE_SIZE * Constants.TILE_SIZE];
+    private final int[] sourcePixels = new int[Constants.TILE_SIZE * Constants.TILE_SIZE];
+    private final long highestPower;
+
+    public MotionDetector() {
+        long power = 1;
+        for (int i = 0; i < PROBE_LENGTH - 1; i++) {
+            power *= HASH_MULTIPLIER;
+        }
+        highestPower = power;
+    }
+
+    // Find a common displacement for the changed tiles and mark the ones it fully explains.
+    // Returns the number of covered tiles; the copy instructions are added to the given list.
+    public int detect(BufferedImage image, BufferedImage previous, FrameBuffer grid,
+                      boolean[] changed, boolean[] covered, List<CopyRegion> copies) {
+        int changedCount = 0;
+        for (boolean tileChanged : changed) {
+            if (tileChanged) changedCount++;
+        }
+        if (changedCount < MIN_CHANGED_TILES) {
+            return 0;
+        }
+
+        long vector = findDominantDisplacement(image, previous, grid, changed, changedCount);
+        if (vector == 0) {
+            return 0;
+        }
+        int dx = (int) (vector >> 32);
+        int dy = (int) vector;
+
+        // Verify every changed tile against the displaced previous content
+        int coveredCount = 0;
+        for (int tile = 0; tile < changed.length; tile++) {
+            if (changed[tile] && isCopyOf(image, previous, grid, tile, dx, dy)) {
+                covered[tile] = true;
+                coveredCount++;
+            }
+        }
+
+        // Merge runs of covered tiles within each tile row into a single copy
+        for (int row = 0; row < grid.getRows(); row++) {
+            int runStart = -1;
+            for (int column = 0; column <= grid.getColumns(); column++) {
+                int tile = row * grid.getColumns() + column;
+                boolean inRun = column < grid.getColumns() && covered[tile];
+
+                if (inRun && runStart < 0) {
+                    runStart = tile;
+                } else if (!inRun && runStart >= 0) {
+                    int lastTile = tile - 1;
+                    int x = grid.getTileX(runStart);
+                    int y = grid.getTileY(runStart);
+                    int width = grid.getTileX(lastTile) + grid.getTileWidth(lastTile) - x;
+                    int height = grid.getTileHeight(runStart);
+                    copies.add(new CopyRegion(x - dx, y - dy, width, height, x, y));
+                    runStart = -1;
+                }
+            }
+        }
+
+        return coveredCount;
+    }
+
+    // Vote on the displacement of probe segments taken from evenly spread changed tiles.
+    // Returns the winning (dx, dy) packed into a long, or 0 if there is no clear winner.
+    private long findDominantDisplacement(BufferedImage image, BufferedImage previous, FrameBuffer grid,
+                                          boolean[] changed, int changedCount) {
+        Map<Long, Integer> votes = new HashMap<>();
+        int step = Math.max(1, changedCount / MAX_PROBES);
+        int seen = 0;
+
+        for (int tile = 0; tile < changed.length; tile++) {
+            if (!changed[tile] || seen++ % step != 0) {
+                continue;
+            }
+            if (grid.getTileWidth(tile) < PROBE_LENGTH) {
+                continue;
+            }
+
+            // Probe the middle row of the tile
+            int px = grid.getTileX(tile) + (grid.getTileWidth(tile) - PROBE_LENGTH) / 2;
+            int py = grid.getTileY(tile) + grid.getTileHeight(tile) / 2;
+            Rasters.read(image, px, py, PROBE_LENGTH, 1, probe, 0, PROBE_LENGTH);
+            if (isFlat(probe)) {
+                continue;
+            }
+            searchProbe(previous, px, py, votes);
+        }
+
+        long best = 0;
+        int bestVotes = MIN_VOTES - 1;
+        for (Map.Entry<Long, Integer> entry : votes.entrySet()) {
+            if (entry.getValue() > bestVotes) {
+                best = entry.getKey();
+                bestVotes = entry.getValue();
+            }
+        }
+        return best;
+    }
+
+    // Search the neighbourhood of (px, py) in the previous capture for the probe segment
+    private void searchProbe(BufferedImage previous, int px, int py, Map<Long, Integer> votes) {
+        long probeHash = hash(probe, 0);
+        int left = Math.max(0, px - SEARCH_RANGE);
+        int right = Math.min(previous.getWidth(), px + SEARCH_RANGE + PROBE_LENGTH);
+        int length = right - left;
+
+        int top = Math.max(0, py - SEARCH_RANGE);
+        int bottom = Math.min(previous.getHeight() - 1, py + SEARCH_RANGE);
+
+        for (int y = top; y <= bottom; y++) {
+            Rasters.read(previous, left, y, length, 1, searchRow, 0, length);
+
+            // Rolling hash over every PROBE_LENGTH window of the row
+            long windowHash = hash(searchRow, 0);
+            for (int x = 0; x + PROBE_LENGTH <= length; x++) {
+                if (x > 0) {
+                    windowHash = (windowHash - searchRow[x - 1] * highestPower) * HASH_MULTIPLIER
+                        + searchRow[x + PROBE_LENGTH - 1];
+                }
+
+                if (windowHash == probeHash
+                        && Arrays.equals(probe, 0, PROBE_LENGTH, searchRow, x, x + PROBE_LENGTH)) {
+                    int dx = px - (left + x);
+                    int dy = py - y;
+                    if (dx != 0 || dy != 0) {
+                        votes.merge(((long) dx << 32) | (dy & 0xffffffffL), 1, Integer::sum);
+                    }
+                }
+            }
+        }
+    }
+
+    // True if the tile equals the previous capture displaced by (dx, dy)
+    private boolean isCopyOf(BufferedImage image, BufferedImage previous, FrameBuffer grid,
+                             int tile, int dx, int dy) {
+        int x = grid.getTileX(tile);
+        int y = grid.getTileY(tile);
+        int w = grid.getTileWidth(tile);
+        int h = grid.getTileHeight(tile);
+        int sourceX = x - dx;
+        int sourceY = y - dy;
+
+        if (sourceX < 0 || sourceY < 0 || sourceX + w > previous.getWidth() || sourceY + h > previous.getHeight()) {
+            return false;
+        }
+
+        if (Rasters.canCompare(image, previous)) {
+            return Rasters.regionEquals(image, x, y, previous, sourceX, sourceY, w, h);
+        }
+        image.getRGB(x, y, w, h, tilePixels, 0, w);
+        previous.getRGB(sourceX, sourceY, w, h, sourcePixels, 0, w);
+        return Arrays.equals(tilePixels, 0, w * h, sourcePixels, 0, w * h);
+    }
+
+    private static long hash(int[] pixels, int offset) {
+        long hash = 0;
+        for (int i = 0; i < PROBE_LENGTH; i++) {
+            hash = hash * HASH_MULTIPLIER + pixels[offset + i];
+        }
+        return hash;
+    }
+
+    // Flat segments (solid backgrounds) match everywhere and say nothing about motion
+    private static boolean isFlat(int[] pixels) {
+        int transitions = 0;
+        for (int i = 1; i < pixels.length; i++) {
+            if (pixels[i] != pixels[i - 1]) transitions++;
+        }
+        return transitions < 3;
+    }
+}
\ No newline at end of file
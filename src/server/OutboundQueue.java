@@ -0,0 +1,139 @@
+package src.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+// Messages waiting to be written to one connection, ordered by priority.
+// Each priority is a FIFO of its own and the highest non-empty one is always written next, so a
+// control message or cursor move overtakes screen updates and files queued before it. A message
+// is only taken off the queue when its writing starts; from then on it is written to the end, since
+// the stream can't interleave two frames. A chunked message is queued as one entry per frame, and
+// messages of higher priorities are written between its chunks.
+// A message queued as replaceable is dropped when another replaceable one of the same priority is
+// queued behind it before it started, so only the newest of, say, several cursor positions is written.
+// Not thread-safe; the Connection guards it.
+class OutboundQueue {
+    static class Entry {
+        final Connection.Priority priority;
+        final ByteBuffer data;
+        final boolean replaceable;
+        // The message's first frame
+        final boolean first;
+        // Numbers the queued messages, telling which frames belong together
+        final long message;
+
+        Entry(Connection.Priority priority, ByteBuffer data, boolean replaceable, boolean first, long message) {
+            this.priority = priority;
+            this.data = data;
+            this.replaceable = replaceable;
+            this.first = first;
+            this.message = message;
+        }
+    }
+
+    // One FIFO per priority, highest first
+    private final List<Deque<Entry>> queues = new ArrayList<>();
+    private final long[] queuedBytes;
+    private long totalBytes;
+    private int size;
+    private long messages;
+
+    OutboundQueue() {
+        int priorities = Connection.Priority.values().length;
+        for (int i = 0; i < priorities; i++) {
+            queues.add(new ArrayDeque<>());
+        }
+        queuedBytes = new long[priorities];
+    }
+
+    // Queue a frame; first tells whether it starts a message. Only single-frame messages are replaceable.
+    void add(Connection.Priority priority, ByteBuffer data, boolean replaceable, boolean first) {
+        Deque<Entry> queue = queues.get(priority.ordinal());
+        Entry last = queue.peekLast();
+        if (replaceable && last != null && last.replaceable) {
+            queue.pollLast();
+            remove(last);
+        }
+        if (first) {
+            messages++;
+        }
+        queue.addLast(new Entry(priority, data, replaceable, first, messages));
+        queuedBytes[priority.ordinal()] += data.remaining();
+        totalBytes += data.remaining();
+        size++;
+    }
+
+    // Take back the newest message of a priority, all its frames; false if there is none or its first
+    // frame has already been taken for writing, in which case the rest of it has to be written too
+    boolean withdraw(Connection.Priority priority) {
+        Deque<Entry> queue = queues.get(priority.ordinal());
+        Entry last = queue.peekLast();
+        if (last == null) {
+            return false;
+        }
+        Iterator<Entry> newestFirst = queue.descendingIterator();
+        int frames = 0;
+        while (newestFirst.hasNext()) {
+            Entry entry = newestFirst.next();
+            if (entry.message != last.message) {
+                break;
+            }
+            frames++;
+            if (entry.first) {
+                for (int i = 0; i < frames; i++) {
+                    remove(queue.pollLast());
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Take the next message to write
+    Entry poll() {
+        for (Deque<Entry> queue : queues) {
+            Entry entry = queue.pollFirst();
+            if (entry != null) {
+                remove(entry);
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private void remove(Entry entry) {
+        queuedBytes[entry.priority.ordinal()] -= entry.data.remaining();
+        totalBytes -= entry.data.remaining();
+        size--;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean isEmpty(Connection.Priority priority) {
+        return queues.get(priority.ordinal()).isEmpty();
+    }
+
+    long getBytes() {
+        return totalBytes;
+    }
+
+    long getBytes(Connection.Priority priority) {
+        return queuedBytes[priority.ordinal()];
+    }
+
+    void clear() {
+        for (Deque<Entry> queue : queues) {
+            queue.clear();
+        }
+        Arrays.fill(queuedBytes, 0);
+        totalBytes = 0;
+        size = 0;
+    }
+}
\ No newline at end of file
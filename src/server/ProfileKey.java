@@ -0,0 +1,93 @@
+package src.server;
+
+import src.common.Constants;
+
+import java.util.Objects;
+
+// What a client needs its frames encoded as: downscale divisor, JPEG quality, codec and color depth.
+// Clients asking for equal keys share one EncodeProfile and therefore one encode per frame.
+public class ProfileKey {
+    private final int scale;
+    private final float quality;
+    // TILE_CODEC_PALETTE allows lossless palette tiles with JPEG as fallback, TILE_CODEC_JPEG is JPEG only,
+    // TILE_CODEC_XOR_DELTA sends every tile losslessly as a delta against its previous content
+    private final byte codec;
+    // One of the Constants.COLOR_DEPTH_* values
+    private final byte colorDepth;
+
+    public ProfileKey(int scale, float quality, byte codec, byte colorDepth) {
+        this.scale = scale;
+        // Round so nearly equal qualities share a profile instead of each getting their own.
+        // Delta tiles are lossless, so quality doesn't split them into profiles at all.
+        this.quality = codec == Constants.TILE_CODEC_XOR_DELTA ? 1f : Math.round(quality * 20) / 20f;
+        this.codec = codec;
+        this.colorDepth = colorDepth;
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    public float getQuality() {
+        return quality;
+    }
+
+    public byte getCodec() {
+        return codec;
+    }
+
+    public byte getColorDepth() {
+        return colorDepth;
+    }
+
+    public boolean allowsPalette() {
+        return codec == Constants.TILE_CODEC_PALETTE;
+    }
+
+    public boolean isDeltaCoded() {
+        return codec == Constants.TILE_CODEC_XOR_DELTA;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ProfileKey)) return false;
+        ProfileKey other = (ProfileKey) o;
+        return scale == other.scale && quality == other.quality && codec == other.codec
+            && colorDepth == other.colorDepth;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(scale, quality, codec, colorDepth);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("1/%d q%.2f %s %s", scale, quality, codecName(codec), colorDepthName(colorDepth));
+    }
+
+    public static String codecName(byte codec) {
+        switch (codec) {
+            case Constants.TILE_CODEC_PALETTE:
+                return "palette+jpeg";
+            case Constants.TILE_CODEC_XOR_DELTA:
+                return "xor-delta";
+            default:
+                return "jpeg";
+        }
+    }
+
+    public static String colorDepthName(byte colorDepth) {
+        switch (colorDepth) {
+            case Constants.COLOR_DEPTH_RGB565:
+                return "16-bit";
+            case Constants.COLOR_DEPTH_PALETTE:
+                return "256 colors";
+            case Constants.COLOR_DEPTH_GRAYSCALE:
+                return "grayscale";
+            default:
+                return "24-bit";
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,89 @@
+package src.server;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+// Direct access to the int array behind captured images.
+// BufferedImage.getRGB goes through the color model pixel by pixel; captures are stored as one packed
+// int per pixel, so reading and comparing them are plain array copies and loops instead.
+// Images with any other layout fall back to getRGB.
+public class Rasters {
+    // Backing array of an image with one packed RGB or ARGB int per pixel, or null for any other layout
+    public static int[] getData(BufferedImage image) {
+        int type = image.getType();
+        if (type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_INT_ARGB) {
+            return null;
+        }
+        WritableRaster raster = image.getRaster();
+        if (!(raster.getDataBuffer() instanceof DataBufferInt)
+                || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)) {
+            return null;
+        }
+        return ((DataBufferInt) raster.getDataBuffer()).getData();
+    }
+
+    // Distance between rows in the array returned by getData
+    public static int getStride(BufferedImage image) {
+        return ((SinglePixelPackedSampleModel) image.getRaster().getSampleModel()).getScanlineStride();
+    }
+
+    // Index of pixel (x, y) in the array returned by getData; sub-images start part way into their parent's array
+    public static int getIndex(BufferedImage image, int x, int y) {
+        WritableRaster raster = image.getRaster();
+        return raster.getDataBuffer().getOffset()
+            + (y - raster.getSampleModelTranslateY()) * getStride(image)
+            + (x - raster.getSampleModelTranslateX());
+    }
+
+    // True if regionEquals can compare the two images directly
+    public static boolean canCompare(BufferedImage a, BufferedImage b) {
+        return a.getType() == b.getType() && getData(a) != null && getData(b) != null;
+    }
+
+    // Compare a w x h area at (ax, ay) in one image with one at (bx, by) in another, row by row.
+    // Only for images canCompare accepts.
+    public static boolean regionEquals(BufferedImage a, int ax, int ay, BufferedImage b, int bx, int by, int w, int h) {
+        int[] aData = getData(a);
+        int[] bData = getData(b);
+        int aStride = getStride(a);
+        int bStride = getStride(b);
+        int aIndex = getIndex(a, ax, ay);
+        int bIndex = getIndex(b, bx, by);
+        for (int row = 0; row < h; row++) {
+            if (!Arrays.equals(aData, aIndex, aIndex + w, bData, bIndex, bIndex + w)) {
+                return false;
+            }
+            aIndex += aStride;
+            bIndex += bStride;
+        }
+        return true;
+    }
+
+    // Same result as image.getRGB(x, y, w, h, out, offset, scansize), without the per-pixel conversion
+    public static void read(BufferedImage image, int x, int y, int w, int h, int[] out, int offset, int scansize) {
+        int[] data = getData(image);
+        if (data == null) {
+            image.getRGB(x, y, w, h, out, offset, scansize);
+            return;
+        }
+
+        int stride = getStride(image);
+        int index = getIndex(image, x, y);
+        // getRGB reports opaque pixels for images without alpha, whatever the unused byte holds
+        int alpha = image.getType() == BufferedImage.TYPE_INT_RGB ? 0xFF000000 : 0;
+        for (int row = 0; row < h; row++) {
+            int from = index + row * stride;
+            int to = offset + row * scansize;
+            if (alpha == 0) {
+                System.arraycopy(data, from, out, to, w);
+            } else {
+                for (int i = 0; i < w; i++) {
+                    out[to + i] = data[from + i] | alpha;
+                }
+            }
+        }
+    }
+}
\ No newline at end of file
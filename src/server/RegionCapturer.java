@@ -0,0 +1,205 @@
+package src.server;
+
+import src.common.Constants;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Builds a frame out of a few small captures instead of one of the whole screen.
+// Each frame starts as a copy of the previous one, and only the regions suspected to have changed are
+// captured on top of it: places the ChangeProbe saw change, the tiles the last diff found changed (a
+// changing area usually goes on changing) and the area around recent input. Regions are snapped to
+// the tile grid and merged into a few rectangles, so each is one capture call.
+// Anything outside the regions is assumed unchanged; the probe's periodic full capture corrects
+// whatever that misses. When the regions would cover most of the screen, a full capture is cheaper.
+public class RegionCapturer {
+    private static final int GRID = Constants.TILE_SIZE;
+    // Above this share of the screen one full capture beats several partial ones
+    private static final double MAX_PARTIAL_SHARE = 0.5;
+    // Unmarked tiles between two runs in a row that still get captured with them
+    private static final int MERGE_GAP = 2;
+
+    // The last frame, full or composed, that the next one is built on
+    private BufferedImage lastFrame;
+    private ImagePool lastFramePool;
+
+    // Reused from frame to frame
+    private boolean[] marked = new boolean[0];
+    private final List<Rectangle> regions = new ArrayList<>();
+    // Whether the last composed frame differs from the one it was built on
+    private boolean changed;
+
+    private volatile long partialFrames;
+    private volatile long capturedPixels;
+    private volatile long screenPixels;
+
+    // Remember a frame to build the next one on, holding a pool reference to it
+    public void setLastFrame(BufferedImage frame, ImagePool pool) {
+        pool.retain(frame);
+        if (lastFrame != null) {
+            lastFramePool.release(lastFrame);
+        }
+        lastFrame = frame;
+        lastFramePool = pool;
+    }
+
+    // Compose a frame from the previous one and captures of the suspect regions, or return null if
+    // a full capture is needed instead. The caller holds one reference to the result.
+    public BufferedImage capture(CaptureSource source, Rectangle area, List<Rectangle> hints,
+                                 CapturedFrame lastDiff, ImagePool pool) {
+        if (lastFrame == null || lastFrame.getWidth() != area.width || lastFrame.getHeight() != area.height) {
+            return null;
+        }
+
+        int columns = (area.width + GRID - 1) / GRID;
+        int rows = (area.height + GRID - 1) / GRID;
+        if (marked.length != columns * rows) {
+            marked = new boolean[columns * rows];
+        } else {
+            Arrays.fill(marked, false);
+        }
+
+        for (Rectangle hint : hints) {
+            mark(hint.x, hint.y, hint.width, hint.height, columns, rows);
+        }
+        // The diff's grid matches this one whenever the screen size hasn't changed since.
+        // Its tiles are widened by one on every side, since moving content spreads into its neighbours.
+        if (lastDiff != null && lastDiff.getFrameBuffer().getColumns() == columns
+                && lastDiff.getFrameBuffer().getRows() == rows) {
+            boolean[] changed = lastDiff.getChangedTiles();
+            for (int tile = 0; tile < changed.length; tile++) {
+                if (changed[tile]) {
+                    mark((tile % columns - 1) * GRID, (tile / columns - 1) * GRID, 3 * GRID, 3 * GRID, columns, rows);
+                }
+            }
+        }
+
+        long pixels = buildRegions(columns, rows, area);
+        if (pixels > MAX_PARTIAL_SHARE * area.width * area.height) {
+            return null;
+        }
+
+        BufferedImage frame = pool.acquire(area.width, area.height);
+        copy(lastFrame, frame);
+        source.captureRegions(area, regions, frame);
+
+        changed = false;
+        for (int i = 0; i < regions.size() && !changed; i++) {
+            Rectangle region = regions.get(i);
+            changed = !Rasters.canCompare(frame, lastFrame) || !Rasters.regionEquals(frame, region.x, region.y,
+                lastFrame, region.x, region.y, region.width, region.height);
+        }
+
+        partialFrames++;
+        capturedPixels += pixels;
+        screenPixels += (long) area.width * area.height;
+        return frame;
+    }
+
+    // Note a full capture, for the share of the screen partial frames saved
+    public void recordFullCapture(Rectangle area) {
+        long pixels = (long) area.width * area.height;
+        capturedPixels += pixels;
+        screenPixels += pixels;
+    }
+
+    private void mark(int x, int y, int w, int h, int columns, int rows) {
+        int left = Math.max(0, Math.floorDiv(x, GRID));
+        int top = Math.max(0, Math.floorDiv(y, GRID));
+        int right = Math.min(columns - 1, Math.floorDiv(x + w - 1, GRID));
+        int bottom = Math.min(rows - 1, Math.floorDiv(y + h - 1, GRID));
+        for (int row = top; row <= bottom; row++) {
+            for (int column = left; column <= right; column++) {
+                marked[row * columns + column] = true;
+            }
+        }
+    }
+
+    // Turn the marked tiles into rectangles: runs of marked tiles in each tile row, each extended
+    // downwards while the next row has a run over the same columns. Returns the pixels covered.
+    private long buildRegions(int columns, int rows, Rectangle area) {
+        regions.clear();
+        long pixels = 0;
+        for (int row = 0; row < rows; row++) {
+            int y = row * GRID;
+            int height = Math.min(GRID, area.height - y);
+            int column = 0;
+            while (column < columns) {
+                if (!marked[row * columns + column]) {
+                    column++;
+                    continue;
+                }
+
+                // Short gaps are captured along with the run, which is cheaper than another call
+                int first = column;
+                int last = column;
+                for (int next = column + 1; next < columns && next <= last + MERGE_GAP + 1; next++) {
+                    if (marked[row * columns + next]) {
+                        last = next;
+                    }
+                }
+                column = last + 1;
+
+                int x = first * GRID;
+                int width = Math.min((last + 1) * GRID, area.width) - x;
+                Rectangle above = null;
+                for (Rectangle region : regions) {
+                    if (region.x == x && region.width == width && region.y + region.height == y) {
+                        above = region;
+                        break;
+                    }
+                }
+                if (above != null) {
+                    above.height += height;
+                } else {
+                    regions.add(new Rectangle(x, y, width, height));
+                }
+                pixels += (long) width * height;
+            }
+        }
+        return pixels;
+    }
+
+    private static void copy(BufferedImage from, BufferedImage to) {
+        int[] source = Rasters.getData(from);
+        int[] target = Rasters.getData(to);
+        if (source != null && target != null && from.getType() == to.getType()
+                && Rasters.getStride(from) == from.getWidth() && Rasters.getStride(to) == to.getWidth()
+                && Rasters.getIndex(from, 0, 0) == 0 && Rasters.getIndex(to, 0, 0) == 0) {
+            System.arraycopy(source, 0, target, 0, from.getWidth() * from.getHeight());
+            return;
+        }
+        for (int y = 0; y < from.getHeight(); y++) {
+            Rasters.read(from, 0, y, from.getWidth(), 1, target, Rasters.getIndex(to, 0, y), Rasters.getStride(to));
+        }
+    }
+
+    // Regions captured for the last composed frame
+    public List<Rectangle> getRegions() {
+        return regions;
+    }
+
+    // True if anything in the last composed frame's regions changed
+    public boolean hasChanged() {
+        return changed;
+    }
+
+    // Frames that were composed from partial captures
+    public long getPartialFrames() {
+        return partialFrames;
+    }
+
+    // Share of the screen's pixels actually captured, over full and partial captures alike
+    public double getCapturedShare() {
+        return screenPixels == 0 ? 1 : capturedPixels / (double) screenPixels;
+    }
+
+    public void resetStats() {
+        partialFrames = 0;
+        capturedPixels = 0;
+        screenPixels = 0;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,47 @@
+package src.server;
+
+import java.awt.AWTException;
+import java.awt.GraphicsDevice;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.awt.Robot;
+import java.awt.image.BufferedImage;
+
+// Captures the local desktop, spanning all screens.
+// Robot has no way to capture into an existing image, so every capture is a new one and the pool goes unused.
+public class RobotCaptureSource implements CaptureSource {
+    // Rows sampled per probe. Each is a createScreenCapture of its own, which costs a round trip to the
+    // window system whatever its size, while one strip spanning several probed rows reads about as many
+    // pixels as a full capture. So rows are still grabbed one by one, but only this many per tick.
+    private static final int MAX_SAMPLE_ROWS = 8;
+
+    private final Robot robot;
+    private final Rectangle bounds;
+
+    public RobotCaptureSource() throws AWTException {
+        robot = new Robot();
+
+        // Calculate total screen bounds
+        GraphicsEnvironment ge = GraphicsEnvironment.getLocalGraphicsEnvironment();
+        Rectangle totalBounds = new Rectangle();
+        for (GraphicsDevice screen : ge.getScreenDevices()) {
+            totalBounds = totalBounds.union(screen.getDefaultConfiguration().getBounds());
+        }
+        bounds = totalBounds;
+    }
+
+    @Override
+    public Rectangle getBounds() {
+        return new Rectangle(bounds);
+    }
+
+    @Override
+    public BufferedImage capture(Rectangle area) {
+        return robot.createScreenCapture(area);
+    }
+
+    @Override
+    public int getMaxSampleRows() {
+        return MAX_SAMPLE_ROWS;
+    }
+}
\ No newline at end of file
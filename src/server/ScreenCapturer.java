@@ -2,29 +2,25 @@ package src.server;
 
 import src.common.Constants;
 
-import javax.imageio.IIOImage;
-import javax.imageio.ImageIO;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.ImageWriter;
-import javax.imageio.stream.MemoryCacheImageOutputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.util.Iterator;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.List;
 
 public class ScreenCapturer {
-    private Robot robot;
+    private CaptureSource source;
     private Rectangle screenRect;
-    private boolean isCapturing;
-    private byte[] latestScreenshot;
-    private int currentFps = Constants.DEFAULT_FPS;
+    // How long the idle capturer waits for a subscriber before checking whether it was stopped
+    private static final long IDLE_WAIT_MS = 500;
+
+    private volatile boolean isCapturing;
+    private volatile boolean idle;
+    private Thread captureThread;
+    private FramePipeline pipeline = new FramePipeline(new TileEncoder());
+    private volatile int currentFps = Constants.DEFAULT_FPS;
+    private final FrameScheduler scheduler = new FrameScheduler(Constants.DEFAULT_FPS);
+    private final ChangeProbe changeProbe = new ChangeProbe();
+    private final RegionCapturer regionCapturer = new RegionCapturer();
     private boolean autoAdjustFps = true; // Add flag to control auto-adjustment
-    
-    // Performance monitoring
-    private AtomicLong lastTransmissionTime = new AtomicLong(0);
-    private AtomicLong transmissionDuration = new AtomicLong(0);
 
     public void setTargetFps(int fps) {
         this.currentFps = Math.max(Constants.MIN_FPS, Math.min(Constants.MAX_FPS, fps));
@@ -38,73 +34,61 @@ public class ScreenCapturer {
 
     public ScreenCapturer() {
         try {
-            robot = new Robot();
-            
-            // Get screen size
-            GraphicsEnvironment ge = GraphicsEnvironment.getLocalGraphicsEnvironment();
-            GraphicsDevice[] screens = ge.getScreenDevices();
-            
-            // Calculate total screen bounds
-            Rectangle totalBounds = new Rectangle();
-            for (GraphicsDevice screen : screens) {
-                Rectangle bounds = screen.getDefaultConfiguration().getBounds();
-                totalBounds = totalBounds.union(bounds);
-            }
-            
-            screenRect = totalBounds;
-            
+            source = new RobotCaptureSource();
+            screenRect = source.getBounds();
         } catch (AWTException e) {
             e.printStackTrace();
         }
     }
     
+    // Capture from something other than the local screen, e.g. a SyntheticCaptureSource when headless
+    public ScreenCapturer(CaptureSource source) {
+        this.source = source;
+        this.screenRect = source.getBounds();
+    }
+    
     public void startCapturing() {
         if (isCapturing) return;
         
         isCapturing = true;
+        pipeline.start();
         
-        new Thread(() -> {
-            long lastCaptureTime = System.currentTimeMillis();
+        captureThread = new Thread(() -> {
+            EncodeCache encodeCache = pipeline.getEncodeCache();
             
             while (isCapturing) {
                 try {
-                    // Calculate proper frame interval in milliseconds
-                    long frameInterval = 1000 / currentFps;
-                    
-                    // Capture screen
-                    BufferedImage screenshot = robot.createScreenCapture(screenRect);
+                    // Nobody is watching: stop capturing and encoding until a sender subscribes again
+                    if (encodeCache.getActiveProfiles().length == 0) {
+                        idle = true;
+                        pipeline.stop();
+                        while (!encodeCache.awaitSubscribers(IDLE_WAIT_MS)) { }
+                        pipeline.start();
+                        scheduler.restart();
+                        changeProbe.reset();
+                        idle = false;
+                    }
                     
-                    // Compress and convert to bytes
-                    long startTime = System.currentTimeMillis();
-                    latestScreenshot = compressImage(screenshot);
+                    // Wait for this frame's deadline; deadlines missed by a slow capture are skipped
+                    scheduler.setFps(currentFps);
+                    scheduler.awaitNextFrame();
                     
-                    // Calculate compression time
-                    long compressionTime = System.currentTimeMillis() - startTime;
+                    // Capture screen and hand it to the encoders, unless they are still backed up
+                    // or a cheap probe shows the screen hasn't changed
+                    if (pipeline.hasCapacity()) {
+                        captureFrame();
+                    } else {
+                        pipeline.recordSkippedCapture();
+                    }
                     
-                    // Get transmission time from the last frame
-                    long transmissionTime = transmissionDuration.get();
+                    // Per-frame cost of the slowest pipeline stage. Network speed is handled
+                    // per client by each connection's BitrateController, not by the capture rate.
+                    long compressionTime = (long) pipeline.getBottleneckMillis();
                     
                     // Adjust frame rate based on performance if auto-adjustment is enabled
                     if (autoAdjustFps) {
-                        adjustFrameRate(compressionTime + transmissionTime);
+                        adjustFrameRate(compressionTime);
                     }
-                    
-                    // Reset transmission time for next frame
-                    lastTransmissionTime.set(System.currentTimeMillis());
-                    
-                    // Calculate how long to sleep to maintain desired frame rate
-                    long currentTime = System.currentTimeMillis();
-                    long elapsedTime = currentTime - lastCaptureTime;
-                    long sleepTime = Math.max(0, frameInterval - elapsedTime);
-                    
-                    // Sleep for the calculated time
-                    if (sleepTime > 0) {
-                        Thread.sleep(sleepTime);
-                    }
-                    
-                    // Update last capture time for next frame calculation
-                    lastCaptureTime = System.currentTimeMillis();
-                    
                 } catch (InterruptedException e) {
                     // Thread interrupted, exit gracefully
                     break;
@@ -112,52 +96,98 @@ public class ScreenCapturer {
                     e.printStackTrace();
                 }
             }
-        }).start();
+        }, "ScreenCapturer");
+        captureThread.start();
     }
     
+    // Capture the whole screen, or only the parts the probe and the last diff suggest changed
+    private void captureFrame() {
+        long captureStart = System.nanoTime();
+        Rectangle area = screenRect;
+        ImagePool imagePool = pipeline.getImagePool();
+        ChangeProbe.Capture capture = changeProbe.decide(source, area,
+            pipeline.getEncodeCache().getActiveProfiles(), captureStart);
+        if (capture == ChangeProbe.Capture.NONE) {
+            return;
+        }
+
+        BufferedImage screenshot = null;
+        if (capture == ChangeProbe.Capture.REGIONS) {
+            screenshot = regionCapturer.capture(source, area, changeProbe.getHints(),
+                pipeline.getLastDiffedFrame(), imagePool);
+        }
+        if (screenshot != null) {
+            changeProbe.recordPartialCapture(screenshot, regionCapturer.getRegions(), regionCapturer.hasChanged());
+        } else {
+            screenshot = source.capture(area, imagePool);
+            regionCapturer.recordFullCapture(area);
+            changeProbe.recordCapture(screenshot, area, captureStart);
+        }
+
+        regionCapturer.setLastFrame(screenshot, imagePool);
+        pipeline.submit(screenshot, captureStart);
+        imagePool.release(screenshot);
+    }
+
     public void stopCapturing() {
         isCapturing = false;
-    }
-    
-    public byte[] getScreenshot() {
-        // Record when this screenshot is transmitted
-        long transmissionStart = System.currentTimeMillis();
-        long lastTransmission = lastTransmissionTime.get();
         
-        if (lastTransmission > 0) {
-            // Calculate and store how long it took to transmit
-            transmissionDuration.set(transmissionStart - lastTransmission);
+        // Let the capture thread finish first so it can't restart the pipeline behind our back
+        if (captureThread != null) {
+            captureThread.interrupt();
+            try {
+                captureThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            captureThread = null;
         }
-        
-        return latestScreenshot;
+        pipeline.stop();
+        idle = false;
     }
     
-    private byte[] compressImage(BufferedImage image) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        
-        // Get JPEG writer
-        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
-        if (!writers.hasNext()) {
-            throw new IOException("No JPEG writer found");
-        }
-        
-        ImageWriter writer = writers.next();
-        ImageWriteParam param = writer.getDefaultWriteParam();
-        
-        // Set compression quality
-        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-        param.setCompressionQuality(Constants.JPEG_QUALITY);
-        
-        // Write image
-        MemoryCacheImageOutputStream outputStream = new MemoryCacheImageOutputStream(baos);
-        writer.setOutput(outputStream);
-        writer.write(null, new IIOImage(image, null, null), param);
-        
-        // Clean up
-        writer.dispose();
-        outputStream.close();
-        
-        return baos.toByteArray();
+    // True while capture is paused because no client wants frames
+    public boolean isIdle() {
+        return idle;
+    }
+    
+    // Called for every input event injected into the desktop, which is likely to change the screen
+    // around the pointer at (x, y)
+    public void onInputInjected(int x, int y) {
+        changeProbe.onInput(x, y);
+    }
+
+    public ChangeProbe getChangeProbe() {
+        return changeProbe;
+    }
+
+    public RegionCapturer getRegionCapturer() {
+        return regionCapturer;
+    }
+
+    public EncodeCache getEncodeCache() {
+        return pipeline.getEncodeCache();
+    }
+    
+    public void wakeScreenSenders() {
+        pipeline.wakeSenders();
+    }
+    
+    // Wait for a frame of the client's profile newer than the one it last received
+    public FrameBuffer awaitFrame(EncodeProfile profile, long afterSequence, long timeoutMillis) throws InterruptedException {
+        return pipeline.awaitFrame(profile, afterSequence, timeoutMillis);
+    }
+    
+    public FrameBuffer pollFrame(EncodeProfile profile, long afterSequence) {
+        return pipeline.pollFrame(profile, afterSequence);
+    }
+    
+    public void addScreenSenderListener(Runnable listener) {
+        pipeline.addSenderListener(listener);
+    }
+    
+    public void removeScreenSenderListener(Runnable listener) {
+        pipeline.removeSenderListener(listener);
     }
     
     private void adjustFrameRate(long processingTimeMs) {
@@ -186,10 +216,19 @@ public class ScreenCapturer {
         return screenRect;
     }
     
+    public List<StageMetrics> getPipelineMetrics() {
+        return pipeline.getStageMetrics();
+    }
+    
     public int getCurrentFps() {
         return currentFps;
     }
     
+    // Cadence actually achieved by the capture loop
+    public FrameScheduler getScheduler() {
+        return scheduler;
+    }
+    
     public boolean isAutoAdjustFps() {
         return autoAdjustFps;
     }
@@ -1,19 +1,18 @@
 package src.server;
 
 import src.common.Constants;
+import src.common.CursorShape;
 import src.common.Message;
 
+import java.awt.Rectangle;
 import java.io.IOException;
-import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import org.bson.types.ObjectId;
 
 public class Server {
-    private ServerSocket serverSocket;
+    private ConnectionEngine connectionEngine;
     private String ipAddress;
     private int port;
     private String password;
@@ -21,6 +20,7 @@ public class Server {
     private ScreenCapturer screenCapturer;
     private ChatManager chatManager;
     private InputHandler inputHandler;
+    private CursorTracker cursorTracker;
     private org.bson.types.ObjectId currentSessionId;
     
     private ConcurrentHashMap<String, ClientHandler> connectedClients;
@@ -60,7 +60,8 @@ public class Server {
         
         this.screenCapturer = new ScreenCapturer();
         this.chatManager = new ChatManager();
-        this.inputHandler = new InputHandler();
+        this.inputHandler = new InputHandler(screenCapturer::onInputInjected);
+        this.cursorTracker = new CursorTracker(screenCapturer::getScreenRect, this::broadcastCursor);
     }
     
     public void startServer(String ipAddress, int port, String password) {
@@ -72,35 +73,30 @@ public class Server {
             return;
         }
         
-        new Thread(() -> {
-            try {
-                serverSocket = new ServerSocket(port, 50, InetAddress.getByName(ipAddress));
-                isListening = true;
-                
-                // Notify listeners that server started
-                for (ServerEventListener listener : listeners) {
-                    listener.onServerStarted();
-                }
-                
-                // Start screen capturing
-                screenCapturer.startCapturing();
-                
-                // Accept client connections
-                while (isListening) {
-                    Socket clientSocket = serverSocket.accept();
-                    
-                    // Create client handler
-                    new ClientHandler(this, clientSocket);
-                }
-            } catch (IOException e) {
-                // Notify listeners of failure
-                for (ServerEventListener listener : listeners) {
-                    listener.onServerError(e.getMessage());
-                }
-            } finally {
-                stopServer();
+        try {
+            // A few I/O threads serve every client; each connection gets its handler as it is accepted
+            connectionEngine = new ConnectionEngine(connection -> new ClientHandler(this, connection));
+            connectionEngine.start(ipAddress, port);
+            isListening = true;
+            
+            // Notify listeners that server started
+            for (ServerEventListener listener : listeners) {
+                listener.onServerStarted();
+            }
+            
+            // Start screen capturing and pointer tracking; both idle until a client wants them
+            screenCapturer.startCapturing();
+            cursorTracker.start();
+        } catch (IOException e) {
+            // Notify listeners of failure
+            for (ServerEventListener listener : listeners) {
+                listener.onServerError(e.getMessage());
             }
-        }).start();
+            if (connectionEngine != null) {
+                connectionEngine.stop();
+            }
+            stopServer();
+        }
     }
     
     public void stopServer() {
@@ -112,6 +108,7 @@ public class Server {
         
         // Stop screen capturing
         screenCapturer.stopCapturing();
+        cursorTracker.stop();
         
         // Disconnect all clients
         for (ClientHandler handler : connectedClients.values()) {
@@ -120,14 +117,8 @@ public class Server {
         
         connectedClients.clear();
         
-        // Close server socket
-        try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
-            }
-        } catch (IOException e) {
-            // Silent close
-        }
+        // Stop accepting and close the I/O threads
+        connectionEngine.stop();
         
         // Notify listeners
         for (ServerEventListener listener : listeners) {
@@ -254,39 +245,43 @@ public class Server {
         }
     }
     
-    public void processInputEvent(Message message) {
-        String sender = message.getSender();
-        
-        // Only process input if sender has control
-        if (sender.equals(clientWithControl)) {
-            // Process mouse/keyboard events
-            if (message.getType() == Constants.MESSAGE_TYPE_MOUSE) {
-                inputHandler.handleMouseEvent(message.getContent(), message.getData());
-            } else if (message.getType() == Constants.MESSAGE_TYPE_KEYBOARD) {
-                inputHandler.handleKeyboardEvent(message.getContent(), message.getData());
-            }
-            
-            // Notify listeners (for logging/debugging purposes)
-            for (ServerEventListener listener : listeners) {
-                if (message.getType() == Constants.MESSAGE_TYPE_MOUSE) {
-                    listener.onMouseEvent(message.getContent(), message.getData());
-                } else if (message.getType() == Constants.MESSAGE_TYPE_KEYBOARD) {
-                    listener.onKeyboardEvent(message.getContent(), message.getData());
-                }
-            }
-        }
-    }
-    
     public boolean isNameTaken(String name) {
         return connectedClients.containsKey(name);
     }
     
     public void clientConnected(ClientHandler handler) {
         addClient(handler.getClientName(), handler);
+        updateCursorDemand();
+        
+        // Show the pointer right away instead of waiting for it to move
+        if (cursorTracker.getX() >= 0) {
+            handler.sendCursor(cursorTracker.getX(), cursorTracker.getY(), cursorTracker.getShape());
+        }
+    }
+    
+    // Pointer moves go straight to every client, independently of screen frames
+    private void broadcastCursor(int x, int y, CursorShape shape) {
+        for (ClientHandler handler : connectedClients.values()) {
+            handler.sendCursor(x, y, shape);
+        }
     }
     
     public void clientDisconnected(ClientHandler handler) {
         removeClient(handler.getClientName());
+        updateCursorDemand();
+    }
+    
+    // Only poll the pointer while a connected client draws it. Synchronized so that concurrent
+    // connects and disconnects can't leave the tracker set from an outdated view of the clients.
+    private synchronized void updateCursorDemand() {
+        boolean wanted = false;
+        for (ClientHandler handler : connectedClients.values()) {
+            if (handler.wantsCursor()) {
+                wanted = true;
+                break;
+            }
+        }
+        cursorTracker.setWanted(wanted);
     }
     
     public void broadcastChatMessage(String sender, String message) {
@@ -308,16 +303,55 @@ public class Server {
         broadcastMessage(fileMessage);
     }
     
-    public void handleMouseEvent(String eventType, byte[] data) {
-        inputHandler.handleMouseEvent(eventType, data);
+    // A batch of InputEvents records from the client in control
+    public void handleInput(byte[] batch) {
+        inputHandler.handleInput(batch);
+    }
+    
+    public Rectangle getScreenRect() {
+        return screenCapturer.getScreenRect();
+    }
+    
+    public EncodeCache getEncodeCache() {
+        return screenCapturer.getEncodeCache();
+    }
+    
+    // Let screen senders notice a changed viewport without waiting for the next frame
+    public void wakeScreenSenders() {
+        screenCapturer.wakeScreenSenders();
+    }
+    
+    public FrameBuffer awaitFrame(EncodeProfile profile, long afterSequence, long timeoutMillis) throws InterruptedException {
+        return screenCapturer.awaitFrame(profile, afterSequence, timeoutMillis);
+    }
+    
+    public FrameBuffer pollFrame(EncodeProfile profile, long afterSequence) {
+        return screenCapturer.pollFrame(profile, afterSequence);
+    }
+    
+    // Called on every publish and wake-up, for senders that don't wait in awaitFrame
+    public void addScreenSenderListener(Runnable listener) {
+        screenCapturer.addScreenSenderListener(listener);
+    }
+    
+    public void removeScreenSenderListener(Runnable listener) {
+        screenCapturer.removeScreenSenderListener(listener);
+    }
+    
+    public ConnectionEngine getConnectionEngine() {
+        return connectionEngine;
+    }
+    
+    public List<StageMetrics> getPipelineMetrics() {
+        return screenCapturer.getPipelineMetrics();
     }
     
-    public void handleKeyboardEvent(String eventType, byte[] data) {
-        inputHandler.handleKeyboardEvent(eventType, data);
+    public int getCurrentFps() {
+        return screenCapturer.getCurrentFps();
     }
     
-    public byte[] getScreenshot() {
-        return screenCapturer.getScreenshot();
+    public FrameScheduler getCaptureScheduler() {
+        return screenCapturer.getScheduler();
     }
     
     public String getPassword() {
@@ -0,0 +1,65 @@
+package src.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+// Throughput, latency and queue-depth counters for one stage of the frame pipeline
+public class StageMetrics {
+    // Weight of the newest sample in the moving average
+    private static final double SMOOTHING = 0.1;
+
+    private final String name;
+    private final IntSupplier queueDepth;
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile double averageLatencyNanos;
+    private volatile long maxLatencyNanos;
+
+    public StageMetrics(String name, IntSupplier queueDepth) {
+        this.name = name;
+        this.queueDepth = queueDepth;
+    }
+
+    public synchronized void record(long latencyNanos) {
+        processed.incrementAndGet();
+        averageLatencyNanos = averageLatencyNanos == 0
+            ? latencyNanos
+            : averageLatencyNanos + SMOOTHING * (latencyNanos - averageLatencyNanos);
+        maxLatencyNanos = Math.max(maxLatencyNanos, latencyNanos);
+    }
+
+    public void recordDropped() {
+        dropped.incrementAndGet();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth.getAsInt();
+    }
+
+    public long getProcessedCount() {
+        return processed.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public double getAverageLatencyMillis() {
+        return averageLatencyNanos / 1_000_000.0;
+    }
+
+    public double getMaxLatencyMillis() {
+        return maxLatencyNanos / 1_000_000.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: processed=%d dropped=%d queue=%d avg=%.2fms max=%.2fms",
+            name, getProcessedCount(), getDroppedCount(), getQueueDepth(),
+            getAverageLatencyMillis(), getMaxLatencyMillis());
+    }
+}
\ No newline at end of file
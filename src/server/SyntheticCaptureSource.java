@@ -0,0 +1,351 @@
+package src.server;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.List;
+import java.util.Random;
+
+// Generates desktop-like frames for headless runs and reproducible benchmarks.
+// Each scenario mimics a typical workload, and the same seed always gives the same sequence of
+// frames. Text is drawn as glyph-sized blocks rather than with fonts, since font rendering
+// differs between machines.
+public class SyntheticCaptureSource implements CaptureSource {
+    public enum Scenario {
+        // A caret appending characters to a text editor
+        TYPING,
+        // A long page scrolling by a few pixels per frame
+        SCROLLING,
+        // A window playing video, repainted entirely on every frame
+        VIDEO,
+        // A static desktop where only the clock changes now and then
+        IDLE
+    }
+
+    private static final int GLYPH_WIDTH = 7;
+    private static final int GLYPH_HEIGHT = 12;
+    private static final int LINE_HEIGHT = 18;
+    private static final int TITLE_BAR_HEIGHT = 28;
+    private static final int TASKBAR_HEIGHT = 40;
+    private static final int SCROLL_STEP = 6;
+    private static final int CLOCK_PERIOD = 60;
+
+    private final Scenario scenario;
+    private final int width;
+    private final int height;
+    private final long seed;
+    private final Random random;
+
+    // The desktop without the scenario's changing content
+    private final BufferedImage desktop;
+    private final Rectangle window;
+    private BufferedImage content;
+    private int frame;
+    // Frame rendered for a probe; the next capture returns it, so every tick advances by one frame
+    private BufferedImage probedFrame;
+    private boolean probePending;
+
+    // Typing state
+    private int caretX;
+    private int caretY;
+
+    public SyntheticCaptureSource(Scenario scenario, int width, int height, long seed) {
+        this.scenario = scenario;
+        this.width = width;
+        this.height = height;
+        this.seed = seed;
+        this.random = new Random(seed);
+
+        window = new Rectangle(width / 8, height / 10, width * 3 / 4, (height - TASKBAR_HEIGHT) * 3 / 4);
+        desktop = createDesktop();
+
+        Rectangle client = getClientArea();
+        switch (scenario) {
+            case TYPING:
+                content = new BufferedImage(client.width, client.height, BufferedImage.TYPE_INT_RGB);
+                fill(content, Color.WHITE);
+                caretX = 8;
+                caretY = 8;
+                break;
+            case SCROLLING:
+                content = createPage(client.width, client.height * 4);
+                break;
+            case VIDEO:
+                content = new BufferedImage(client.width, client.height, BufferedImage.TYPE_INT_RGB);
+                break;
+            default:
+                break;
+        }
+    }
+
+    public Scenario getScenario() {
+        return scenario;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getFrameNumber() {
+        return frame;
+    }
+
+    @Override
+    public Rectangle getBounds() {
+        return new Rectangle(0, 0, width, height);
+    }
+
+    @Override
+    public BufferedImage capture(Rectangle area) {
+        return capture(area, null);
+    }
+
+    // Renders the next frame of the scenario into a pooled image, unless a probe already rendered it
+    @Override
+    public BufferedImage capture(Rectangle area, ImagePool pool) {
+        BufferedImage image = pool != null ? pool.acquire(area.width, area.height)
+            : new BufferedImage(area.width, area.height, BufferedImage.TYPE_INT_RGB);
+        if (!probePending) {
+            render(image, area);
+            return image;
+        }
+
+        probePending = false;
+        int[] data = Rasters.getData(image);
+        for (int y = 0; y < area.height; y++) {
+            Rasters.read(probedFrame, area.x, area.y + y, area.width, 1, data, Rasters.getIndex(image, 0, y),
+                Rasters.getStride(image));
+        }
+        return image;
+    }
+
+    // All regions come from the same frame, so the scenario moves on by one frame per call
+    @Override
+    public void captureRegions(Rectangle area, List<Rectangle> regions, BufferedImage image) {
+        if (!probePending) {
+            if (probedFrame == null) {
+                probedFrame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            }
+            render(probedFrame, getBounds());
+        }
+        probePending = false;
+
+        int[] data = Rasters.getData(image);
+        for (Rectangle region : regions) {
+            Rasters.read(probedFrame, area.x + region.x, area.y + region.y, region.width, region.height, data,
+                Rasters.getIndex(image, region.x, region.y), Rasters.getStride(image));
+        }
+    }
+
+    // Probing also moves the scenario on by a frame, as time would pass on a real screen
+    @Override
+    public void sampleRows(Rectangle area, int[] rows, int[] out) {
+        if (probedFrame == null) {
+            probedFrame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+        render(probedFrame, getBounds());
+        probePending = true;
+        for (int i = 0; i < rows.length; i++) {
+            Rasters.read(probedFrame, area.x, area.y + rows[i], area.width, 1, out, i * area.width, area.width);
+        }
+    }
+
+    private void render(BufferedImage image, Rectangle area) {
+        Graphics2D g = image.createGraphics();
+        g.translate(-area.x, -area.y);
+        g.drawImage(desktop, 0, 0, null);
+
+        Rectangle client = getClientArea();
+        switch (scenario) {
+            case TYPING:
+                typeNextGlyph();
+                g.drawImage(content, client.x, client.y, null);
+                // Caret blinks every half second at 60 fps
+                if ((frame / 30) % 2 == 0) {
+                    g.setColor(Color.BLACK);
+                    g.fillRect(client.x + caretX, client.y + caretY - 2, 2, LINE_HEIGHT - 2);
+                }
+                break;
+            case SCROLLING:
+                int offset = (frame * SCROLL_STEP) % (content.getHeight() - client.height);
+                g.drawImage(content.getSubimage(0, offset, client.width, client.height), client.x, client.y, null);
+                break;
+            case VIDEO:
+                renderVideoFrame();
+                g.drawImage(content, client.x, client.y, null);
+                break;
+            default:
+                break;
+        }
+
+        drawClock(g, frame / CLOCK_PERIOD);
+        g.dispose();
+
+        frame++;
+    }
+
+    private Rectangle getClientArea() {
+        return new Rectangle(window.x + 1, window.y + TITLE_BAR_HEIGHT,
+            window.width - 2, window.height - TITLE_BAR_HEIGHT - 1);
+    }
+
+    private BufferedImage createDesktop() {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+
+        // Wallpaper with a soft vertical gradient
+        for (int y = 0; y < height; y += 4) {
+            int shade = 60 + 60 * y / height;
+            g.setColor(new Color(20, shade / 2, shade));
+            g.fillRect(0, y, width, 4);
+        }
+
+        // Desktop icons
+        for (int i = 0; i < 6; i++) {
+            g.setColor(new Color(random.nextInt(0xFFFFFF)));
+            g.fillRect(20, 20 + i * 80, 48, 48);
+            drawGlyphs(g, 16, 74 + i * 80, 8, Color.WHITE);
+        }
+
+        // Taskbar
+        g.setColor(new Color(32, 32, 36));
+        g.fillRect(0, height - TASKBAR_HEIGHT, width, TASKBAR_HEIGHT);
+        for (int i = 0; i < 5; i++) {
+            g.setColor(new Color(70 + i * 10, 70, 90));
+            g.fillRect(60 + i * 48, height - TASKBAR_HEIGHT + 6, 36, 28);
+        }
+
+        // Application window with a title bar
+        g.setColor(new Color(90, 90, 90));
+        g.drawRect(window.x, window.y, window.width - 1, window.height - 1);
+        g.setColor(new Color(45, 85, 150));
+        g.fillRect(window.x + 1, window.y + 1, window.width - 2, TITLE_BAR_HEIGHT - 1);
+        drawGlyphs(g, window.x + 10, window.y + 8, 24, Color.WHITE);
+        g.setColor(new Color(240, 240, 240));
+        g.fillRect(window.x + 1, window.y + TITLE_BAR_HEIGHT, window.width - 2, window.height - TITLE_BAR_HEIGHT - 1);
+
+        g.dispose();
+        return image;
+    }
+
+    // A long document of paragraphs and pictures to scroll through
+    private BufferedImage createPage(int pageWidth, int pageHeight) {
+        BufferedImage page = new BufferedImage(pageWidth, pageHeight, BufferedImage.TYPE_INT_RGB);
+        fill(page, Color.WHITE);
+        Graphics2D g = page.createGraphics();
+
+        int y = 16;
+        while (y < pageHeight - 200) {
+            if (random.nextInt(4) == 0) {
+                // Picture with a few coloured shapes on it
+                int pictureHeight = 120 + random.nextInt(80);
+                g.setColor(new Color(random.nextInt(0xFFFFFF)));
+                g.fillRect(24, y, pageWidth / 2, pictureHeight);
+                for (int i = 0; i < 5; i++) {
+                    g.setColor(new Color(random.nextInt(0xFFFFFF)));
+                    g.fillOval(24 + random.nextInt(pageWidth / 2 - 60), y + random.nextInt(pictureHeight - 40), 60, 40);
+                }
+                y += pictureHeight + 16;
+            } else {
+                // Paragraph of text lines
+                int lines = 3 + random.nextInt(6);
+                for (int i = 0; i < lines; i++) {
+                    int chars = (pageWidth - 48) / GLYPH_WIDTH - random.nextInt(20);
+                    drawGlyphs(g, 24, y, chars, new Color(30, 30, 30));
+                    y += LINE_HEIGHT;
+                }
+                y += LINE_HEIGHT;
+            }
+        }
+
+        g.dispose();
+        return page;
+    }
+
+    private void typeNextGlyph() {
+        Graphics2D g = content.createGraphics();
+        if (random.nextInt(6) != 0) {
+            int glyphHeight = GLYPH_HEIGHT - random.nextInt(4);
+            g.setColor(new Color(20, 20, 20));
+            g.fillRect(caretX, caretY + GLYPH_HEIGHT - glyphHeight, GLYPH_WIDTH - 2, glyphHeight);
+        }
+        g.dispose();
+
+        caretX += GLYPH_WIDTH;
+        if (caretX > content.getWidth() - 16 || random.nextInt(60) == 0) {
+            caretX = 8;
+            caretY += LINE_HEIGHT;
+            if (caretY > content.getHeight() - LINE_HEIGHT) {
+                // Page full: start over on a blank one
+                fill(content, Color.WHITE);
+                caretY = 8;
+            }
+        }
+    }
+
+    // Smoothly moving colour fields with a little grain, roughly what decoded video looks like
+    private void renderVideoFrame() {
+        int[] pixels = ((DataBufferInt) content.getRaster().getDataBuffer()).getData();
+        int w = content.getWidth();
+        int h = content.getHeight();
+        double t = frame * 0.05;
+
+        // Each channel only varies along one direction, so it can be tabulated once per frame
+        int[] red = new int[w];
+        int[] green = new int[h];
+        int[] blue = new int[w + h];
+        for (int x = 0; x < w; x++) {
+            red[x] = (int) (110 + 90 * Math.sin(6.0 * x / w + t));
+        }
+        for (int y = 0; y < h; y++) {
+            green[y] = (int) (110 + 90 * Math.sin(5.0 * y / h - t * 1.3));
+        }
+        for (int i = 0; i < w + h; i++) {
+            blue[i] = (int) (110 + 90 * Math.sin(4.0 * i / Math.max(w, h) + t * 0.7));
+        }
+
+        int grain = ((int) (seed ^ (seed >>> 32)) ^ frame * 0x9E3779B9) | 1;
+        for (int y = 0; y < h; y++) {
+            int row = y * w;
+            for (int x = 0; x < w; x++) {
+                grain ^= grain << 13;
+                grain ^= grain >>> 17;
+                grain ^= grain << 5;
+                int noise = grain & 15;
+                pixels[row + x] = ((red[x] + noise) << 16) | ((green[y] + noise) << 8) | (blue[x + y] + noise);
+            }
+        }
+    }
+
+    private void drawClock(Graphics2D g, int minute) {
+        int x = width - 90;
+        int y = height - TASKBAR_HEIGHT + 14;
+        g.setColor(new Color(32, 32, 36));
+        g.fillRect(x, y, 80, GLYPH_HEIGHT);
+        g.setColor(Color.WHITE);
+        for (int i = 0; i < 5; i++) {
+            // Each digit gets a different height so the clock visibly changes
+            int digitHeight = 4 + (minute + i * 3) % (GLYPH_HEIGHT - 3);
+            g.fillRect(x + i * (GLYPH_WIDTH + 2), y + GLYPH_HEIGHT - digitHeight, GLYPH_WIDTH, digitHeight);
+        }
+    }
+
+    private void drawGlyphs(Graphics2D g, int x, int y, int count, Color color) {
+        g.setColor(color);
+        for (int i = 0; i < count; i++) {
+            if (random.nextInt(6) != 0) {
+                int glyphHeight = GLYPH_HEIGHT - random.nextInt(4);
+                g.fillRect(x + i * GLYPH_WIDTH, y + GLYPH_HEIGHT - glyphHeight, GLYPH_WIDTH - 2, glyphHeight);
+            }
+        }
+    }
+
+    private static void fill(BufferedImage image, Color color) {
+        Graphics2D g = image.createGraphics();
+        g.setColor(color);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.dispose();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,425 @@
+package src.server;
+
+import src.common.Constants;
+import src.common.PaletteCodec;
+import src.common.Rgb565Codec;
+import src.common.XorDeltaCodec;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+// Diffs and encodes the tiles of a captured frame in parallel.
+// The frame is split into horizontal stripes of tile rows which are processed on a
+// work-stealing pool; every tile is encoded on its own so the client can decode them independently.
+// Tiles are compared against the previous capture rather than stored state, so several
+// frames can be encoded at the same time. Each changed tile picks its own codec: tiles with
+// few colors (text, UI) go through the lossless PaletteCodec, photographic ones through JPEG.
+// JPEG tiles are sent at draft quality first and re-encoded at full quality once they stop changing.
+// The diff runs once at full resolution; every profile then encodes its own, possibly downscaled, tiles.
+// Profiles with a reduced color depth have their tiles reduced before the codec is picked.
+// Delta-coded profiles send every changed tile losslessly as its XOR against the previous capture,
+// which is exactly what the client holds for it, since the diff is exact.
+public class TileEncoder {
+    private static final int PASS_DIFF = 0;
+    private static final int PASS_ENCODE = 1;
+    private static final int PASS_REFINE = 2;
+    // Reduced color depths send a tile losslessly only if that takes at most one byte per this many pixels
+    private static final int LOSSLESS_BUDGET_DIVISOR = 4;
+
+    private final ForkJoinPool pool;
+
+    // Each worker thread compares tiles in its own pixel buffers
+    private final ThreadLocal<int[]> tilePixels =
+        ThreadLocal.withInitial(() -> new int[Constants.TILE_SIZE * Constants.TILE_SIZE]);
+    private final ThreadLocal<int[]> previousPixels =
+        ThreadLocal.withInitial(() -> new int[Constants.TILE_SIZE * Constants.TILE_SIZE]);
+    private final ThreadLocal<int[]> sourcePixels =
+        ThreadLocal.withInitial(() -> new int[Constants.TILE_SIZE * Constants.TILE_SIZE
+            * EncodeProfile.MAX_SCALE * EncodeProfile.MAX_SCALE]);
+    private final ThreadLocal<BufferedImage> scaledTiles = ThreadLocal.withInitial(
+        () -> new BufferedImage(Constants.TILE_SIZE, Constants.TILE_SIZE, BufferedImage.TYPE_INT_RGB));
+    private final ThreadLocal<BufferedImage> grayTiles = ThreadLocal.withInitial(
+        () -> new BufferedImage(Constants.TILE_SIZE, Constants.TILE_SIZE, BufferedImage.TYPE_BYTE_GRAY));
+    private final ThreadLocal<JpegEncoder> jpegEncoders = new ThreadLocal<>();
+    private final ThreadLocal<PaletteCodec> paletteCodecs = ThreadLocal.withInitial(PaletteCodec::new);
+    private final ThreadLocal<Rgb565Codec> rgb565Codecs = ThreadLocal.withInitial(Rgb565Codec::new);
+    private final ThreadLocal<ColorReducer> colorReducers = ThreadLocal.withInitial(ColorReducer::new);
+    private final ThreadLocal<XorDeltaCodec> deltaCodecs = ThreadLocal.withInitial(XorDeltaCodec::new);
+    private final ThreadLocal<int[]> referencePixels =
+        ThreadLocal.withInitial(() -> new int[Constants.TILE_SIZE * Constants.TILE_SIZE]);
+    private final ThreadLocal<MotionDetector> motionDetectors = ThreadLocal.withInitial(MotionDetector::new);
+    private final Queue<JpegEncoder> allEncoders = new ConcurrentLinkedQueue<>();
+
+    public TileEncoder() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public TileEncoder(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    // Encode every tile of the captured frame that differs from the previous capture, once per target profile.
+    // Changed tiles are found first so scrolled or moved content can be detected before encoding.
+    public void encodeFrame(CapturedFrame frame) throws IOException {
+        try {
+            pool.invoke(new StripeTask(frame, null, PASS_DIFF, 0, frame.getFrameBuffer().getRows()));
+
+            for (EncodedFrame encoded : frame.getTargets()) {
+                long start = System.nanoTime();
+                encoded.setDraft(Constants.DRAFT_JPEG_QUALITY < encoded.getProfile().getQuality());
+                markChangedTiles(frame, encoded);
+
+                // Copies are only detected at full resolution; scaled profiles get plain tiles.
+                // Delta tiles are relative to the previous capture, which copies would move around underneath.
+                if (frame.getPreviousImage() != null && !encoded.isFullFrame()
+                        && encoded.getProfile().getScale() == 1 && !encoded.getProfile().isDeltaCoded()) {
+                    motionDetectors.get().detect(frame.getImage(), frame.getPreviousImage(), encoded.getFrameBuffer(),
+                        encoded.getChangedTiles(), encoded.getCoveredTiles(), encoded.getCopies());
+                }
+
+                pool.invoke(new StripeTask(frame, encoded, PASS_ENCODE, 0, encoded.getFrameBuffer().getRows()));
+                encoded.getProfile().recordEncode(System.nanoTime() - start, encoded.getEncodedBytes());
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Re-encode the given draft tiles of a profile at full quality in the background.
+    // The result is handed to the callback on a pool thread; failed refinements are dropped.
+    // The frame's images are kept from the pool until the refinement is done with them.
+    public void refineAsync(CapturedFrame frame, EncodeProfile profile, FrameBuffer grid,
+                            boolean[] tiles, Consumer<EncodedFrame> onEncoded) {
+        EncodedFrame refined = new EncodedFrame(frame, profile, grid, false, true);
+        System.arraycopy(tiles, 0, refined.getChangedTiles(), 0, tiles.length);
+
+        frame.retain();
+        pool.execute(() -> {
+            try {
+                new StripeTask(frame, refined, PASS_REFINE, 0, grid.getRows()).invoke();
+            } catch (UncheckedIOException e) {
+                e.printStackTrace();
+                return;
+            } finally {
+                frame.release();
+            }
+            profile.recordRefinement(refined.getEncodedBytes());
+            onEncoded.accept(refined);
+        });
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+        for (JpegEncoder encoder : allEncoders) {
+            encoder.dispose();
+        }
+    }
+
+    // Map the full-resolution diff onto a profile's grid. A scaled tile covers scale x scale
+    // full-resolution tiles and changes if any of them did. Tiles the grid asked to refresh are
+    // encoded whether they changed or not.
+    private void markChangedTiles(CapturedFrame frame, EncodedFrame encoded) {
+        boolean[] changed = encoded.getChangedTiles();
+        if (encoded.isFullFrame()) {
+            Arrays.fill(changed, true);
+        } else if (encoded.getProfile().getScale() == 1) {
+            System.arraycopy(frame.getChangedTiles(), 0, changed, 0, changed.length);
+        } else {
+            FrameBuffer source = frame.getFrameBuffer();
+            boolean[] sourceChanged = frame.getChangedTiles();
+            int scale = encoded.getProfile().getScale();
+            int columns = encoded.getFrameBuffer().getColumns();
+            for (int sourceTile = 0; sourceTile < sourceChanged.length; sourceTile++) {
+                if (sourceChanged[sourceTile]) {
+                    int column = (sourceTile % source.getColumns()) / scale;
+                    int row = (sourceTile / source.getColumns()) / scale;
+                    changed[row * columns + column] = true;
+                }
+            }
+        }
+        encoded.getFrameBuffer().takeRefreshRequests(changed);
+    }
+
+    private void diffRow(CapturedFrame frame, int row) {
+        FrameBuffer grid = frame.getFrameBuffer();
+        BufferedImage image = frame.getImage();
+        BufferedImage previous = frame.getPreviousImage();
+        boolean[] changedTiles = frame.getChangedTiles();
+
+        int[] pixels = tilePixels.get();
+        int[] oldPixels = previousPixels.get();
+        int columns = grid.getColumns();
+        // Captures are compared in place; only unusual image layouts are copied out first
+        boolean direct = previous != null && Rasters.canCompare(image, previous);
+
+        for (int tile = row * columns; tile < (row + 1) * columns; tile++) {
+            if (previous == null) {
+                changedTiles[tile] = true;
+                continue;
+            }
+
+            int x = grid.getTileX(tile);
+            int y = grid.getTileY(tile);
+            int w = grid.getTileWidth(tile);
+            int h = grid.getTileHeight(tile);
+
+            if (direct) {
+                changedTiles[tile] = !Rasters.regionEquals(image, x, y, previous, x, y, w, h);
+                continue;
+            }
+            image.getRGB(x, y, w, h, pixels, 0, w);
+            previous.getRGB(x, y, w, h, oldPixels, 0, w);
+            changedTiles[tile] = !Arrays.equals(pixels, 0, w * h, oldPixels, 0, w * h);
+        }
+    }
+
+    private void encodeRow(CapturedFrame frame, EncodedFrame encoded, int row) throws IOException {
+        FrameBuffer grid = encoded.getFrameBuffer();
+        boolean[] changedTiles = encoded.getChangedTiles();
+        byte[][] tileUpdates = encoded.getTileUpdates();
+        byte[] tileCodecs = encoded.getTileCodecs();
+
+        int[] pixels = tilePixels.get();
+        JpegEncoder jpegEncoder = getJpegEncoder();
+        PaletteCodec paletteCodec = paletteCodecs.get();
+        ColorReducer colorReducer = colorReducers.get();
+        EncodeProfile profile = encoded.getProfile();
+        float quality = encoded.isDraft() ? Constants.DRAFT_JPEG_QUALITY : profile.getQuality();
+        int scale = profile.getScale();
+        byte colorDepth = profile.getColorDepth();
+        // Reduced tiles nearly always fit a palette, so instead of the codec's own photo test
+        // lossless output is capped at a byte budget and JPEG takes the tiles above it
+        boolean reduced = colorDepth != Constants.COLOR_DEPTH_FULL;
+        int columns = grid.getColumns();
+        int dirty = 0;
+        long allocated = 0;
+
+        // Tiles covered by a copy are still encoded for clients that missed the copy
+        for (int tile = row * columns; tile < (row + 1) * columns; tile++) {
+            if (changedTiles[tile]) {
+                int w = grid.getTileWidth(tile);
+                int h = grid.getTileHeight(tile);
+
+                // Low-color tiles compress better, and stay sharp, without JPEG
+                readTile(frame.getImage(), grid, scale, tile, pixels);
+                colorReducer.reduce(pixels, w * h, colorDepth);
+                if (profile.isDeltaCoded()) {
+                    byte[] data = encodeDeltaTile(frame, encoded, tile, pixels);
+                    tileUpdates[tile] = data;
+                    tileCodecs[tile] = Constants.TILE_CODEC_XOR_DELTA;
+                    allocated += data.length;
+                    dirty++;
+                    continue;
+                }
+                
+                int budget = w * h / LOSSLESS_BUDGET_DIVISOR;
+                byte[] data = profile.allowsPalette() || reduced ? paletteCodec.encode(pixels, w * h, reduced) : null;
+                if (data != null && reduced && data.length > budget) {
+                    allocated += data.length;
+                    data = null;
+                }
+                if (data != null) {
+                    tileCodecs[tile] = Constants.TILE_CODEC_PALETTE;
+                    allocated += data.length;
+                } else if (colorDepth == Constants.COLOR_DEPTH_RGB565
+                        && (data = rgb565Codecs.get().encode(pixels, w * h, budget)) != null) {
+                    tileCodecs[tile] = Constants.TILE_CODEC_RGB565;
+                    allocated += data.length;
+                } else {
+                    data = jpegEncoder.encode(tileImage(frame, grid, scale, colorDepth, tile, pixels), quality);
+                    tileCodecs[tile] = Constants.TILE_CODEC_JPEG;
+                }
+                tileUpdates[tile] = data;
+                dirty++;
+            }
+        }
+
+        // A stripe runs start to finish on one thread, so the encoder's counter belongs to this frame
+        encoded.addDirtyTiles(dirty, allocated + jpegEncoder.takeAllocatedBytes());
+    }
+
+    // A key when the client may not have the tile's previous content (full frames) or its delta chain
+    // has grown too long, otherwise the XOR against the same tile of the previous capture
+    private byte[] encodeDeltaTile(CapturedFrame frame, EncodedFrame encoded, int tile, int[] pixels) {
+        FrameBuffer grid = encoded.getFrameBuffer();
+        EncodeProfile profile = encoded.getProfile();
+        XorDeltaCodec codec = deltaCodecs.get();
+        int length = grid.getTileWidth(tile) * grid.getTileHeight(tile);
+
+        boolean key = encoded.isFullFrame() || frame.getPreviousImage() == null || grid.takeKeyRequest(tile);
+        if (key) {
+            return codec.encodeKey(pixels, length);
+        }
+
+        int[] reference = referencePixels.get();
+        readTile(frame.getPreviousImage(), grid, profile.getScale(), tile, reference);
+        colorReducers.get().reduce(reference, length, profile.getColorDepth());
+        return codec.encodeDelta(pixels, reference, length);
+    }
+
+    // Draft tiles already failed the palette test, so refinement only re-runs JPEG
+    private void refineRow(CapturedFrame frame, EncodedFrame encoded, int row) throws IOException {
+        FrameBuffer grid = encoded.getFrameBuffer();
+        boolean[] refineTiles = encoded.getChangedTiles();
+        byte[][] tileUpdates = encoded.getTileUpdates();
+        byte[] tileCodecs = encoded.getTileCodecs();
+
+        int[] pixels = tilePixels.get();
+        JpegEncoder jpegEncoder = getJpegEncoder();
+        int scale = encoded.getProfile().getScale();
+        byte colorDepth = encoded.getProfile().getColorDepth();
+        int columns = grid.getColumns();
+        int dirty = 0;
+
+        for (int tile = row * columns; tile < (row + 1) * columns; tile++) {
+            if (refineTiles[tile]) {
+                if (scale != 1 || colorDepth != Constants.COLOR_DEPTH_FULL) {
+                    readTile(frame.getImage(), grid, scale, tile, pixels);
+                    colorReducers.get().reduce(pixels, grid.getTileWidth(tile) * grid.getTileHeight(tile), colorDepth);
+                }
+                tileUpdates[tile] = jpegEncoder.encode(tileImage(frame, grid, scale, colorDepth, tile, pixels),
+                    encoded.getProfile().getQuality());
+                tileCodecs[tile] = Constants.TILE_CODEC_JPEG;
+                dirty++;
+            }
+        }
+        encoded.addDirtyTiles(dirty, jpegEncoder.takeAllocatedBytes());
+    }
+
+    // Read a tile of the given grid into pixels, averaging scale x scale blocks of the capture
+    private void readTile(BufferedImage image, FrameBuffer grid, int scale, int tile, int[] pixels) {
+        int x = grid.getTileX(tile);
+        int y = grid.getTileY(tile);
+        int w = grid.getTileWidth(tile);
+        int h = grid.getTileHeight(tile);
+
+        if (scale == 1) {
+            Rasters.read(image, x, y, w, h, pixels, 0, w);
+            return;
+        }
+
+        // The last row and column of blocks may be cut off by the screen edge
+        int sourceX = x * scale;
+        int sourceY = y * scale;
+        int sourceWidth = Math.min(w * scale, image.getWidth() - sourceX);
+        int sourceHeight = Math.min(h * scale, image.getHeight() - sourceY);
+        int[] source = sourcePixels.get();
+        Rasters.read(image, sourceX, sourceY, sourceWidth, sourceHeight, source, 0, sourceWidth);
+
+        for (int ty = 0; ty < h; ty++) {
+            int top = ty * scale;
+            int bottom = Math.min(top + scale, sourceHeight);
+            for (int tx = 0; tx < w; tx++) {
+                int left = tx * scale;
+                int right = Math.min(left + scale, sourceWidth);
+
+                int r = 0, g = 0, b = 0;
+                for (int sy = top; sy < bottom; sy++) {
+                    for (int sx = left; sx < right; sx++) {
+                        int pixel = source[sy * sourceWidth + sx];
+                        r += (pixel >> 16) & 0xff;
+                        g += (pixel >> 8) & 0xff;
+                        b += pixel & 0xff;
+                    }
+                }
+                int count = (bottom - top) * (right - left);
+                pixels[ty * w + tx] = (r / count) << 16 | (g / count) << 8 | (b / count);
+            }
+        }
+    }
+
+    // Image of a tile for the JPEG writer: a view of the capture, or the scaled or reduced pixels already read.
+    // Grayscale tiles go into a single-channel image, which the writer stores without chroma.
+    private BufferedImage tileImage(CapturedFrame frame, FrameBuffer grid, int scale, byte colorDepth,
+                                    int tile, int[] pixels) {
+        int w = grid.getTileWidth(tile);
+        int h = grid.getTileHeight(tile);
+        if (scale == 1 && colorDepth == Constants.COLOR_DEPTH_FULL) {
+            return frame.getImage().getSubimage(grid.getTileX(tile), grid.getTileY(tile), w, h);
+        }
+
+        if (colorDepth == Constants.COLOR_DEPTH_GRAYSCALE) {
+            BufferedImage gray = grayTiles.get();
+            byte[] data = ((DataBufferByte) gray.getRaster().getDataBuffer()).getData();
+            for (int y = 0; y < h; y++) {
+                for (int x = 0; x < w; x++) {
+                    data[y * Constants.TILE_SIZE + x] = (byte) pixels[y * w + x];
+                }
+            }
+            return gray.getSubimage(0, 0, w, h);
+        }
+
+        BufferedImage scaled = scaledTiles.get();
+        int[] data = Rasters.getData(scaled);
+        for (int y = 0; y < h; y++) {
+            System.arraycopy(pixels, y * w, data, y * Constants.TILE_SIZE, w);
+        }
+        return scaled.getSubimage(0, 0, w, h);
+    }
+
+    // Each worker thread keeps its own warmed JPEG writer and output buffer
+    private JpegEncoder getJpegEncoder() throws IOException {
+        JpegEncoder encoder = jpegEncoders.get();
+        if (encoder == null) {
+            encoder = new JpegEncoder();
+            jpegEncoders.set(encoder);
+            allEncoders.add(encoder);
+        }
+        return encoder;
+    }
+
+    // Splits a range of tile rows in half until a single stripe remains, then runs one pass over it
+    private class StripeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final CapturedFrame frame;
+        private final EncodedFrame encoded;
+        private final int pass;
+        private final int firstRow;
+        private final int lastRow;
+
+        StripeTask(CapturedFrame frame, EncodedFrame encoded, int pass, int firstRow, int lastRow) {
+            this.frame = frame;
+            this.encoded = encoded;
+            this.pass = pass;
+            this.firstRow = firstRow;
+            this.lastRow = lastRow;
+        }
+
+        @Override
+        protected void compute() {
+            if (lastRow - firstRow <= 1) {
+                try {
+                    for (int row = firstRow; row < lastRow; row++) {
+                        if (pass == PASS_DIFF) {
+                            diffRow(frame, row);
+                        } else if (pass == PASS_ENCODE) {
+                            encodeRow(frame, encoded, row);
+                        } else {
+                            refineRow(frame, encoded, row);
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return;
+            }
+
+            int middle = (firstRow + lastRow) >>> 1;
+            invokeAll(new StripeTask(frame, encoded, pass, firstRow, middle),
+                      new StripeTask(frame, encoded, pass, middle, lastRow));
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,85 @@
+package src.server;
+
+import src.common.Constants;
+
+// Progressive refinement state of one profile's tiles, owned by the publisher thread.
+// JPEG tiles are published at draft quality; once a tile has stayed unchanged for a few frames
+// it is re-encoded at full quality, unless it changes again before the refinement lands.
+public class TileRefinement {
+    // Frames a draft tile must stay unchanged before it is refined
+    static final int REFINE_AFTER_FRAMES = 3;
+
+    // Refinement level of each tile
+    private static final byte LEVEL_FINAL = 0;
+    private static final byte LEVEL_DRAFT = 1;
+    private static final byte LEVEL_REFINING = 2;
+
+    private FrameBuffer grid;
+    private byte[] levels;
+    private long[] draftSequences;
+
+    // Record the tiles a published frame replaced; every changed tile starts over
+    public void track(EncodedFrame encoded) {
+        if (encoded.getFrameBuffer() != grid) {
+            grid = encoded.getFrameBuffer();
+            levels = new byte[grid.getTileCount()];
+            draftSequences = new long[grid.getTileCount()];
+        }
+
+        byte[][] tileUpdates = encoded.getTileUpdates();
+        byte[] tileCodecs = encoded.getTileCodecs();
+        for (int tile = 0; tile < tileUpdates.length; tile++) {
+            if (tileUpdates[tile] != null) {
+                boolean draft = encoded.isDraft() && tileCodecs[tile] == Constants.TILE_CODEC_JPEG;
+                levels[tile] = draft ? LEVEL_DRAFT : LEVEL_FINAL;
+                draftSequences[tile] = encoded.getSequence();
+            }
+        }
+    }
+
+    // Draft tiles that have settled as of the given frame, or null if there are none.
+    // They are unchanged since their draft, so that frame's image still holds their content.
+    public boolean[] takeSettledTiles(long sequence) {
+        boolean[] tiles = null;
+        for (int tile = 0; levels != null && tile < levels.length; tile++) {
+            if (levels[tile] == LEVEL_DRAFT && sequence - draftSequences[tile] >= REFINE_AFTER_FRAMES) {
+                if (tiles == null) {
+                    tiles = new boolean[levels.length];
+                }
+                tiles[tile] = true;
+                levels[tile] = LEVEL_REFINING;
+            }
+        }
+        return tiles;
+    }
+
+    // Drop refined tiles that changed again while they were being encoded.
+    // Returns true if anything is left to commit.
+    public boolean accept(EncodedFrame refined) {
+        if (refined.getFrameBuffer() != grid) {
+            return false;
+        }
+
+        byte[][] tileUpdates = refined.getTileUpdates();
+        boolean current = false;
+        for (int tile = 0; tile < tileUpdates.length; tile++) {
+            if (tileUpdates[tile] == null) {
+                continue;
+            }
+            if (levels[tile] == LEVEL_REFINING) {
+                levels[tile] = LEVEL_FINAL;
+                current = true;
+            } else {
+                tileUpdates[tile] = null;
+            }
+        }
+        return current;
+    }
+
+    // Forget everything, e.g. when the pipeline stops and in-flight refinements are lost
+    public void reset() {
+        grid = null;
+        levels = null;
+        draftSequences = null;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,115 @@
+package src.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class FrameAssemblerTest {
+    private static final int FILE = Constants.MESSAGE_TYPE_FILE;
+    private static final int CHAT = Constants.MESSAGE_TYPE_CHAT;
+
+    private final FrameAssembler assembler = new FrameAssembler();
+
+    @Test
+    public void passesSingleFrameThrough() throws IOException {
+        byte[] payload = {1, 2, 3};
+        Frame frame = assembler.add(CHAT, 0, Protocol.CHANNEL_CHAT, 7, payload);
+        assertNotNull(frame);
+        assertEquals(CHAT, frame.getType());
+        assertEquals(7, frame.getSequence());
+        assertSame(payload, frame.getPayload());
+    }
+
+    @Test
+    public void joinsChunks() throws IOException {
+        assertNull(assembler.add(FILE, Protocol.FLAG_MORE, Protocol.CHANNEL_FILE, 1, bytes(0, 5)));
+        assertNull(assembler.add(FILE, Protocol.FLAG_MORE, Protocol.CHANNEL_FILE, 1, bytes(5, 3)));
+        Frame frame = assembler.add(FILE, 0, Protocol.CHANNEL_FILE, 1, bytes(8, 4));
+        assertNotNull(frame);
+        assertArrayEquals(bytes(0, 12), frame.getPayload());
+        assertEquals(0, frame.getFlags() & Protocol.FLAG_MORE);
+    }
+
+    @Test
+    public void keepsInterleavedMessagesApart() throws IOException {
+        assertNull(assembler.add(FILE, Protocol.FLAG_MORE, Protocol.CHANNEL_FILE, 1, bytes(0, 4)));
+        assertNull(assembler.add(FILE, Protocol.FLAG_MORE, Protocol.CHANNEL_FILE, 2, bytes(100, 4)));
+        Frame chat = assembler.add(CHAT, 0, Protocol.CHANNEL_CHAT, 3, bytes(50, 2));
+        assertArrayEquals(bytes(50, 2), chat.getPayload());
+        Frame second = assembler.add(FILE, 0, Protocol.CHANNEL_FILE, 2, bytes(104, 4));
+        Frame first = assembler.add(FILE, 0, Protocol.CHANNEL_FILE, 1, bytes(4, 4));
+        assertArrayEquals(bytes(100, 8), second.getPayload());
+        assertArrayEquals(bytes(0, 8), first.getPayload());
+    }
+
+    @Test
+    public void keepsCompressedFlagOfChunkedMessage() throws IOException {
+        int flags = Protocol.FLAG_COMPRESSED | Protocol.FLAG_MORE;
+        assertNull(assembler.add(FILE, flags, Protocol.CHANNEL_FILE, 1, bytes(0, 4)));
+        Frame frame = assembler.add(FILE, Protocol.FLAG_COMPRESSED, Protocol.CHANNEL_FILE, 1, bytes(4, 4));
+        assertEquals(Protocol.FLAG_COMPRESSED, frame.getFlags());
+    }
+
+    @Test
+    public void rejectsFrameLargerThanItsType() {
+        byte[] payload = new byte[Protocol.maxMessageBytes(Constants.MESSAGE_TYPE_SCREEN_ACK) + 1];
+        assertThrows(IOException.class,
+            () -> assembler.add(Constants.MESSAGE_TYPE_SCREEN_ACK, 0, Protocol.CHANNEL_CONTROL, 1, payload));
+    }
+
+    @Test
+    public void rejectsChunksAddingUpPastTheirType() throws IOException {
+        byte[] chunk = new byte[Protocol.MAX_FRAME_PAYLOAD];
+        assembler.add(CHAT, Protocol.FLAG_MORE, Protocol.CHANNEL_CHAT, 1, chunk);
+        assembler.add(CHAT, Protocol.FLAG_MORE, Protocol.CHANNEL_CHAT, 1, chunk);
+        assertThrows(IOException.class, () -> assembler.add(CHAT, 0, Protocol.CHANNEL_CHAT, 1, chunk));
+    }
+
+    @Test
+    public void rejectsMessagesPastReaderLimit() throws IOException {
+        assembler.setMaxMessageBytes(10);
+        assembler.add(FILE, Protocol.FLAG_MORE, Protocol.CHANNEL_FILE, 1, bytes(0, 8));
+        assertThrows(IOException.class, () -> assembler.add(FILE, 0, Protocol.CHANNEL_FILE, 1, bytes(8, 8)));
+        assertThrows(IOException.class, () -> assembler.add(FILE, 0, Protocol.CHANNEL_FILE, 2, bytes(0, 11)));
+    }
+
+    @Test
+    public void rejectsTooManyPartialMessages() throws IOException {
+        // A peer can't make the reader hold more than eight messages it never finishes
+        for (int sequence = 0; sequence < 8; sequence++) {
+            assembler.add(FILE, Protocol.FLAG_MORE, Protocol.CHANNEL_FILE, sequence, new byte[1]);
+        }
+        assertThrows(IOException.class,
+            () -> assembler.add(FILE, Protocol.FLAG_MORE, Protocol.CHANNEL_FILE, 8, new byte[1]));
+    }
+
+    @Test
+    public void rejectsChunkChangingType() throws IOException {
+        assembler.add(FILE, Protocol.FLAG_MORE, Protocol.CHANNEL_FILE, 1, bytes(0, 4));
+        assertThrows(IOException.class, () -> assembler.add(CHAT, 0, Protocol.CHANNEL_FILE, 1, bytes(4, 4)));
+    }
+
+    @Test
+    public void acceptsNewMessagesAfterCompletingOld() throws IOException {
+        // Finished messages no longer count against the limit on partial ones
+        for (int sequence = 0; sequence < 100; sequence++) {
+            assertNull(assembler.add(FILE, Protocol.FLAG_MORE, Protocol.CHANNEL_FILE, sequence, bytes(0, 2)));
+            assertNotNull(assembler.add(FILE, 0, Protocol.CHANNEL_FILE, sequence, bytes(2, 2)));
+        }
+    }
+
+    private static byte[] bytes(int first, int count) {
+        byte[] bytes = new byte[count];
+        for (int i = 0; i < count; i++) {
+            bytes[i] = (byte) (first + i);
+        }
+        return bytes;
+    }
+}
\ No newline at end of file
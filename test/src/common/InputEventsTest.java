@@ -0,0 +1,68 @@
+package src.common;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+public class InputEventsTest {
+    @Test
+    public void roundTripsRecord() {
+        byte[] batch = new byte[InputEvents.RECORD_SIZE * 2];
+        InputEvents.put(batch, InputEvents.RECORD_SIZE, InputEvents.OP_PRESS, 3, 1200, -40, 0, 16);
+        int offset = InputEvents.RECORD_SIZE;
+        assertEquals(InputEvents.OP_PRESS, InputEvents.getOpcode(batch, offset));
+        assertEquals(3, InputEvents.getButton(batch, offset));
+        assertEquals(1200, InputEvents.getDx(batch, offset));
+        assertEquals(-40, InputEvents.getDy(batch, offset));
+        assertEquals(0, InputEvents.getValue(batch, offset));
+        assertEquals(16, InputEvents.getDt(batch, offset));
+    }
+
+    @Test
+    public void leavesNeighbouringRecordsAlone() {
+        byte[] batch = new byte[InputEvents.RECORD_SIZE * 3];
+        InputEvents.put(batch, InputEvents.RECORD_SIZE, InputEvents.OP_KEY_PRESS, 0, -1, -1, -1, 0xFFFF);
+        for (int i = 0; i < InputEvents.RECORD_SIZE; i++) {
+            assertEquals(0, batch[i]);
+            assertEquals(0, batch[InputEvents.RECORD_SIZE * 2 + i]);
+        }
+    }
+
+    @Test
+    public void carriesExtremeDeltas() {
+        byte[] record = new byte[InputEvents.RECORD_SIZE];
+        InputEvents.put(record, 0, InputEvents.OP_MOVE, 0, InputEvents.MAX_COORDINATE, -InputEvents.MAX_COORDINATE, 0, 0);
+        assertEquals(InputEvents.MAX_COORDINATE, InputEvents.getDx(record, 0));
+        assertEquals(-InputEvents.MAX_COORDINATE, InputEvents.getDy(record, 0));
+    }
+
+    @Test
+    public void carriesSignedValues() {
+        byte[] record = new byte[InputEvents.RECORD_SIZE];
+        InputEvents.put(record, 0, InputEvents.OP_WHEEL, 0, 0, 0, -3, 0);
+        assertEquals(-3, InputEvents.getValue(record, 0));
+        InputEvents.put(record, 0, InputEvents.OP_KEY_RELEASE, 0, 0, 0, Integer.MIN_VALUE, 0);
+        assertEquals(Integer.MIN_VALUE, InputEvents.getValue(record, 0));
+    }
+
+    @Test
+    public void clampsLongPauses() {
+        byte[] record = new byte[InputEvents.RECORD_SIZE];
+        InputEvents.put(record, 0, InputEvents.OP_MOVE, 0, 0, 0, 0, 1_000_000);
+        assertEquals(0xFFFF, InputEvents.getDt(record, 0));
+    }
+
+    @Test
+    public void readsUnknownOpcodesAsUnknown() {
+        // A record from a newer or broken peer must not read as one of the known opcodes
+        byte[] record = new byte[InputEvents.RECORD_SIZE];
+        for (int opcode = 7; opcode < 256; opcode++) {
+            record[0] = (byte) opcode;
+            int read = InputEvents.getOpcode(record, 0);
+            for (int known = InputEvents.OP_MOVE; known <= InputEvents.OP_KEY_RELEASE; known++) {
+                assertNotEquals(known, read);
+            }
+        }
+    }
+}
\ No newline at end of file
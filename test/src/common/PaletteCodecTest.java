@@ -0,0 +1,172 @@
+package src.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class PaletteCodecTest {
+    private static final int LENGTH = Constants.TILE_SIZE * Constants.TILE_SIZE;
+
+    private final PaletteCodec codec = new PaletteCodec();
+
+    @Test
+    public void roundTripsFlatTile() throws DataFormatException {
+        int[] pixels = new int[LENGTH];
+        Arrays.fill(pixels, 0x336699);
+        assertArrayEquals(pixels, decode(codec.encode(pixels, LENGTH), LENGTH));
+    }
+
+    @Test
+    public void roundTripsTextLikeTile() throws DataFormatException {
+        int[] pixels = new int[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            pixels[i] = (i / 37) % 5 == 0 ? 0x000000 : (i % 64 < 8 ? 0x202020 : 0xffffff);
+        }
+        assertArrayEquals(pixels, decode(codec.encode(pixels, LENGTH), LENGTH));
+    }
+
+    @Test
+    public void roundTripsFullPalette() throws DataFormatException {
+        int[] pixels = new int[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            pixels[i] = (i / 16) % PaletteCodec.MAX_COLORS * 0x010101;
+        }
+        assertArrayEquals(pixels, decode(codec.encode(pixels, LENGTH, true), LENGTH));
+    }
+
+    @Test
+    public void roundTripsEdgeTile() throws DataFormatException {
+        // Tiles at the right and bottom of the screen are cut off
+        int length = 37 * 13;
+        int[] pixels = new int[length];
+        for (int i = 0; i < length; i++) {
+            pixels[i] = i % 37 < 20 ? 0xff0000 : 0x00ff00;
+        }
+        assertArrayEquals(pixels, decode(codec.encode(pixels, length), length));
+    }
+
+    @Test
+    public void ignoresAlphaBits() throws DataFormatException {
+        int[] pixels = new int[LENGTH];
+        Arrays.fill(pixels, 0xff123456);
+        int[] expected = new int[LENGTH];
+        Arrays.fill(expected, 0x123456);
+        assertArrayEquals(expected, decode(codec.encode(pixels, LENGTH), LENGTH));
+    }
+
+    @Test
+    public void refusesTooManyColors() {
+        int[] pixels = new int[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            pixels[i] = i;
+        }
+        assertNull(codec.encode(pixels, LENGTH));
+    }
+
+    @Test
+    public void refusesNoisyTileUnlessAsked() {
+        int[] pixels = new int[LENGTH];
+        Random random = new Random(1);
+        for (int i = 0; i < LENGTH; i++) {
+            pixels[i] = random.nextInt(200) * 0x010101;
+        }
+        assertNull(codec.encode(pixels, LENGTH));
+        assertNotNull(codec.encode(pixels, LENGTH, true));
+    }
+
+    @Test
+    public void rejectsPaletteLargerThanMaxColors() {
+        byte[] raw = {0x01, 0x01, 0, 0, 0};
+        assertThrows(DataFormatException.class, () -> decode(deflate(raw), 4));
+    }
+
+    @Test
+    public void rejectsPaletteLongerThanData() {
+        byte[] raw = {0x00, 0x10, 1, 2, 3};
+        assertThrows(DataFormatException.class, () -> decode(deflate(raw), 4));
+    }
+
+    @Test
+    public void rejectsIndexOutsidePalette() {
+        // One color, then a run of index 1
+        byte[] raw = {0x00, 0x01, 1, 2, 3, 1, 4};
+        assertThrows(DataFormatException.class, () -> decode(deflate(raw), 4));
+    }
+
+    @Test
+    public void rejectsRunPastTileEnd() {
+        byte[] raw = {0x00, 0x01, 1, 2, 3, 0, 5};
+        assertThrows(DataFormatException.class, () -> decode(deflate(raw), 4));
+    }
+
+    @Test
+    public void rejectsEmptyRun() {
+        byte[] raw = {0x00, 0x01, 1, 2, 3, 0, 0, 0, 4};
+        assertThrows(DataFormatException.class, () -> decode(deflate(raw), 4));
+    }
+
+    @Test
+    public void rejectsOverlongRunLength() {
+        byte[] raw = {0x00, 0x01, 1, 2, 3, 0, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 1};
+        assertThrows(DataFormatException.class, () -> decode(deflate(raw), 4));
+    }
+
+    @Test
+    public void rejectsTooFewPixels() {
+        byte[] raw = {0x00, 0x01, 1, 2, 3, 0, 3};
+        assertThrows(DataFormatException.class, () -> decode(deflate(raw), 4));
+    }
+
+    @Test
+    public void rejectsRunLengthCutOff() {
+        byte[] raw = {0x00, 0x01, 1, 2, 3, 0, (byte) 0x84};
+        assertThrows(DataFormatException.class, () -> decode(deflate(raw), 4));
+    }
+
+    @Test
+    public void rejectsTruncatedDeflateStream() {
+        int[] pixels = new int[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            pixels[i] = i % 3 * 0x404040;
+        }
+        byte[] data = codec.encode(pixels, LENGTH);
+        assertThrows(DataFormatException.class, () -> decode(Arrays.copyOf(data, data.length / 2), LENGTH));
+    }
+
+    @Test
+    public void rejectsDataInflatingPastTileSize() {
+        // A valid tile followed by megabytes of padding
+        byte[] raw = new byte[4 << 20];
+        raw[1] = 1;
+        raw[6] = 4;
+        assertThrows(DataFormatException.class, () -> decode(deflate(raw), 4));
+    }
+
+    private int[] decode(byte[] data, int length) throws DataFormatException {
+        int[] pixels = new int[length];
+        codec.decode(data, pixels, length);
+        return pixels;
+    }
+
+    static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        while (!deflater.finished()) {
+            out.write(chunk, 0, deflater.deflate(chunk));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,85 @@
+package src.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class Rgb565CodecTest {
+    private static final int LENGTH = Constants.TILE_SIZE * Constants.TILE_SIZE;
+
+    private final Rgb565Codec codec = new Rgb565Codec();
+
+    @Test
+    public void roundTripsSixteenBitColors() throws DataFormatException {
+        // Colors that survive 5-6-5 packing unchanged
+        Random random = new Random(1);
+        int[] pixels = new int[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            pixels[i] = Rgb565Codec.expand(random.nextInt(1 << 16));
+        }
+        int[] decoded = new int[LENGTH];
+        codec.decode(codec.encode(pixels, LENGTH, Integer.MAX_VALUE), decoded, LENGTH);
+        assertArrayEquals(pixels, decoded);
+    }
+
+    @Test
+    public void keepsHighBitsOfFullColors() throws DataFormatException {
+        int[] pixels = new int[LENGTH];
+        Arrays.fill(pixels, 0xfffefd);
+        int[] decoded = new int[LENGTH];
+        codec.decode(codec.encode(pixels, LENGTH, Integer.MAX_VALUE), decoded, LENGTH);
+        assertEquals(0xffffff, decoded[0]);
+    }
+
+    @Test
+    public void expandsToFullRange() {
+        assertEquals(0x000000, Rgb565Codec.expand(0x0000));
+        assertEquals(0xffffff, Rgb565Codec.expand(0xffff));
+        assertEquals(0xff0000, Rgb565Codec.expand(0xf800));
+    }
+
+    @Test
+    public void givesUpOverBudget() {
+        Random random = new Random(2);
+        int[] pixels = new int[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            pixels[i] = random.nextInt();
+        }
+        assertNull(codec.encode(pixels, LENGTH, 100));
+    }
+
+    @Test
+    public void rejectsTruncatedData() {
+        int[] pixels = new int[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            pixels[i] = i * 31;
+        }
+        byte[] data = codec.encode(pixels, LENGTH, Integer.MAX_VALUE);
+        byte[] truncated = Arrays.copyOf(data, data.length / 2);
+        assertThrows(DataFormatException.class, () -> codec.decode(truncated, new int[LENGTH], LENGTH));
+    }
+
+    @Test
+    public void rejectsDataForSmallerTile() {
+        byte[] data = codec.encode(new int[LENGTH / 4], LENGTH / 4, Integer.MAX_VALUE);
+        assertThrows(DataFormatException.class, () -> codec.decode(data, new int[LENGTH], LENGTH));
+    }
+
+    @Test
+    public void rejectsGarbage() {
+        byte[] data = {1, 2, 3, 4, 5, 6, 7, 8};
+        assertThrows(DataFormatException.class, () -> codec.decode(data, new int[LENGTH], LENGTH));
+    }
+
+    @Test
+    public void rejectsEmptyData() {
+        assertThrows(DataFormatException.class, () -> codec.decode(new byte[0], new int[LENGTH], LENGTH));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,96 @@
+package src.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class XorDeltaCodecTest {
+    private static final int LENGTH = Constants.TILE_SIZE * Constants.TILE_SIZE;
+
+    private final XorDeltaCodec codec = new XorDeltaCodec();
+
+    @Test
+    public void roundTripsKey() throws DataFormatException {
+        int[] pixels = randomPixels(1);
+        byte[] data = codec.encodeKey(pixels, LENGTH);
+        assertFalse(XorDeltaCodec.isDelta(data));
+
+        // A key doesn't depend on what was there before
+        int[] decoded = randomPixels(2);
+        codec.decode(data, decoded, LENGTH);
+        assertArrayEquals(pixels, decoded);
+    }
+
+    @Test
+    public void appliesDeltaToPreviousContent() throws DataFormatException {
+        int[] previous = randomPixels(1);
+        int[] pixels = previous.clone();
+        for (int i = 100; i < 300; i++) {
+            pixels[i] ^= 0x0f0f0f;
+        }
+        byte[] data = codec.encodeDelta(pixels, previous, LENGTH);
+        assertTrue(XorDeltaCodec.isDelta(data));
+
+        int[] decoded = previous.clone();
+        codec.decode(data, decoded, LENGTH);
+        assertArrayEquals(pixels, decoded);
+    }
+
+    @Test
+    public void roundTripsEdgeTile() throws DataFormatException {
+        int length = 20 * 64;
+        int[] pixels = Arrays.copyOf(randomPixels(3), length);
+        int[] decoded = new int[length];
+        codec.decode(codec.encodeKey(pixels, length), decoded, length);
+        assertArrayEquals(pixels, decoded);
+    }
+
+    @Test
+    public void rejectsEmptyData() {
+        assertThrows(DataFormatException.class, () -> codec.decode(new byte[0], new int[LENGTH], LENGTH));
+    }
+
+    @Test
+    public void rejectsUnknownTileType() {
+        byte[] data = codec.encodeKey(randomPixels(1), LENGTH);
+        data[0] = 7;
+        assertThrows(DataFormatException.class, () -> codec.decode(data, new int[LENGTH], LENGTH));
+    }
+
+    @Test
+    public void rejectsTruncatedData() {
+        byte[] data = codec.encodeKey(randomPixels(1), LENGTH);
+        byte[] truncated = Arrays.copyOf(data, data.length / 2);
+        assertThrows(DataFormatException.class, () -> codec.decode(truncated, new int[LENGTH], LENGTH));
+    }
+
+    @Test
+    public void rejectsDataForSmallerTile() {
+        byte[] data = codec.encodeKey(randomPixels(1), LENGTH / 2);
+        assertThrows(DataFormatException.class, () -> codec.decode(data, new int[LENGTH], LENGTH));
+    }
+
+    @Test
+    public void rejectsCorruptDeflateStream() {
+        byte[] data = codec.encodeKey(randomPixels(1), LENGTH);
+        Arrays.fill(data, 1, Math.min(data.length, 9), (byte) 0xff);
+        assertThrows(DataFormatException.class, () -> codec.decode(data, new int[LENGTH], LENGTH));
+    }
+
+    // Few enough distinct values that the planes compress
+    private static int[] randomPixels(long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            pixels[i] = random.nextInt(16) * 0x100f01;
+        }
+        return pixels;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,106 @@
+package src.server;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+
+// Measures how much the capture and diff stages allocate per frame, on synthetic frames.
+// Needs no display, so it runs with -Djava.awt.headless=true:
+//   java -Djava.awt.headless=true -cp target/classes:target/test-classes src.server.CaptureAllocationBenchmark [scenario|all] [frames] [width] [height] [seed]
+// Runs the steps the capture thread and the encoders' diff pass take for every frame: capture, change
+// probe bookkeeping, hand-off to a CapturedFrame and the full-resolution diff, but no encoding.
+// Each scenario runs with captures taken into pooled images and into new ones, as Robot does.
+// The synthetic source's own drawing allocates a little per frame and is included in the capture figure.
+public class CaptureAllocationBenchmark {
+    private static final int WARMUP_FRAMES = 50;
+
+    public static void main(String[] args) throws Exception {
+        String which = args.length > 0 ? args[0] : "all";
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+        int width = args.length > 2 ? Integer.parseInt(args[2]) : 1920;
+        int height = args.length > 3 ? Integer.parseInt(args[3]) : 1080;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 42;
+
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+            System.out.println("This JVM doesn't report allocated memory per thread");
+            return;
+        }
+        com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+        allocation.setThreadAllocatedMemoryEnabled(true);
+
+        TileEncoder tileEncoder = new TileEncoder();
+        for (SyntheticCaptureSource.Scenario scenario : SyntheticCaptureSource.Scenario.values()) {
+            if (which.equalsIgnoreCase("all") || which.equalsIgnoreCase(scenario.name())) {
+                for (boolean pooled : new boolean[] {true, false}) {
+                    run(new SyntheticCaptureSource(scenario, width, height, seed), frames, pooled, tileEncoder, allocation);
+                }
+            }
+        }
+        tileEncoder.shutdown();
+    }
+
+    private static void run(SyntheticCaptureSource source, int frames, boolean pooled, TileEncoder tileEncoder,
+                            com.sun.management.ThreadMXBean allocation) throws Exception {
+        Rectangle area = source.getBounds();
+        ImagePool imagePool = new ImagePool();
+        ChangeProbe changeProbe = new ChangeProbe();
+        FrameBuffer grid = new FrameBuffer(area.width, area.height);
+        BufferedImage previous = null;
+        long self = Thread.currentThread().getId();
+
+        long[] threadIds = null;
+        long startTotal = 0;
+        long captureBytes = 0;
+        long start = 0;
+
+        for (int i = 0; i < WARMUP_FRAMES + frames; i++) {
+            if (i == WARMUP_FRAMES) {
+                // The encoder pool's threads exist by now, so they can all be followed from here on
+                threadIds = allocation.getAllThreadIds();
+                startTotal = sum(allocation.getThreadAllocatedBytes(threadIds));
+                start = System.nanoTime();
+            }
+
+            long captureStart = allocation.getThreadAllocatedBytes(self);
+            long now = System.nanoTime();
+            BufferedImage image = source.capture(area, pooled ? imagePool : null);
+            changeProbe.recordCapture(image, area, now);
+            if (i >= WARMUP_FRAMES) {
+                captureBytes += allocation.getThreadAllocatedBytes(self) - captureStart;
+            }
+
+            // What FramePipeline.submit and the publisher do with the image, minus the rings
+            CapturedFrame frame = new CapturedFrame(i + 1, image, previous, grid, now, imagePool);
+            tileEncoder.encodeFrame(frame);
+            frame.release();
+            imagePool.retain(image);
+            if (previous != null) {
+                imagePool.release(previous);
+            }
+            previous = image;
+            imagePool.release(image);
+        }
+
+        double elapsed = (System.nanoTime() - start) / 1_000_000_000.0;
+        long totalBytes = sum(allocation.getThreadAllocatedBytes(threadIds)) - startTotal;
+        long diffBytes = totalBytes - captureBytes;
+        long frameBytes = (long) area.width * area.height * 4;
+
+        System.out.printf("%s (%dx%d, seed %d), %s images%n", source.getScenario(), area.width, area.height,
+            source.getSeed(), pooled ? "pooled" : "new");
+        System.out.printf("  capture: %.1f KB/frame (one frame is %d KB), diff: %.1f KB/frame, %.1f frames/s%n",
+            captureBytes / 1024.0 / frames, frameBytes / 1024, diffBytes / 1024.0 / frames, frames / elapsed);
+        System.out.printf("  images allocated: %d, in use at the end: %d%n",
+            imagePool.getAllocatedImages(), imagePool.getImagesInUse());
+    }
+
+    private static long sum(long[] values) {
+        long total = 0;
+        for (long value : values) {
+            total += Math.max(0, value);
+        }
+        return total;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,236 @@
+package src.server;
+
+import src.common.Constants;
+import src.common.Frame;
+import src.common.PayloadBuffer;
+import src.common.Protocol;
+import src.common.ThreadMode;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+// Compares the connection engine's worker modes under many connections.
+//   java -cp target/classes:target/test-classes src.server.ConnectionLoadTest [platform|virtual|all] [connections] [seconds] [blockMillis] [intervalMillis]
+// Every connection sends a small message every intervalMillis. The handler blocks for blockMillis before
+// answering, as a handler waiting on the database does, so with enough connections a fixed platform
+// pool runs out of threads while virtual workers keep up. Reports the platform threads the JVM ran,
+// memory and the round-trip latency seen by the clients, which all run on one selector thread.
+// Virtual threads need Java 21; on older runtimes that mode is skipped.
+public class ConnectionLoadTest {
+    private static final int PORT = 5099;
+    private static final int WARMUP_SECONDS = 2;
+    private static final int MAX_SAMPLES = 5_000_000;
+
+    public static void main(String[] args) throws Exception {
+        String which = args.length > 0 ? args[0] : "all";
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int blockMillis = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        int intervalMillis = args.length > 4 ? Integer.parseInt(args[4]) : 100;
+
+        for (ThreadMode.Mode mode : ThreadMode.Mode.values()) {
+            if (!which.equalsIgnoreCase("all") && !which.equalsIgnoreCase(mode.name())) {
+                continue;
+            }
+            if (mode == ThreadMode.Mode.VIRTUAL && !ThreadMode.isVirtualSupported()) {
+                System.out.println(mode + ": not supported by this runtime (Java "
+                    + System.getProperty("java.specification.version") + "), skipped");
+                continue;
+            }
+            run(mode, connections, seconds, blockMillis, intervalMillis);
+        }
+    }
+
+    private static void run(ThreadMode.Mode mode, int connections, int seconds, int blockMillis, int intervalMillis)
+            throws Exception {
+        ThreadMode.setMode(mode);
+        ConnectionEngine engine = new ConnectionEngine(connection -> {
+            connection.setHandler(new Connection.Handler() {
+                @Override
+                public void onMessage(Frame message) throws IOException {
+                    int id = message.openPayload().readInt();
+                    try {
+                        Thread.sleep(blockMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    PayloadBuffer reply = new PayloadBuffer();
+                    new DataOutputStream(reply).writeInt(id);
+                    connection.send(Connection.Priority.CONTROL, message.getType(), reply);
+                }
+
+                @Override
+                public void onClosed(String reason) {
+                }
+            });
+        });
+        engine.start("127.0.0.1", PORT);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+
+        LoadGenerator generator = new LoadGenerator(connections, intervalMillis);
+        generator.runFor(WARMUP_SECONDS);
+        generator.reset();
+        threads.resetPeakThreadCount();
+        long start = System.nanoTime();
+        generator.runFor(seconds);
+        double elapsed = (System.nanoTime() - start) / 1_000_000_000.0;
+
+        System.gc();
+        long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        long[] latencies = generator.getLatencies();
+        Arrays.sort(latencies);
+
+        System.out.printf("%s workers: %d connections, handler blocks %d ms, one message per connection every %d ms%n",
+            mode, connections, blockMillis, intervalMillis);
+        System.out.printf("  %.0f replies/s, round trip p50 %.1f ms, p99 %.1f ms, p99.9 %.1f ms, max %.1f ms%n",
+            latencies.length / elapsed, percentile(latencies, 0.5), percentile(latencies, 0.99),
+            percentile(latencies, 0.999), latencies.length == 0 ? 0 : latencies[latencies.length - 1] / 1e6);
+        System.out.printf("  platform threads: %d live, %d peak; heap used %d MB, resident %s%n",
+            threads.getThreadCount(), threads.getPeakThreadCount(), heap >> 20, residentMemory());
+
+        generator.close();
+        engine.stop();
+        // Let the I/O threads drop the connections before the next run binds the port again
+        Thread.sleep(500);
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.round(fraction * (sorted.length - 1)))] / 1e6;
+    }
+
+    // Resident set size from /proc on Linux, which unlike the heap includes thread stacks
+    private static String residentMemory() {
+        try (BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) / 1024 + " MB";
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not Linux
+        }
+        return "n/a";
+    }
+
+    // All client connections on one thread: each sends a message when due and waits for its reply
+    private static class LoadGenerator {
+        private final Selector selector;
+        private final SocketChannel[] channels;
+        private final ByteBuffer[] replies;
+        private final long[] sentAt;
+        private final long[] nextSend;
+        private final long intervalNanos;
+        private final ByteBuffer request = ByteBuffer.allocate(Protocol.HEADER_SIZE + 4);
+        private long[] latencies = new long[1024];
+        private int samples;
+        private int nextId;
+
+        LoadGenerator(int connections, int intervalMillis) throws IOException {
+            selector = Selector.open();
+            channels = new SocketChannel[connections];
+            replies = new ByteBuffer[connections];
+            sentAt = new long[connections];
+            nextSend = new long[connections];
+            intervalNanos = intervalMillis * 1_000_000L;
+            long now = System.nanoTime();
+            for (int i = 0; i < connections; i++) {
+                channels[i] = SocketChannel.open(new InetSocketAddress("127.0.0.1", PORT));
+                handshake(channels[i]);
+                channels[i].configureBlocking(false);
+                channels[i].register(selector, SelectionKey.OP_READ, i);
+                replies[i] = ByteBuffer.allocate(Protocol.HEADER_SIZE + 4);
+                // Spread the connections over the interval
+                nextSend[i] = now + intervalNanos * i / connections;
+            }
+        }
+
+        private void handshake(SocketChannel channel) throws IOException {
+            channel.write(Protocol.encodeHello(new Protocol.Hello(Protocol.VERSION, Protocol.CAPABILITIES)));
+            DataInputStream in = new DataInputStream(channel.socket().getInputStream());
+            if (Protocol.readHello(in).version != Protocol.VERSION) {
+                throw new IOException("Server refused protocol version " + Protocol.VERSION);
+            }
+        }
+
+        void runFor(int seconds) throws IOException {
+            long end = System.nanoTime() + seconds * 1_000_000_000L;
+            while (System.nanoTime() < end) {
+                long now = System.nanoTime();
+                for (int i = 0; i < channels.length; i++) {
+                    if (sentAt[i] == 0 && now - nextSend[i] >= 0) {
+                        send(i, now);
+                    }
+                }
+
+                selector.select(1);
+                for (SelectionKey key : selector.selectedKeys()) {
+                    int i = (Integer) key.attachment();
+                    if (channels[i].read(replies[i]) < 0) {
+                        throw new IOException("Server closed connection " + i);
+                    }
+                    if (!replies[i].hasRemaining()) {
+                        replies[i].clear();
+                        record(System.nanoTime() - sentAt[i]);
+                        sentAt[i] = 0;
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        }
+
+        private void send(int i, long now) throws IOException {
+            request.clear();
+            // A frame header and one int; the sequence number is unused
+            request.putInt(4).putShort((short) Constants.MESSAGE_TYPE_SCREEN_ACK).put((byte) 0)
+                .put((byte) Protocol.CHANNEL_CONTROL).putInt(nextId).putInt(++nextId).flip();
+            channels[i].write(request);
+            sentAt[i] = now;
+            nextSend[i] += intervalNanos;
+            // A connection that falls behind skips the sends it missed
+            if (now - nextSend[i] > 0) {
+                nextSend[i] = now + intervalNanos;
+            }
+        }
+
+        private void record(long latency) {
+            if (samples == latencies.length && samples < MAX_SAMPLES) {
+                latencies = Arrays.copyOf(latencies, Math.min(MAX_SAMPLES, samples * 2));
+            }
+            if (samples < latencies.length) {
+                latencies[samples++] = latency;
+            }
+        }
+
+        void reset() {
+            samples = 0;
+        }
+
+        long[] getLatencies() {
+            return Arrays.copyOf(latencies, samples);
+        }
+
+        void close() throws IOException {
+            for (SocketChannel channel : channels) {
+                channel.close();
+            }
+            selector.close();
+        }
+    }
+}
\ No newline at end of file
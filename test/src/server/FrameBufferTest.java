@@ -0,0 +1,66 @@
+package src.server;
+
+import org.junit.jupiter.api.Test;
+import src.common.Constants;
+import src.common.ScreenUpdate;
+import src.common.XorDeltaCodec;
+
+import java.awt.image.BufferedImage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FrameBufferTest {
+    private static final int SIZE = Constants.TILE_SIZE;
+
+    private final XorDeltaCodec codec = new XorDeltaCodec();
+    private final FrameBuffer grid = new FrameBuffer(2 * SIZE, SIZE);
+    private final EncodeProfile profile = new EncodeProfile(new ProfileKey(1, 0.7f,
+        Constants.TILE_CODEC_XOR_DELTA, Constants.COLOR_DEPTH_FULL));
+
+    @Test
+    public void refreshesDeltaTileWithoutKey() {
+        grid.commit(frame(1, codec.encodeDelta(new int[SIZE * SIZE], new int[SIZE * SIZE], SIZE * SIZE)), 1);
+
+        // Held back from clients until a key arrives, and encoded again as one on the next capture
+        ScreenUpdate update = new ScreenUpdate();
+        grid.collectUpdateSince(0, update);
+        assertTrue(update.getTiles().isEmpty());
+        assertTrue(grid.hasRefreshRequests());
+
+        boolean[] tiles = new boolean[grid.getTileCount()];
+        grid.takeRefreshRequests(tiles);
+        assertTrue(tiles[1]);
+        assertFalse(tiles[0]);
+        assertFalse(grid.hasRefreshRequests());
+        assertTrue(grid.takeKeyRequest(1));
+    }
+
+    @Test
+    public void sendsKeyAndDeltasInOrder() {
+        byte[] key = codec.encodeKey(new int[SIZE * SIZE], SIZE * SIZE);
+        byte[] delta = codec.encodeDelta(new int[SIZE * SIZE], new int[SIZE * SIZE], SIZE * SIZE);
+        grid.commit(frame(1, key), 1);
+        grid.commit(frame(2, delta), 2);
+
+        ScreenUpdate update = new ScreenUpdate();
+        grid.collectUpdateSince(0, update);
+        assertEquals(2, update.getTiles().size());
+        assertFalse(grid.hasRefreshRequests());
+
+        update = new ScreenUpdate();
+        grid.collectUpdateSince(1, update);
+        assertEquals(1, update.getTiles().size());
+    }
+
+    // A frame that replaces the second tile with the given XOR delta data
+    private EncodedFrame frame(long sequence, byte[] data) {
+        BufferedImage image = new BufferedImage(2 * SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+        CapturedFrame captured = new CapturedFrame(sequence, image, null, grid, 0, new ImagePool());
+        EncodedFrame encoded = new EncodedFrame(captured, profile, grid, false);
+        encoded.getTileUpdates()[1] = data;
+        encoded.getTileCodecs()[1] = Constants.TILE_CODEC_XOR_DELTA;
+        return encoded;
+    }
+}
\ No newline at end of file
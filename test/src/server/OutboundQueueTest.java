@@ -0,0 +1,133 @@
+package src.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OutboundQueueTest {
+    private final OutboundQueue queue = new OutboundQueue();
+
+    @Test
+    public void writesHigherPrioritiesFirst() {
+        ByteBuffer screen = frame(100);
+        ByteBuffer file = frame(200);
+        ByteBuffer control = frame(10);
+        queue.add(Connection.Priority.SCREEN, screen, false, true);
+        queue.add(Connection.Priority.FILE, file, false, true);
+        queue.add(Connection.Priority.CONTROL, control, false, true);
+
+        assertSame(control, queue.poll().data);
+        assertSame(screen, queue.poll().data);
+        assertSame(file, queue.poll().data);
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void keepsOrderWithinPriority() {
+        ByteBuffer first = frame(1);
+        ByteBuffer second = frame(2);
+        queue.add(Connection.Priority.CHAT, first, false, true);
+        queue.add(Connection.Priority.CHAT, second, false, true);
+        assertSame(first, queue.poll().data);
+        assertSame(second, queue.poll().data);
+    }
+
+    @Test
+    public void replacesQueuedReplaceableMessage() {
+        queue.add(Connection.Priority.CURSOR, frame(8), true, true);
+        ByteBuffer newest = frame(8);
+        queue.add(Connection.Priority.CURSOR, newest, true, true);
+        assertEquals(8, queue.getBytes(Connection.Priority.CURSOR));
+        assertSame(newest, queue.poll().data);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void keepsMessagesThatArentReplaceable() {
+        queue.add(Connection.Priority.CURSOR, frame(8), false, true);
+        queue.add(Connection.Priority.CURSOR, frame(8), true, true);
+        assertEquals(16, queue.getBytes());
+    }
+
+    @Test
+    public void writesHigherPriorityBetweenChunks() {
+        ByteBuffer chunk1 = frame(100);
+        ByteBuffer chunk2 = frame(100);
+        queue.add(Connection.Priority.FILE, chunk1, false, true);
+        queue.add(Connection.Priority.FILE, chunk2, false, false);
+        assertSame(chunk1, queue.poll().data);
+
+        ByteBuffer cursor = frame(8);
+        queue.add(Connection.Priority.CURSOR, cursor, true, true);
+        assertSame(cursor, queue.poll().data);
+        assertSame(chunk2, queue.poll().data);
+    }
+
+    @Test
+    public void withdrawsWholeNewestMessage() {
+        queue.add(Connection.Priority.SCREEN, frame(10), false, true);
+        queue.add(Connection.Priority.SCREEN, frame(20), false, true);
+        queue.add(Connection.Priority.SCREEN, frame(20), false, false);
+        queue.add(Connection.Priority.SCREEN, frame(20), false, false);
+
+        assertTrue(queue.withdraw(Connection.Priority.SCREEN));
+        assertEquals(10, queue.getBytes(Connection.Priority.SCREEN));
+        assertTrue(queue.withdraw(Connection.Priority.SCREEN));
+        assertEquals(0, queue.getBytes());
+        assertTrue(queue.isEmpty());
+        assertFalse(queue.withdraw(Connection.Priority.SCREEN));
+    }
+
+    @Test
+    public void doesNotWithdrawMessageBeingWritten() {
+        queue.add(Connection.Priority.SCREEN, frame(10), false, true);
+        queue.add(Connection.Priority.SCREEN, frame(20), false, true);
+        queue.add(Connection.Priority.SCREEN, frame(20), false, false);
+        queue.poll();
+        queue.poll();
+
+        // The rest of the newest message has to go out, and nothing older may be taken in its place
+        assertFalse(queue.withdraw(Connection.Priority.SCREEN));
+        assertEquals(20, queue.getBytes());
+    }
+
+    @Test
+    public void doesNotWithdrawRestOfDirectlyWrittenMessage() {
+        // A message whose first frame went straight to the socket only has its later frames queued
+        queue.add(Connection.Priority.SCREEN, frame(20), false, false);
+        assertFalse(queue.withdraw(Connection.Priority.SCREEN));
+        assertEquals(20, queue.getBytes());
+    }
+
+    @Test
+    public void withdrawsOnlyFromGivenPriority() {
+        queue.add(Connection.Priority.FILE, frame(10), false, true);
+        assertFalse(queue.withdraw(Connection.Priority.SCREEN));
+        assertEquals(10, queue.getBytes());
+    }
+
+    @Test
+    public void countsBytes() {
+        queue.add(Connection.Priority.SCREEN, frame(10), false, true);
+        queue.add(Connection.Priority.FILE, frame(30), false, true);
+        assertEquals(40, queue.getBytes());
+        assertEquals(30, queue.getBytes(Connection.Priority.FILE));
+        queue.poll();
+        assertEquals(30, queue.getBytes());
+        queue.clear();
+        assertEquals(0, queue.getBytes());
+        assertTrue(queue.isEmpty());
+        assertTrue(queue.isEmpty(Connection.Priority.FILE));
+    }
+
+    private static ByteBuffer frame(int size) {
+        return ByteBuffer.allocate(size);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,161 @@
+package src.server;
+
+import src.common.Constants;
+import src.common.ScreenTile;
+import src.common.ScreenUpdate;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Runs the capture -> encode -> publish path on synthetic frames and reports throughput.
+// Needs no display, so it runs with -Djava.awt.headless=true:
+//   java -Djava.awt.headless=true -cp target/classes:target/test-classes src.server.PipelineBenchmark [scenario|all] [seconds] [fps] [width] [height] [seed]
+//       [colorDepth] [codec] [probe]
+// The scenario "screen" captures the real desktop through Robot instead, which needs a display and
+// ignores the size and seed; leave the desktop idle to see what an idle pipeline costs.
+// colorDepth is one of the Constants.COLOR_DEPTH_* values, codec one of adaptive, jpeg or delta, and
+// probe one of regions (probe and capture only changed regions), full (probe, but capture everything)
+// or off; any of them can be "all" to compare them
+public class PipelineBenchmark {
+    public static void main(String[] args) throws Exception {
+        String which = args.length > 0 ? args[0] : "all";
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int fps = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+        int width = args.length > 3 ? Integer.parseInt(args[3]) : 1920;
+        int height = args.length > 4 ? Integer.parseInt(args[4]) : 1080;
+        long seed = args.length > 5 ? Long.parseLong(args[5]) : 42;
+        String depths = args.length > 6 ? args[6] : String.valueOf(Constants.COLOR_DEPTH_FULL);
+        String codecs = args.length > 7 ? args[7] : "adaptive";
+        String probes = args.length > 8 ? args[8] : "regions";
+
+        String[] codecNames = {"adaptive", "jpeg", "delta"};
+        byte[] codecValues = {Constants.TILE_CODEC_PALETTE, Constants.TILE_CODEC_JPEG, Constants.TILE_CODEC_XOR_DELTA};
+
+        if (which.equalsIgnoreCase("screen")) {
+            for (byte depth = Constants.COLOR_DEPTH_FULL; depth <= Constants.COLOR_DEPTH_GRAYSCALE; depth++) {
+                if (depths.equalsIgnoreCase("all") || Byte.parseByte(depths) == depth) {
+                    for (int i = 0; i < codecNames.length; i++) {
+                        if (codecs.equalsIgnoreCase("all") || codecs.equalsIgnoreCase(codecNames[i])) {
+                            ProfileKey key = new ProfileKey(1, Constants.JPEG_QUALITY, codecValues[i], depth);
+                            for (String probe : new String[] {"regions", "full", "off"}) {
+                                if (probes.equalsIgnoreCase("all") || probes.equalsIgnoreCase(probe)) {
+                                    run(new RobotCaptureSource(), "SCREEN", seconds, fps, key, probe);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+            return;
+        }
+
+        for (SyntheticCaptureSource.Scenario scenario : SyntheticCaptureSource.Scenario.values()) {
+            if (which.equalsIgnoreCase("all") || which.equalsIgnoreCase(scenario.name())) {
+                for (byte depth = Constants.COLOR_DEPTH_FULL; depth <= Constants.COLOR_DEPTH_GRAYSCALE; depth++) {
+                    if (depths.equalsIgnoreCase("all") || Byte.parseByte(depths) == depth) {
+                        for (int i = 0; i < codecNames.length; i++) {
+                            if (codecs.equalsIgnoreCase("all") || codecs.equalsIgnoreCase(codecNames[i])) {
+                                ProfileKey key = new ProfileKey(1, Constants.JPEG_QUALITY, codecValues[i], depth);
+                                for (String probe : new String[] {"regions", "full", "off"}) {
+                                    if (probes.equalsIgnoreCase("all") || probes.equalsIgnoreCase(probe)) {
+                                        run(new SyntheticCaptureSource(scenario, width, height, seed),
+                                            scenario + ", seed " + seed, seconds, fps, key, probe);
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void run(CaptureSource source, String name, int seconds, int fps, ProfileKey key,
+                            String probe) throws InterruptedException {
+        ScreenCapturer capturer = new ScreenCapturer(source);
+        capturer.setTargetFps(fps);
+        capturer.getChangeProbe().setEnabled(!probe.equals("off"));
+        capturer.getChangeProbe().setPartialCaptures(probe.equals("regions"));
+        EncodeCache encodeCache = capturer.getEncodeCache();
+
+        // Stands in for a client's screen sender, without the socket
+        AtomicLong updates = new AtomicLong();
+        AtomicLong bytes = new AtomicLong();
+        EncodeProfile profile = encodeCache.acquire(key);
+        Thread sender = new Thread(() -> {
+            ScreenUpdate update = new ScreenUpdate();
+            long lastSequence = 0;
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    FrameBuffer frameBuffer = capturer.awaitFrame(profile, lastSequence, 100);
+                    if (frameBuffer == null) {
+                        continue;
+                    }
+                    update.clear();
+                    lastSequence = frameBuffer.collectUpdateSince(lastSequence, update);
+                    long size = update.getCopies().size() * 24L;
+                    for (ScreenTile tile : update.getTiles()) {
+                        size += 17 + tile.getData().length;
+                    }
+                    updates.incrementAndGet();
+                    bytes.addAndGet(size);
+                }
+            } catch (InterruptedException e) {
+                // Done
+            }
+        }, "BenchmarkSender");
+
+        capturer.startCapturing();
+        sender.start();
+
+        // Skip the first full frame and pipeline warm-up
+        Thread.sleep(1000);
+        capturer.getScheduler().resetStats();
+        capturer.getChangeProbe().resetStats();
+        capturer.getRegionCapturer().resetStats();
+        long startCpu = getProcessCpuNanos();
+        long startUpdates = updates.get();
+        long startBytes = bytes.get();
+        long start = System.nanoTime();
+
+        Thread.sleep(seconds * 1000L);
+
+        double elapsed = (System.nanoTime() - start) / 1_000_000_000.0;
+        long cpu = getProcessCpuNanos() - startCpu;
+        long sentUpdates = updates.get() - startUpdates;
+        long sentBytes = bytes.get() - startBytes;
+        FrameScheduler scheduler = capturer.getScheduler();
+
+        sender.interrupt();
+        sender.join();
+        capturer.stopCapturing();
+        encodeCache.release(profile);
+
+        System.out.printf("%s (%dx%d, target %d fps)%n", name, source.getBounds().width,
+            source.getBounds().height, fps);
+        System.out.printf("  capture: %.1f fps, %d deadlines skipped, jitter avg %.3fms max %.3fms%n",
+            scheduler.getFrameCount() / elapsed, scheduler.getSkippedFrames(),
+            scheduler.getAverageJitterMillis(), scheduler.getMaxJitterMillis());
+        System.out.printf("  output: %.1f updates/s, %.1f KB/update, %.2f MB/s%n",
+            sentUpdates / elapsed, sentUpdates == 0 ? 0 : sentBytes / 1024.0 / sentUpdates,
+            sentBytes / elapsed / 1_000_000);
+        // Includes rendering the synthetic frames or grabbing the screen, so it only compares runs of the same scenario
+        System.out.printf("  capture decisions: %s, %d partial, %.1f%% of pixels captured; cpu %.0f%% of a core%n",
+            capturer.getChangeProbe(), capturer.getRegionCapturer().getPartialFrames(),
+            capturer.getRegionCapturer().getCapturedShare() * 100,
+            startCpu < 0 ? -1 : cpu / elapsed / 10_000_000.0);
+        for (StageMetrics metrics : capturer.getPipelineMetrics()) {
+            System.out.println("  " + metrics);
+        }
+        System.out.println("  " + profile);
+    }
+
+    // CPU time of the whole process, or -1 where the JVM doesn't report it
+    private static long getProcessCpuNanos() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1;
+    }
+}
\ No newline at end of file